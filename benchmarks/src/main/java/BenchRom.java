@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Rom images for benchmarks: a valid header around whatever code the benchmark puts in,
+ * written to a temp file since cartridges are only loaded from files.
+ */
+final class BenchRom {
+    static final int ENTRY = 0x0100;
+    static final int CODE_START = 0x0150;
+
+    private final byte[] rom;
+    private int position = CODE_START;
+
+    BenchRom(int cartridgeType, int romSizeCode, int ramSizeCode) {
+        rom = new byte[Cartridge.romSizeForCode(romSizeCode)];
+        emitAt(ENTRY, 0x00, 0xC3, CODE_START & 0xFF, CODE_START >> 8); // nop; jp CODE_START
+        byte[] title = "BENCHMARK".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(title, 0, rom, 0x134, title.length);
+        rom[0x147] = (byte) cartridgeType;
+        rom[0x148] = (byte) romSizeCode;
+        rom[0x149] = (byte) ramSizeCode;
+        int[] logo = MemoryManager.getBiosLogo();
+        for (int i = 0; i < logo.length; i++) {
+            rom[0x104 + i] = (byte) logo[i];
+        }
+    }
+
+    /**
+     * Address the next {@link #emit(int...)} writes to.
+     */
+    int here() {
+        return position;
+    }
+
+    BenchRom emit(int... bytes) {
+        emitAt(position, bytes);
+        position += bytes.length;
+        return this;
+    }
+
+    BenchRom emitAt(int address, int... bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            rom[address + i] = (byte) bytes[i];
+        }
+        return this;
+    }
+
+    /**
+     * jr back to {@code target}, which must be within 128 bytes.
+     */
+    BenchRom jr(int target) {
+        int offset = target - (position + 2);
+        if (offset < -128 || offset > 127) {
+            throw new IllegalArgumentException("jr target out of range: " + offset);
+        }
+        return emit(0x18, offset & 0xFF);
+    }
+
+    Cartridge toCartridge() {
+        int headerChecksum = 0;
+        for (int i = 0x134; i <= 0x14C; i++) {
+            headerChecksum = headerChecksum - rom[i] - 1;
+        }
+        rom[0x14D] = (byte) headerChecksum;
+        try {
+            Path file = Files.createTempFile("java-gb-bench", ".gb");
+            file.toFile().deleteOnExit();
+            Files.write(file, rom);
+            return new Cartridge(file.toString());
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
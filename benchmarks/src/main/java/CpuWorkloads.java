@@ -0,0 +1,106 @@
+import helpers.Logger;
+
+import java.io.File;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Machines for the cpu benchmarks (bench.CpuBenchmark, bench.CpuInstrsBenchmark).
+ * The returned runners execute the given number of instructions.
+ */
+final class CpuWorkloads {
+    private CpuWorkloads() {
+    }
+
+    /**
+     * A rom that loops over one group of opcodes forever: "loads", "alu", "cb" or "jumps".
+     * Every loop ends in a jr, so a few percent of any group is jumps.
+     */
+    static IntConsumer opcodeGroup(String group) {
+        BenchRom rom = new BenchRom(0x00, 0x00, 0x00);
+        int loop;
+        switch (group) {
+            case "loads":
+                rom.emit(0x21, 0x00, 0xC0);          // ld hl,$C000
+                loop = rom.here();
+                rom.emit(0x78, 0x41, 0x4A, 0x53, 0x5F, // ld a,b; ld b,c; ld c,d; ld d,e; ld e,a
+                        0x7E, 0x77,                  // ld a,(hl); ld (hl),a
+                        0x3E, 0x42, 0x06, 0x17,      // ld a,$42; ld b,$17
+                        0xFA, 0x00, 0xC0,            // ld a,($C000)
+                        0xEA, 0x01, 0xC0,            // ld ($C001),a
+                        0xF0, 0x80, 0xE0, 0x81);     // ldh a,($80); ldh ($81),a
+                break;
+            case "alu":
+                loop = rom.here();
+                rom.emit(0x80, 0x89, 0x92, 0x9B,     // add a,b; adc a,c; sub d; sbc a,e
+                        0xA4, 0xAD, 0xB0, 0xB9,      // and h; xor l; or b; cp c
+                        0x3C, 0x05, 0x27, 0x2F,      // inc a; dec b; daa; cpl
+                        0xC6, 0x11, 0xE6, 0xF0,      // add a,$11; and $F0
+                        0x09, 0x13);                 // add hl,bc; inc de
+                break;
+            case "cb":
+                loop = rom.here();
+                rom.emit(0xCB, 0x47, 0xCB, 0xC8,     // bit 0,a; set 1,b
+                        0xCB, 0x91, 0xCB, 0x12,      // res 2,c; rl d
+                        0xCB, 0x3B, 0xCB, 0x34,      // srl e; swap h
+                        0xCB, 0x0D, 0xCB, 0x7F,      // rrc l; bit 7,a
+                        0xCB, 0x27, 0xCB, 0x2F);     // sla a; sra a
+                break;
+            case "jumps":
+                rom.emitAt(0x0008, 0xC9);            // rst $08: ret
+                rom.emitAt(0x0200, 0xC5, 0xC1, 0xC9); // push bc; pop bc; ret
+                rom.emit(0x31, 0xFE, 0xFF);          // ld sp,$FFFE
+                loop = rom.here();
+                rom.emit(0xCD, 0x00, 0x02);          // call $0200
+                int next = rom.here() + 3;
+                rom.emit(0xC3, next & 0xFF, next >> 8); // jp next
+                rom.emit(0x20, 0x00, 0x28, 0x00,     // jr nz,+0; jr z,+0
+                        0xCF);                       // rst $08
+                int target = rom.here() + 4;
+                rom.emit(0x21, target & 0xFF, target >> 8, 0xE9); // ld hl,target; jp (hl)
+                break;
+            default:
+                throw new IllegalArgumentException("unknown opcode group " + group);
+        }
+        rom.jr(loop);
+
+        Machine machine = boot(rom.toCartridge());
+        return steps -> run(machine, steps);
+    }
+
+    /**
+     * Fresh copies of a rom's machine, each starting where the rom's code begins.
+     *
+     * @throws IllegalArgumentException if the rom isn't there
+     */
+    static Supplier<IntConsumer> romFromStart(String path) {
+        if (!new File(path).isFile()) {
+            throw new IllegalArgumentException(path + " not found, point the benchmark at it with -p rom=<path>");
+        }
+        Machine start = boot(new Cartridge(path));
+        return () -> {
+            Machine machine = start.fork();
+            machine.activate();
+            return steps -> run(machine, steps);
+        };
+    }
+
+    /**
+     * A headless machine at the rom's entry point, with the bootrom skipped.
+     */
+    static Machine boot(Cartridge cart) {
+        Machine machine = new Machine(cart, Logger.Level.FATAL);
+        machine.setPresentFrames(false);
+        // the serial port prints to stdout, which would be measured along with the cpu
+        machine.getMmu().mapIo(0xff01, null, value -> { });
+        machine.getCpu().skipBootrom();
+        machine.step(); // leaves the bootrom mapping, which logs
+        return machine;
+    }
+
+    private static void run(Machine machine, int steps) {
+        for (int i = 0; i < steps; i++) {
+            machine.step();
+        }
+    }
+}
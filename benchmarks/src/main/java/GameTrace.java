@@ -0,0 +1,102 @@
+import helpers.Logger;
+
+import java.util.Arrays;
+
+/**
+ * Every memory access the cpu made while a game ran, in order, plus a memory map left in
+ * the state the game was in when recording stopped. The memory benchmarks replay these
+ * so they measure the address mix games really produce.
+ *
+ * Recording presses START and then A every second, which gets the bundled games through
+ * their intros and title screens.
+ */
+final class GameTrace {
+    final Cartridge cart;
+    final MemoryManager mmu;
+    final int[] reads;  // addresses
+    final int[] writes; // address | value << 16
+
+    private GameTrace(Cartridge cart, MemoryManager mmu, int[] reads, int[] writes) {
+        this.cart = cart;
+        this.mmu = mmu;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    static int address(int write) {
+        return write & 0xFFFF;
+    }
+
+    static int value(int write) {
+        return write >>> 16;
+    }
+
+    /**
+     * Buttons held during {@code frame}: START and then A for a few frames every second.
+     */
+    static int scriptedButtons(int frame) {
+        int second = frame % 60;
+        return second < 5 ? Joypad.BUTTON_START : second >= 30 && second < 35 ? Joypad.BUTTON_A : 0;
+    }
+
+    static GameTrace record(String romPath, int frames) {
+        TimerService.reset();
+        InterruptManager.reset();
+        Joypad.reset();
+        Gpu gpu = new Gpu();
+        gpu.setPresentFrames(false);
+        Cartridge cart = new Cartridge(romPath);
+        MbcManager mbc = new MbcManager(cart);
+        Recorder recorder = new Recorder(mbc, gpu);
+        recorder.mapIo(0xff01, null, value -> { }); // serial goes to stdout
+        Cpu cpu = new Cpu(recorder, gpu, Logger.Level.FATAL);
+        cpu.skipBootrom();
+
+        for (int frame = 0; frame < frames && !cpu.paused; frame++) {
+            Joypad.getInstance().setButtons(scriptedButtons(frame));
+            long frameCount = gpu.getFrameCount();
+            while (gpu.getFrameCount() == frameCount && !cpu.paused) {
+                cpu.step();
+            }
+        }
+        Joypad.getInstance().setButtons(0);
+
+        // let a dma started by the last instructions finish, or it would lock OAM for good
+        for (int i = 0; i < 640; i++) {
+            TimerService.getInstance().tick();
+        }
+        // replays run on a plain memory map, not on the recorder
+        MemoryManager mmu = recorder.fork(mbc.fork(), gpu.fork());
+        return new GameTrace(cart, mmu, Arrays.copyOf(recorder.reads, recorder.readCount),
+                Arrays.copyOf(recorder.writes, recorder.writeCount));
+    }
+
+    private static final class Recorder extends MemoryManager {
+        private int[] reads = new int[1 << 20];
+        private int[] writes = new int[1 << 18];
+        private int readCount;
+        private int writeCount;
+
+        Recorder(MbcManager mbc, Gpu gpu) {
+            super(mbc, gpu);
+        }
+
+        @Override
+        public int readByte(final int address) {
+            if (readCount == reads.length) {
+                reads = Arrays.copyOf(reads, reads.length * 2);
+            }
+            reads[readCount++] = address;
+            return super.readByte(address);
+        }
+
+        @Override
+        public void writeByte(final int address, final int value) {
+            if (writeCount == writes.length) {
+                writes = Arrays.copyOf(writes, writes.length * 2);
+            }
+            writes[writeCount++] = address | value << 16;
+            super.writeByte(address, value);
+        }
+    }
+}
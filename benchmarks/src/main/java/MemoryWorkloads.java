@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Memory map workloads for bench.MemoryBenchmark and bench.BankingBenchmark, replaying
+ * accesses from a {@link GameTrace}. Each runner does {@code count} accesses per call, on
+ * the trace's memory map, so runners made from one trace share their memory.
+ */
+final class MemoryWorkloads {
+    private static final long SEED = 0x6A7661L; // same sample every run
+
+    enum Region {
+        ROM0(0x0000, 0x3FFF),
+        ROMX(0x4000, 0x7FFF),
+        VRAM(0x8000, 0x9FFF),
+        CART_RAM(0xA000, 0xBFFF),
+        WRAM(0xC000, 0xDFFF),
+        ECHO(0xE000, 0xFDFF),
+        OAM(0xFE00, 0xFE9F),
+        IO(0xFF00, 0xFF7F),
+        HRAM(0xFF80, 0xFFFE),
+        IE(0xFFFF, 0xFFFF),
+        ALL(0x0000, 0xFFFF);
+
+        final int start;
+        final int end;
+
+        Region(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private MemoryWorkloads() {
+    }
+
+    static GameTrace record(String romPath, int frames) {
+        return GameTrace.record(romPath, frames);
+    }
+
+    /**
+     * Reads from one region. The addresses are a sample of the game's reads from it, so hot
+     * addresses stay hot; ALL is a stretch of the trace as it happened. A region the game
+     * never read is read uniformly. The runner returns the sum of what it read.
+     */
+    static IntSupplier reads(GameTrace trace, String regionName, int count) {
+        Region region = Region.valueOf(regionName);
+        int[] addresses = sample(trace.reads, region, count, address -> address, false);
+        MemoryManager mmu = prepare(trace, region);
+        return () -> {
+            int sum = 0;
+            for (int address : addresses) {
+                sum += mmu.readByte(address);
+            }
+            return sum;
+        };
+    }
+
+    /**
+     * Writes to one region, sampled like {@link #reads}, with the values the game wrote.
+     * Writes to rom are mbc register writes. The runner returns the last address written.
+     */
+    static IntSupplier writes(GameTrace trace, String regionName, int count) {
+        Region region = Region.valueOf(regionName);
+        int[] writes = sample(trace.writes, region, count, GameTrace::address, true);
+        MemoryManager mmu = prepare(trace, region);
+        return () -> {
+            int last = 0;
+            for (int write : writes) {
+                last = GameTrace.address(write);
+                mmu.writeByte(last, GameTrace.value(write));
+            }
+            return last;
+        };
+    }
+
+    /**
+     * The game's mbc register writes back to back, each followed by a read from the switchable
+     * bank. Carts without any get a bank number write per read, cycling through the banks.
+     */
+    static IntSupplier bankSwitches(GameTrace trace, int count) {
+        int[] switches = inOrder(trace.writes, 0x0000, 0x7FFF, GameTrace::address);
+        if (switches.length == 0) {
+            int banks = Math.max(2, trace.cart.getRomSize() >> 14);
+            switches = new int[banks - 1];
+            for (int i = 0; i < switches.length; i++) {
+                switches[i] = 0x2000 | (i + 1) << 16;
+            }
+        }
+        int[] bankReads = sample(trace.reads, Region.ROMX, count, address -> address, false);
+        int[] writes = new int[count];
+        for (int i = 0; i < count; i++) {
+            writes[i] = switches[i % switches.length];
+        }
+        MemoryManager mmu = trace.mmu;
+        return () -> {
+            int sum = 0;
+            for (int i = 0; i < writes.length; i++) {
+                mmu.writeByte(GameTrace.address(writes[i]), GameTrace.value(writes[i]));
+                sum += mmu.readByte(bankReads[i]);
+            }
+            return sum;
+        };
+    }
+
+    /**
+     * OAM DMA transfers from the pages the game copied sprites from (work ram if it never did).
+     * The runner returns the last source page.
+     */
+    static IntSupplier dma(GameTrace trace, int count) {
+        int[] sources = inOrder(trace.writes, 0xFF46, 0xFF46, GameTrace::address);
+        int[] pages = new int[count];
+        for (int i = 0; i < count; i++) {
+            pages[i] = sources.length == 0 ? 0xC0 : GameTrace.value(sources[i % sources.length]);
+        }
+        MemoryManager mmu = trace.mmu;
+        return () -> {
+            for (int page : pages) {
+                mmu.writeByte(0xFF46, page);
+            }
+            return pages[pages.length - 1];
+        };
+    }
+
+    private static MemoryManager prepare(GameTrace trace, Region region) {
+        if (region == Region.CART_RAM) {
+            // games only enable cart ram around the accesses, measure the enabled path
+            trace.mmu.writeByte(0x0000, 0x0A);
+        }
+        return trace.mmu;
+    }
+
+    private static int[] sample(int[] trace, Region region, int count,
+                                IntUnaryOperator addressOf, boolean withValues) {
+        Random random = new Random(SEED);
+        int[] samples = new int[count];
+        if (region == Region.ALL) {
+            int from = trace.length > count ? random.nextInt(trace.length - count) : 0;
+            for (int i = 0; i < count; i++) {
+                samples[i] = trace[(from + i) % trace.length];
+            }
+            return samples;
+        }
+
+        int[] matching = inOrder(trace, region.start, region.end, addressOf);
+        for (int i = 0; i < count; i++) {
+            if (matching.length > 0) {
+                samples[i] = matching[random.nextInt(matching.length)];
+            }
+            else {
+                int address = region.start + random.nextInt(region.end - region.start + 1);
+                samples[i] = withValues ? address | random.nextInt(0x100) << 16 : address;
+            }
+        }
+        return samples;
+    }
+
+    private static int[] inOrder(int[] trace, int start, int end, IntUnaryOperator addressOf) {
+        return Arrays.stream(trace)
+                .filter(entry -> addressOf.applyAsInt(entry) >= start && addressOf.applyAsInt(entry) <= end)
+                .toArray();
+    }
+}
@@ -0,0 +1,53 @@
+import java.lang.management.ManagementFactory;
+import java.util.function.IntSupplier;
+
+/**
+ * Quick gpu numbers without JMH: time and allocation per rendered frame for each bundled
+ * game's scene (see {@link PpuWorkloads}). Less rigorous than bench.PpuBenchmark, but done
+ * in seconds:
+ *
+ *     java -cp target/benchmarks.jar PpuBench [rom directory] [frames]
+ */
+public class PpuBench {
+    private static final String[] GAMES = {"tetris", "drmario", "pokebluejp"};
+    private static volatile int sink; // keeps the results alive
+
+    public static void main(String[] args) {
+        String romDirectory = args.length > 0 ? args[0] : "../src/main/resources";
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.printf("%-12s %-12s %12s %12s %14s%n", "game", "work", "ns/frame", "ns/line", "bytes/frame");
+        for (String game : GAMES) {
+            Gpu gpu = PpuWorkloads.snapshot(romDirectory, game);
+            IntSupplier[] work = {
+                    PpuWorkloads.frame(gpu),
+                    PpuWorkloads.background(gpu),
+                    PpuWorkloads.sprites(gpu),
+                    PpuWorkloads.updateTiles(gpu),
+                    PpuWorkloads.displayFrame(gpu),
+            };
+            // tileset is all 384 tiles decoded once, not part of a normal frame
+            String[] names = {"frame", "background", "sprites", "tileset", "display"};
+            for (int w = 0; w < work.length; w++) {
+                int result = 0;
+                for (int i = 0; i < frames; i++) { // warm up
+                    result += work[w].getAsInt();
+                }
+                long threadId = Thread.currentThread().getId();
+                long bytes = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                for (int i = 0; i < frames; i++) {
+                    result += work[w].getAsInt();
+                }
+                long nanos = System.nanoTime() - start;
+                bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+                sink = result;
+
+                double perFrame = nanos / (double) frames;
+                String perLine = w < 3 ? String.format("%.1f", perFrame / PpuWorkloads.LINES) : "-";
+                System.out.printf("%-12s %-12s %12.0f %12s %14d%n", game, names[w], perFrame, perLine, bytes / frames);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.function.IntSupplier;
+
+/**
+ * Gpu workloads for bench.PpuBenchmark and {@link PpuBench}: the gpu of a game at a frame
+ * that shows what the game usually draws, rendered again and again. Runners return
+ * something derived from what they drew.
+ */
+final class PpuWorkloads {
+    static final int LINES = Gpu.height;
+
+    private PpuWorkloads() {
+    }
+
+    /**
+     * The frame each bundled game is snapshotted at, with the buttons from
+     * {@link GameTrace#scriptedButtons(int)}.
+     */
+    static int sceneFrame(String game) {
+        switch (game) {
+            case "tetris":     return 300; // title screen, background and 8 sprites
+            case "drmario":    return 300; // playfield, background and 26 sprites
+            case "pokebluejp": return 450; // intro fight, background, window and 35 sprites
+            default: throw new IllegalArgumentException("no scene for " + game);
+        }
+    }
+
+    /**
+     * The gpu of {@code game} (a rom in {@code romDirectory}, without the .gb) at its scene frame.
+     */
+    static Gpu snapshot(String romDirectory, String game) {
+        File rom = new File(romDirectory, game + ".gb");
+        if (!rom.isFile()) {
+            throw new IllegalArgumentException(rom + " not found, point the benchmark at the roms with -p roms=<dir>");
+        }
+        Machine machine = CpuWorkloads.boot(new Cartridge(rom.getPath()));
+        for (int frame = 0; frame < sceneFrame(game); frame++) {
+            machine.getJoypad().setButtons(GameTrace.scriptedButtons(frame));
+            machine.runFrame();
+        }
+        return machine.getGpu().fork();
+    }
+
+    /**
+     * Renders all 144 lines the way the gpu does during a frame: OAM scan, then the line.
+     */
+    static IntSupplier frame(Gpu gpu) {
+        return () -> {
+            for (int line = 0; line < LINES; line++) {
+                gpu.line = line;
+                gpu.selectLineSprites();
+                gpu.renderScanLine();
+            }
+            return gpu.getScreen()[LINES * Gpu.width / 2];
+        };
+    }
+
+    /**
+     * Background and window of all 144 lines.
+     */
+    static IntSupplier background(Gpu gpu) {
+        int[] row = new int[Gpu.width];
+        return () -> {
+            gpu.windowLine = 0;
+            for (int line = 0; line < LINES; line++) {
+                gpu.line = line;
+                gpu.renderBackground(row);
+            }
+            return row[0];
+        };
+    }
+
+    /**
+     * Sprites of all 144 lines, over the background the scene really has on each line.
+     */
+    static IntSupplier sprites(Gpu gpu) {
+        int[][] rows = new int[LINES][Gpu.width];
+        gpu.windowLine = 0;
+        for (int line = 0; line < LINES; line++) {
+            gpu.line = line;
+            gpu.renderBackground(rows[line]);
+        }
+        return () -> {
+            for (int line = 0; line < LINES; line++) {
+                gpu.line = line;
+                gpu.selectLineSprites();
+                gpu.renderSprites(rows[line]);
+            }
+            return gpu.getScreen()[0];
+        };
+    }
+
+    /**
+     * Decodes every row of every tile from vram into the tileset, as writes to 0x8000-0x97FF do.
+     */
+    static IntSupplier updateTiles(Gpu gpu) {
+        return () -> {
+            for (int address = 0x8000; address < 0x9800; address += 2) {
+                gpu.updateTile(address);
+            }
+            return gpu.vram.read(0);
+        };
+    }
+
+    /**
+     * The display's conversion of the scene's screen to colors. Putting the image on screen
+     * needs a window, which headless runs don't have, so that part isn't included.
+     */
+    static IntSupplier displayFrame(Gpu gpu) {
+        int[] screen = gpu.getScreen().clone();
+        BufferedImage image = new BufferedImage(Gpu.width, Gpu.height, BufferedImage.TYPE_INT_ARGB);
+        return () -> {
+            Display.drawScreen(screen, image);
+            return image.getRGB(0, 0);
+        };
+    }
+}
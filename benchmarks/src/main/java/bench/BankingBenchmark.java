@@ -0,0 +1,60 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Bank switch storms (an mbc register write then a banked rom read, over and over) and
+ * OAM DMA transfers, replaying what the game did in a recording.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BankingBenchmark {
+    static final int SWITCHES = 1024;
+    static final int TRANSFERS = 16;
+
+    @Param("../src/main/resources/pokebluejp.gb")
+    String rom;
+
+    @Param("120")
+    int frames;
+
+    private IntSupplier bankSwitches;
+    private IntSupplier dma;
+
+    @Setup
+    public void setUp() {
+        Object trace = Fixtures.call("MemoryWorkloads", "record", rom, frames);
+        bankSwitches = Fixtures.call("MemoryWorkloads", "bankSwitches", trace, SWITCHES);
+        dma = Fixtures.call("MemoryWorkloads", "dma", trace, TRANSFERS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SWITCHES)
+    public int bankSwitchStorm() {
+        return bankSwitches.getAsInt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSFERS)
+    public int oamDma() {
+        return dma.getAsInt();
+    }
+}
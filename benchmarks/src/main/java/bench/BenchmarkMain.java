@@ -0,0 +1,26 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs JMH with JSON results by default, so every run can be kept and compared with
+ * the last release. Any JMH option can be passed; an explicit -rf or -rff wins.
+ */
+public class BenchmarkMain {
+    static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        List<String> argsList = new ArrayList<>(Arrays.asList(args));
+        if (!argsList.contains("-rf")) {
+            argsList.add("-rf");
+            argsList.add("json");
+        }
+        if (!argsList.contains("-rff")) {
+            argsList.add("-rff");
+            argsList.add(DEFAULT_RESULT_FILE);
+        }
+        org.openjdk.jmh.Main.main(argsList.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Emulated instructions per second for one opcode group at a time, each a tight loop
+ * in a synthetic rom. The score is instructions/s, timer and gpu included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CpuBenchmark {
+    static final int STEPS = 10_000;
+
+    @Param({"loads", "alu", "cb", "jumps"})
+    String group;
+
+    private IntConsumer cpu;
+
+    @Setup
+    public void setUp() {
+        cpu = Fixtures.call("CpuWorkloads", "opcodeGroup", group);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public void step() {
+        cpu.accept(STEPS);
+    }
+}
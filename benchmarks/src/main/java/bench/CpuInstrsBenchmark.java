@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Emulated instructions per second running blargg's cpu_instrs. Every iteration starts the
+ * rom over, so each one measures the same stretch of the test instead of its final loop.
+ * The rom isn't checked in with the sources; the benchmark fails if it isn't found.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CpuInstrsBenchmark {
+    static final int STEPS = 10_000;
+
+    @Param("../src/test/resources/gb-test-roms/cpu_instrs/cpu_instrs.gb")
+    String rom;
+
+    private Supplier<IntConsumer> fromStart;
+    private IntConsumer cpu;
+
+    @Setup(Level.Trial)
+    public void load() {
+        fromStart = Fixtures.call("CpuWorkloads", "romFromStart", rom);
+    }
+
+    @Setup(Level.Iteration)
+    public void restart() {
+        cpu = fromStart.get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public void step() {
+        cpu.accept(STEPS);
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reaches the emulator, which lives in the unnamed package, from the benchmarks.
+ *
+ * Classes in a named package can't import unnamed-package classes, and JMH can't generate
+ * code for benchmarks in the unnamed package, so each suite's setup code is an unnamed-package
+ * class in this module (e.g. {@code CpuWorkloads}) that hands back plain java.util.function
+ * types. This calls its static methods by name; it's only used in setup, never while measuring.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T call(String className, String methodName, Object... args) {
+        try {
+            for (Method method : Class.forName(className).getDeclaredMethods()) {
+                if (method.getName().equals(methodName) && method.getParameterCount() == args.length) {
+                    method.setAccessible(true);
+                    return (T) method.invoke(null, args);
+                }
+            }
+            throw new IllegalArgumentException(className + " has no method " + methodName);
+        }
+        catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Time per MemoryManager read and write, region by region, with addresses (and written
+ * values) sampled from a recording of the game running. ALL replays the recording as is.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MemoryBenchmark {
+    static final int ACCESSES = 1024;
+
+    @Param("../src/main/resources/pokebluejp.gb")
+    String rom;
+
+    @Param("120")
+    int frames;
+
+    @Param({"ROM0", "ROMX", "VRAM", "CART_RAM", "WRAM", "ECHO", "OAM", "IO", "HRAM", "IE", "ALL"})
+    String region;
+
+    private IntSupplier reads;
+    private IntSupplier writes;
+
+    @Setup
+    public void setUp() {
+        Object trace = Fixtures.call("MemoryWorkloads", "record", rom, frames);
+        reads = Fixtures.call("MemoryWorkloads", "reads", trace, region, ACCESSES);
+        writes = Fixtures.call("MemoryWorkloads", "writes", trace, region, ACCESSES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int read() {
+        return reads.getAsInt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int write() {
+        return writes.getAsInt();
+    }
+}
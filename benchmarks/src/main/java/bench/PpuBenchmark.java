@@ -0,0 +1,89 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Gpu rendering cost on a snapshot of each bundled game. frame and displayFrame are per
+ * frame, scanLine, background and sprites per line, updateTile per tile row. Run with
+ * {@code -prof gc} for allocations; gc.alloc.rate.norm is bytes per op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PpuBenchmark {
+    static final int LINES = 144;
+    static final int TILE_ROWS = 384 * 8;
+
+    @Param("../src/main/resources")
+    String roms;
+
+    @Param({"tetris", "drmario", "pokebluejp"})
+    String game;
+
+    private IntSupplier frame;
+    private IntSupplier background;
+    private IntSupplier sprites;
+    private IntSupplier updateTiles;
+    private IntSupplier displayFrame;
+
+    @Setup
+    public void setUp() {
+        Object gpu = Fixtures.call("PpuWorkloads", "snapshot", roms, game);
+        frame = Fixtures.call("PpuWorkloads", "frame", gpu);
+        background = Fixtures.call("PpuWorkloads", "background", gpu);
+        sprites = Fixtures.call("PpuWorkloads", "sprites", gpu);
+        updateTiles = Fixtures.call("PpuWorkloads", "updateTiles", gpu);
+        displayFrame = Fixtures.call("PpuWorkloads", "displayFrame", gpu);
+    }
+
+    @Benchmark
+    public int frame() {
+        return frame.getAsInt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int scanLine() {
+        return frame.getAsInt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int background() {
+        return background.getAsInt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int sprites() {
+        return sprites.getAsInt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TILE_ROWS)
+    public int updateTile() {
+        return updateTiles.getAsInt();
+    }
+
+    @Benchmark
+    public int displayFrame() {
+        return displayFrame.getAsInt();
+    }
+}
@@ -0,0 +1,51 @@
+import helpers.StateBuffer;
+
+/**
+ * Bank switching logic of one kind of memory bank controller.
+ *
+ * Writes to 0x0000-0x7FFF go to {@link #writeRegister(int, int)}, which keeps three offsets
+ * current: where the banks mapped at 0x0000, 0x4000 and 0xA000 start in the rom and cartridge
+ * ram. Reads never come through here; the memory map adds the offset to the address and masks
+ * the result (see {@link MemoryManager#readByte(int)}). Bank numbers are masked to the size of
+ * the rom and ram, so an offset never points past the end of either.
+ */
+interface BankController {
+    /** {@link #ramOffset()} while ram is disabled or something other than ram is mapped there. */
+    int RAM_UNMAPPED = -1;
+
+    /** Start in the rom of the bank mapped at 0x0000-0x3FFF. */
+    int rom0Offset();
+
+    /** Start in the rom of the bank mapped at 0x4000-0x7FFF. */
+    int romXOffset();
+
+    /** Start in cartridge ram of the bank mapped at 0xA000-0xBFFF, or {@link #RAM_UNMAPPED}. */
+    int ramOffset();
+
+    void writeRegister(int address, int value);
+
+    /** A read of 0xA000-0xBFFF while no ram is mapped. */
+    default int readUnmapped() {
+        return 0xFF;
+    }
+
+    /** A write to 0xA000-0xBFFF while no ram is mapped. */
+    default void writeUnmapped(int value) {
+    }
+
+    /** The cartridge clock, null if there is none. */
+    default RealTimeClock getClock() {
+        return null;
+    }
+
+    default boolean isRumbling() {
+        return false;
+    }
+
+    /** Independent copy, for forking a machine. */
+    BankController fork();
+
+    void saveState(StateBuffer out);
+
+    void loadState(StateBuffer in);
+}
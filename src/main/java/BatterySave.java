@@ -0,0 +1,287 @@
+import helpers.Logger;
+import helpers.PagedMemory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Keeps battery-backed cartridge RAM in a memory-mapped .sav file next to the rom.
+ *
+ * The emulation thread only marks RAM pages dirty ({@link #markDirty(int)}); a background
+ * thread copies the dirty pages into the mapping every second, forces them to disk, and does
+ * so once more at shutdown. Writes land in the OS page cache as soon as they're copied, so
+ * the save survives the emulator being killed, and everything up to the last force survives
+ * losing power. The file is the raw RAM followed, for carts with a clock, by the 48 byte clock
+ * trailer, the same layout other emulators use.
+ *
+ * While run-ahead speculates ({@link #setSpeculating(boolean)}) RAM holds frames that will be
+ * rolled back, so nothing is marked or flushed. Restoring a state marks only the pages that
+ * then differ from the file.
+ */
+public class BatterySave implements Closeable {
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final Logger log = new Logger("SAV", Logger.Level.INFO);
+    private final Path file;
+    private final PagedMemory ram;
+    private final RealTimeClock rtc; // null if the cart has no clock
+    private RealTimeClock.Snapshot rtcWritten; // clock as last written to the file
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final AtomicIntegerArray dirty; // per ram page, 1 = written since it was last flushed
+    private final ScheduledExecutorService flusher;
+    private final Thread shutdownHook;
+    private boolean closed;
+    private boolean speculating; // emulation thread only
+    private volatile int speculations; // odd while speculating, bumped at both ends for the flusher
+
+    // flush metrics, guarded by this
+    private long flushes;
+    private long pagesWritten;
+    private long totalFlushNanos;
+    private long maxFlushNanos;
+
+    private BatterySave(Path file, PagedMemory ram, RealTimeClock rtc, FileChannel channel, MappedByteBuffer mapped) {
+        this.file = file;
+        this.ram = ram;
+        this.rtc = rtc;
+        this.channel = channel;
+        this.mapped = mapped;
+        this.dirty = new AtomicIntegerArray(ram.pageCount());
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "battery-save-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        this.shutdownHook = new Thread(this::close, "battery-save-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * The save file for a rom: same name and directory, with a .sav extension.
+     * A gzipped rom's save isn't compressed, game.gb.gz saves to game.sav.
+     */
+    public static Path savePathFor(Path romPath) {
+        String name = romPath.getFileName().toString();
+        if (name.toLowerCase(Locale.ROOT).endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        int dot = name.lastIndexOf('.');
+        return romPath.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".sav");
+    }
+
+    /**
+     * Maps the save file, creating it if needed, and loads its contents into {@code ram}
+     * and, for carts with a clock, {@code rtc}. The clock is stored after the RAM.
+     */
+    static BatterySave open(Path file, PagedMemory ram, RealTimeClock rtc) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long existing = channel.size();
+            int size = ram.size() + (rtc != null ? RealTimeClock.SAVE_BYTES : 0);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (existing == 0) {
+                // new file, keep what's in ram and write all of it on the first flush
+                BatterySave save = new BatterySave(file, ram, rtc, channel, mapped);
+                save.markAllDirty();
+                return save;
+            }
+
+            int[] contents = new int[ram.size()];
+            for (int i = 0; i < existing && i < contents.length; i++) {
+                contents[i] = mapped.get(i) & 0xFF;
+            }
+            ram.copyFrom(contents, 0);
+            if (rtc != null && existing >= size) {
+                rtc.loadSave(rtcTrailer(mapped, ram), System.currentTimeMillis() / 1000);
+            }
+            return new BatterySave(file, ram, rtc, channel, mapped);
+        }
+        catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Called on the emulation thread after every write to cartridge RAM. Never blocks.
+     */
+    public void markDirty(final int index) {
+        if (speculating) {
+            return;
+        }
+        // the ordered store publishes the RAM write to the flusher along with the flag
+        dirty.lazySet(index >> PagedMemory.PAGE_BITS, 1);
+    }
+
+    /**
+     * Marks all of RAM dirty, for a new file that has none of it yet.
+     */
+    public void markAllDirty() {
+        for (int i = 0; i < dirty.length(); i++) {
+            dirty.lazySet(i, 1);
+        }
+    }
+
+    /**
+     * Marks the pages of RAM that differ from the file, for when RAM was replaced wholesale
+     * (loading a state). Called on the emulation thread.
+     */
+    public void markChanged() {
+        for (int page = 0; page < dirty.length(); page++) {
+            int[] values = ram.page(page);
+            int base = page << PagedMemory.PAGE_BITS;
+            int count = Math.min(PagedMemory.PAGE_SIZE, ram.size() - base);
+            for (int i = 0; i < count; i++) {
+                if ((mapped.get(base + i) & 0xFF) != values[i]) {
+                    dirty.lazySet(page, 1);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the emulation thread around frames that will be rolled back. Writes in between
+     * aren't marked and nothing is flushed; the state load that ends them marks what changed.
+     */
+    public void setSpeculating(boolean speculating) {
+        if (this.speculating != speculating) {
+            this.speculating = speculating;
+            speculations++; // single writer
+        }
+    }
+
+    /**
+     * Copies dirty pages into the file and forces them to disk. Runs on the flusher thread.
+     */
+    synchronized void flush() {
+        int speculation = speculations;
+        if (closed || (speculation & 1) != 0) {
+            return;
+        }
+        FlightEvents.SaveRamFlush event = new FlightEvents.SaveRamFlush();
+        event.begin();
+        long start = System.nanoTime();
+        int written = 0;
+        boolean[] copied = new boolean[dirty.length()];
+        for (int page = 0; page < dirty.length(); page++) {
+            // clear before copying, so a write racing with the copy marks the page again
+            if (dirty.getAndSet(page, 0) == 0) {
+                continue;
+            }
+            int[] values = ram.page(page);
+            int base = page << PagedMemory.PAGE_BITS;
+            int count = Math.min(PagedMemory.PAGE_SIZE, ram.size() - base);
+            for (int i = 0; i < count; i++) {
+                mapped.put(base + i, (byte) values[i]);
+            }
+            copied[page] = true;
+            written++;
+        }
+        if (speculations != speculation) {
+            // run-ahead started mid-copy, what was copied may be rolled back: copy it again next time
+            for (int page = 0; page < copied.length; page++) {
+                if (copied[page]) {
+                    dirty.set(page, 1);
+                }
+            }
+            return;
+        }
+        if (rtc != null && rtc.getPublished() != rtcWritten) {
+            rtcWritten = rtc.getPublished();
+            rtcWritten.writeSave(rtcTrailer(mapped, ram), System.currentTimeMillis());
+            written++;
+        }
+        if (written == 0) {
+            return;
+        }
+        mapped.force();
+
+        long nanos = System.nanoTime() - start;
+        flushes++;
+        pagesWritten += written;
+        totalFlushNanos += nanos;
+        maxFlushNanos = Math.max(maxFlushNanos, nanos);
+        log.debug("flushed " + written + " pages to " + file + " in " + nanos / 1000 + " us");
+        if (event.shouldCommit()) {
+            event.file = file.toString();
+            event.pages = written;
+            event.commit();
+        }
+    }
+
+    private static ByteBuffer rtcTrailer(MappedByteBuffer mapped, PagedMemory ram) {
+        ByteBuffer trailer = mapped.duplicate();
+        trailer.position(ram.size());
+        return trailer.slice();
+    }
+
+    public synchronized long getFlushCount() {
+        return flushes;
+    }
+
+    public synchronized long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    public synchronized long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    public synchronized String getReport() {
+        if (flushes == 0) {
+            return file + ": nothing flushed";
+        }
+        return String.format("%s: %d flushes, %d pages, average %.3f ms, max %.3f ms",
+                file, flushes, pagesWritten, totalFlushNanos / (double) flushes / 1e6, maxFlushNanos / 1e6);
+    }
+
+    /**
+     * Stops the flusher, writes what's left and closes the file. Also runs at shutdown.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            rtcWritten = null; // the clock kept running since it was last written
+            flush();
+            closed = true;
+            log.info(getReport());
+            try {
+                channel.close();
+            }
+            catch (IOException ex) {
+                log.error("couldn't close " + file + ": " + ex);
+            }
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        catch (IllegalStateException ex) {
+            // already shutting down, this is the hook
+        }
+    }
+}
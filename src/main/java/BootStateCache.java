@@ -0,0 +1,165 @@
+import helpers.Digests;
+import helpers.Logger;
+import helpers.StateBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Skips the bootrom by restoring the exact machine state it leaves behind at PC=0x0100.
+ *
+ * The bootrom only reads the cartridge header (logo, title and the bytes covered by the header
+ * checksum), so its end state is the same for every cartridge with the same header. The first
+ * boot of a header runs the real bootrom and stores the resulting state on disk; later boots,
+ * in this process or the next, just load it. Unlike {@link Cpu#skipBootrom()} this leaves every
+ * register, the timer and the gpu exactly where the bootrom would have.
+ */
+public class BootStateCache {
+    private static final int FILE_MAGIC = 0x47424253; // "GBBS"
+    private static final int HEADER_START = 0x0104; // nintendo logo
+    private static final int HEADER_END = 0x014D;   // header checksum
+    private static final int MAX_BOOT_STEPS = 10_000_000; // the bootrom locks up on a bad logo, don't follow it
+
+    private static final Map<String, int[]> memoryCache = new ConcurrentHashMap<>();
+
+    private final Logger log = new Logger("BOOT", Logger.Level.WARN);
+    private final Path directory;
+
+    BootStateCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Cache in the directory named by the {@code javagb.bootcache.dir} system property,
+     * or {@code ~/.java-gb/boot-cache} when it isn't set.
+     */
+    public static BootStateCache getDefault() {
+        String dir = System.getProperty("javagb.bootcache.dir");
+        if (dir == null) {
+            return new BootStateCache(Paths.get(System.getProperty("user.home"), ".java-gb", "boot-cache"));
+        }
+        return new BootStateCache(Paths.get(dir));
+    }
+
+    static void clearMemoryCache() {
+        memoryCache.clear();
+    }
+
+    /**
+     * Brings a freshly created machine to the state the bootrom leaves it in.
+     * Falls back to {@link Cpu#skipBootrom()} if the bootrom never finishes (bad logo).
+     *
+     * @return true if the machine is in the exact post-bootrom state
+     */
+    public boolean boot(Machine machine) {
+        String key = keyFor(machine.getCartridge());
+
+        int[] state = memoryCache.get(key);
+        if (state == null) {
+            state = readFromDisk(key);
+        }
+        if (state != null) {
+            try {
+                machine.loadState(new StateBuffer(state));
+                memoryCache.put(key, state);
+                return true;
+            }
+            catch (IllegalStateException | IndexOutOfBoundsException ex) {
+                log.warning("ignoring stale boot state " + key + ": " + ex.getMessage());
+            }
+        }
+
+        state = capture(machine);
+        if (state == null) {
+            log.error("bootrom didn't reach 0x0100 within " + MAX_BOOT_STEPS + " steps, skipping it instead");
+            machine.getCpu().skipBootrom();
+            return false;
+        }
+        memoryCache.put(key, state);
+        writeToDisk(key, state);
+        return true;
+    }
+
+    private int[] capture(Machine machine) {
+        boolean presenting = machine.isPresentingFrames();
+        machine.setPresentFrames(false);
+        Cpu cpu = machine.getCpu();
+        int steps = 0;
+        while (cpu.getRegisterValue("PC") != 0x0100 && steps < MAX_BOOT_STEPS) {
+            machine.step();
+            steps++;
+        }
+        machine.setPresentFrames(presenting);
+        if (cpu.getRegisterValue("PC") != 0x0100) {
+            return null;
+        }
+
+        StateBuffer buffer = new StateBuffer();
+        machine.saveState(buffer);
+        return buffer.toArray();
+    }
+
+    static String keyFor(Cartridge cart) {
+        MessageDigest md = Digests.sha1();
+        for (int i = HEADER_START; i <= HEADER_END; i++) {
+            md.update((byte) cart.readFromAddress(i));
+        }
+        return Digests.toHex(md.digest());
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + ".state");
+    }
+
+    private int[] readFromDisk(String key) {
+        Path file = fileFor(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            IntBuffer ints = ByteBuffer.wrap(Files.readAllBytes(file)).asIntBuffer();
+            if (ints.remaining() < 2 || ints.get() != FILE_MAGIC || ints.get() != ints.remaining()) {
+                log.warning("ignoring malformed boot state " + file);
+                return null;
+            }
+            int[] state = new int[ints.remaining()];
+            ints.get(state);
+            return state;
+        }
+        catch (IOException ex) {
+            log.warning("couldn't read boot state " + file + ": " + ex);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, int[] state) {
+        Path file = fileFor(key);
+        try {
+            Files.createDirectories(directory);
+            ByteBuffer bytes = ByteBuffer.allocate((state.length + 2) * 4);
+            bytes.asIntBuffer().put(FILE_MAGIC).put(state.length).put(state);
+
+            // write next to the target and move into place, so a reader never sees half a file
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, bytes.array());
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException ex) {
+            log.warning("couldn't store boot state " + file + ": " + ex);
+        }
+    }
+}
@@ -1,8 +1,10 @@
+import helpers.Digests;
 import helpers.Logger;
 
 import java.io.File;
-import java.nio.file.Files;
-import java.util.Scanner;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
 public class Cartridge {
     private static final int ADDRESS_RAM_SIZE = 0x0149;
@@ -78,7 +80,9 @@ public class Cartridge {
         //</editor-fold>
     }
 
-    private int[] rom; // the entire contents
+    private Path path; // where the rom was loaded from
+    private int[] rom; // the entire contents, padded with 0xFF to a power of two
+    private int romFileLength; // bytes actually in the file
     private String title; // the game title
     private Locale locale; // japanese or non-japanese?
     private RamSize ramSize; // size of ram
@@ -88,7 +92,14 @@ public class Cartridge {
     private int expectedHeaderChecksum; // see verifyRom()
     private int cartridgeLogoChecksum; // see verifyLogoChecksums()
     private int bootromLogoChecksum; // see verifyLogoChecksums()
+    private String romHash; // see getRomHash()
 
+    /**
+     * Loads a rom from a plain, gzip or zip file (see {@link RomLoader}).
+     *
+     * @throws java.io.UncheckedIOException if the file can't be read
+     * @throws IllegalArgumentException if it isn't a rom this emulator supports
+     */
     public Cartridge(String path) {
         loadRomFile(path);
     }
@@ -101,25 +112,26 @@ public class Cartridge {
     }
 
     private void loadRomFile(String romPath) {
-        try {
-            byte[] tempRom = Files.readAllBytes(new File(romPath).toPath());
-            rom = new int[tempRom.length];
-            for (int i = 0; i < tempRom.length; i++) {
-                rom[i] = tempRom[i] & 0xFF;
-            }
-            setTitle();
-            setLocale();
-            setRamSize();
-            setRomSize();
-            setCartridgeType();
-            verifyHeaderChecksum();
-            verifyLogoChecksums();
-        } catch(Exception ex) {
-            System.out.println("Exception: " + ex);
-            System.out.println("Please enter valid Rom file path: ");
-            Scanner sc = new Scanner(System.in);
-            loadRomFile(sc.nextLine());
+        Path file = new File(romPath).toPath();
+        byte[] tempRom = RomLoader.load(file);
+        romFileLength = tempRom.length;
+        rom = new int[Math.max(0x8000, tempRom.length)];
+        for (int i = 0; i < tempRom.length; i++) {
+            rom[i] = tempRom[i] & 0xFF;
+        }
+        setTitle();
+        setLocale();
+        setRamSize();
+        setRomSize();
+        padRom();
+        setCartridgeType();
+        if (cartridgeType == null) {
+            throw new IllegalArgumentException(String.format("%s has an unsupported cartridge type 0x%02X",
+                    romPath, rom[ADDRESS_CART_TYPE]));
         }
+        verifyHeaderChecksum();
+        verifyLogoChecksums();
+        path = file;
     }
 
     private void setTitle() {
@@ -174,6 +186,19 @@ public class Cartridge {
         this.romSize = RomSize.getById(rom[ADDRESS_ROM_SIZE]);
     }
 
+    private void padRom() {
+        // bank offsets are masked to the header's rom size; padding the array up to a power
+        // of two at least that big lets the memory map mask addresses instead of checking them.
+        // A truncated dump reads as open bus past its end.
+        int size = Integer.highestOneBit(Math.max(rom.length, getRomSize()) - 1) << 1;
+        if (size != rom.length) {
+            rom = Arrays.copyOf(rom, size);
+        }
+        if (romFileLength < size) {
+            Arrays.fill(rom, romFileLength, size, 0xFF);
+        }
+    }
+
     private void setCartridgeType() {
         this.cartridgeType = MbcManager.cartridgeTypes.get(rom[ADDRESS_CART_TYPE]);
     }
@@ -221,10 +246,35 @@ public class Cartridge {
                validChecksum();
     }
 
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * SHA-1 of the entire rom contents, identifies the exact rom image.
+     */
+    public String getRomHash() {
+        if (romHash == null) {
+            MessageDigest md = Digests.sha1();
+            for (int i = 0; i < romFileLength; i++) {
+                md.update((byte) rom[i]);
+            }
+            romHash = Digests.toHex(md.digest());
+        }
+        return romHash;
+    }
+
     public int readFromAddress(int address) {
         return rom[address];
     }
 
+    /**
+     * The rom array itself, a power of two in length, for the memory map. Never write to it.
+     */
+    int[] getRomData() {
+        return rom;
+    }
+
     public final MbcManager.CartridgeType getCartridgeType() {
         return this.cartridgeType;
     }
@@ -248,7 +298,32 @@ public class Cartridge {
         }
     }
 
+    /**
+     * Rom size in bytes for a header rom size code (0x0148), 0 if the code is unknown.
+     */
+    static int romSizeForCode(int code) {
+        RomSize size = RomSize.getById(code);
+        return size != null ? size.numBanks * 0x4000 : 0;
+    }
+
+    /**
+     * Ram size in bytes for a header ram size code (0x0149), 0 if the code is unknown.
+     */
+    static int ramSizeForCode(int code) {
+        switch (code) {
+            case 1: return 2048;
+            case 2: return 8192;
+            case 3: return 8192 * 4;
+            case 4: return 8192 * 16;
+            case 5: return 8192 * 8;
+            default: return 0;
+        }
+    }
+
     public final int getRomSize() {
+        if (romSize == null) {
+            return 0; // unknown size code
+        }
         switch (romSize) {
             case Rom32KB:
                 return 8192 * 4; // 8KB * 4
@@ -47,6 +47,12 @@ public class Cpu {
     private boolean pendingInterruptEnable = false;
     private boolean isHalted = false;
     public boolean paused = false;
+    private OpcodeProfiler profiler; // null unless profiling, forks don't profile
+    private HotspotProfiler hotspots; // likewise
+    private FlightEvents.Halt haltEvent; // the HALT being recorded, null if none is
+    // for MachineMetrics, not part of the state
+    private long instructionCount;
+    private final long[] interruptCounts = new long[InterruptManager.InterruptTypes.values().length];
 
     Cpu(MemoryManager memMgr, Gpu gpu) {
         // initialize 8-bit registers
@@ -97,6 +103,62 @@ public class Cpu {
         this(memMgr, gpu);
         this.log = new Logger(name, level);
     }
+    private Cpu(Cpu other, MemoryManager memMgr, Gpu gpu) {
+        this(memMgr, gpu);
+        this.log = other.log;
+        for (Map.Entry<String, Register> e : other.eightBitRegisters.entrySet()) {
+            eightBitRegisters.get(e.getKey()).write(e.getValue().read());
+        }
+        for (Map.Entry<String, Register> e : other.sixteenBitRegisters.entrySet()) {
+            sixteenBitRegisters.get(e.getKey()).write(e.getValue().read());
+        }
+        this.pendingInterruptEnable = other.pendingInterruptEnable;
+        this.isHalted = other.isHalted;
+        this.paused = other.paused;
+    }
+
+    /**
+     * Copy of this cpu's registers and state, running against the given (already forked) memory and gpu.
+     * Forking doesn't change which cpu is current, see {@link Machine#activate()}.
+     */
+    Cpu fork(MemoryManager memMgr, Gpu gpu) {
+        Cpu current = currentInstance;
+        Cpu fork = new Cpu(this, memMgr, gpu);
+        currentInstance = current;
+        return fork;
+    }
+    static void setCurrentInstance(Cpu cpu) {
+        currentInstance = cpu;
+    }
+
+    void saveState(StateBuffer out) {
+        out.writeInt(registerA.read());
+        out.writeInt(registerB.read());
+        out.writeInt(registerC.read());
+        out.writeInt(registerD.read());
+        out.writeInt(registerE.read());
+        out.writeInt(registerH.read());
+        out.writeInt(registerL.read());
+        out.writeInt(registerFlags.read());
+        out.writeInt(registerPC.read());
+        out.writeInt(registerSP.read());
+        out.writeBoolean(pendingInterruptEnable);
+        out.writeBoolean(isHalted);
+    }
+    void loadState(StateBuffer in) {
+        registerA.write(in.readInt());
+        registerB.write(in.readInt());
+        registerC.write(in.readInt());
+        registerD.write(in.readInt());
+        registerE.write(in.readInt());
+        registerH.write(in.readInt());
+        registerL.write(in.readInt());
+        registerFlags.write(in.readInt());
+        registerPC.write(in.readInt());
+        registerSP.write(in.readInt());
+        pendingInterruptEnable = in.readBoolean();
+        isHalted = in.readBoolean();
+    }
 
     private int fetch() {
         int opcode = mmu.readByte(registerPC.read());
@@ -355,6 +417,13 @@ public class Cpu {
     private void execute(Runnable operation) {
         operation.run();
     }
+    private void executeProfiled(int opcode, Runnable operation) {
+        // fetching consumes no cycles, each handler consumes its whole instruction's worth
+        TimerService timer = TimerService.getInstance();
+        long start = timer.getCycleCount();
+        operation.run();
+        profiler.record(opcode, timer.getCycleCount() - start);
+    }
     private void processEi(int opcode) {
         // process EI instruction effects
         if (pendingInterruptEnable && opcode != 0xFB) {
@@ -376,6 +445,13 @@ public class Cpu {
             // come out of halt mode
             //log.debug("Exiting HALT mode because " + e.getKey().name() + " was raised.");
             isHalted = false;
+            if (haltEvent != null) {
+                haltEvent.end();
+                haltEvent.cycles = TimerService.getInstance().getCycleCount() - haltEvent.cycles;
+                haltEvent.interrupt = e.getKey().name();
+                haltEvent.commit();
+                haltEvent = null;
+            }
 
             if (InterruptManager.getInstance().isMasterEnabled()) {
                 if (e.getValue().isEnabled()) {
@@ -384,11 +460,22 @@ public class Cpu {
                         log.info("handling " + e.getValue().name + " interrupt");
 
 
+                    interruptCounts[e.getKey().ordinal()]++;
+                    FlightEvents.InterruptDispatched event = new FlightEvents.InterruptDispatched();
+                    if (event.isEnabled()) {
+                        event.type = e.getKey().name();
+                        event.latencyCycles = e.getValue().getCyclesSinceRaised();
+                        event.commit();
+                    }
+
                     // save current address
                     pushHelper(registerPC.read());
 
                     // jump to interrupt handler
                     registerPC.write(e.getKey().handler);
+                    if (hotspots != null) {
+                        hotspots.enter(0, e.getKey().handler, registerSP.read());
+                    }
 
                     e.getValue().clear();
 
@@ -458,24 +545,86 @@ public class Cpu {
 
     // main loop
     public void main() {
-        if (Main.skipBootrom && mmu.inBootrom) {
-            skipBootrom();
-        }
-
+        FramePacer pacer = new FramePacer();
         while (!paused) {
-            step();
+            long frame = gpu.getFrameCount();
+            while (gpu.getFrameCount() == frame && !paused) {
+                step();
+            }
+            pacer.frameCompleted();
         }
     }
-    public void step() {
+    /**
+     * Starts counting executions and cycles per opcode into {@code profiler}, or stops with null.
+     */
+    void setProfiler(OpcodeProfiler profiler) {
+        this.profiler = profiler;
+    }
 
-        processInterrupts();
+    OpcodeProfiler getProfiler() {
+        return profiler;
+    }
 
+    /**
+     * Starts attributing cycles to guest code addresses and functions, or stops with null.
+     * Calls made before this aren't known, their returns unwind nothing.
+     */
+    void setHotspotProfiler(HotspotProfiler hotspots) {
+        this.hotspots = hotspots;
+    }
 
+    HotspotProfiler getHotspotProfiler() {
+        return hotspots;
+    }
+
+    /**
+     * Instructions executed since this cpu was created or forked.
+     */
+    long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Interrupts of {@code type} dispatched since this cpu was created or forked.
+     */
+    long getInterruptCount(InterruptManager.InterruptTypes type) {
+        return interruptCounts[type.ordinal()];
+    }
+
+    /**
+     * Whether the cpu is stopped in HALT, stepping without executing instructions.
+     */
+    boolean isHalted() {
+        return isHalted;
+    }
+
+    public void step() {
+
+        if (hotspots == null) {
+            processInterrupts();
+            stepInstruction();
+            return;
+        }
+        TimerService timer = TimerService.getInstance();
+        long start = timer.getCycleCount();
+        processInterrupts();
+        int pc = registerPC.read(); // after dispatching, which the handler is charged for
+        hotspots.begin(mmu.romBankAt(pc), pc);
+        stepInstruction();
+        hotspots.end(timer.getCycleCount() - start);
+    }
+    private void stepInstruction() {
         if (!isHalted) {
+            instructionCount++;
             int opcode = fetch();
             Runnable instruction = decode(opcode);
             if (instruction != null) {
-                execute(instruction);
+                if (profiler == null) {
+                    execute(instruction);
+                }
+                else {
+                    executeProfiled(opcode, instruction);
+                }
             }
             else {
                 System.err.print("Instruction for " + opcode + " was null.");
@@ -2602,6 +2751,12 @@ public class Cpu {
             // HALT - power down CPU until interrupt occurs. Opcode 0x76. 4 cycles.
             log.debug("HALT");
             isHalted = true;
+            FlightEvents.Halt event = new FlightEvents.Halt();
+            if (event.isEnabled()) {
+                event.begin();
+                event.cycles = TimerService.getInstance().getCycleCount(); // the start until it ends
+                haltEvent = event;
+            }
             consumeClockCycles(4);
         }
         else if (opcode == 0x10) {
@@ -3984,6 +4139,7 @@ public class Cpu {
 
         // push address of next instruction onto stack.
         pushHelper(registerPC.read());
+        enterHotspot(address);
 
         load(registerPC, address);                    // jump to this address.
         consumeClockCycles(12);
@@ -4046,6 +4202,7 @@ public class Cpu {
 
         temp <<= 8;
         address |= temp;                              // combine
+        enterHotspot(address);
         load(registerPC, address);                    // jump to this address.
         consumeClockCycles(24);
     }
@@ -4111,12 +4268,21 @@ public class Cpu {
                 address = 0x38;
                 break;
         }
+        enterHotspot(address);
         load(registerPC, address);
 
         consumeClockCycles(16);
     }
 
+    private void enterHotspot(int address) {
+        if (hotspots != null) {
+            hotspots.enter(mmu.romBankAt(address), address, registerSP.read());
+        }
+    }
     private void retHelper() {
+        if (hotspots != null) {
+            hotspots.exit(registerSP.read());
+        }
         int address = popHelper();
         load(registerPC, address);
     }
@@ -117,13 +117,7 @@ public class Display extends JPanel {
 
     public void renderFrame(int[] screen) {
         if (!isTestMode) {
-
-            for (int y = 0; y < 144; y++) {
-                for (int x = 0; x < 160; x++) {
-                    Colors c = Colors.get(screen[((160 * (y)) + (x))]);
-                    canvasBuffer.setRGB(x, y, c.getColor().getRGB());
-                }
-            }
+            drawScreen(screen, canvasBuffer);
 
             Graphics2D g2 = canvas.createGraphics();
             g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
@@ -134,4 +128,16 @@ public class Display extends JPanel {
         }
     }
 
+    /**
+     * Colors a screen's worth of gpu shades into {@code image}, which is 160x144 or larger.
+     */
+    static void drawScreen(int[] screen, BufferedImage image) {
+        for (int y = 0; y < 144; y++) {
+            for (int x = 0; x < 160; x++) {
+                Colors c = Colors.get(screen[((160 * (y)) + (x))]);
+                image.setRGB(x, y, c.getColor().getRGB());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,122 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events, for seeing what the emulated machine was doing around a stutter:
+ *
+ *     java -XX:StartFlightRecording=filename=gb.jfr,settings=profile Main ...
+ *     jfr print --categories "Game Boy" gb.jfr
+ *
+ * Call sites create an event and check {@link Event#isEnabled()} before filling it in. While
+ * nothing records, that check is a constant the jit folds away along with the allocation.
+ * Needs a jdk with the jdk.jfr api, 8u262 or later on java 8.
+ */
+final class FlightEvents {
+    private static final String CATEGORY = "Game Boy";
+
+    private FlightEvents() {
+    }
+
+    @Name("javagb.FrameCompleted")
+    @Label("Frame Completed")
+    @Category(CATEGORY)
+    @Description("The gpu entered VBLANK")
+    static class FrameCompleted extends Event {
+        @Label("Frame")
+        long frame;
+
+        @Label("Cycles")
+        @Description("Clock cycles since the previous frame completed")
+        long cycles;
+
+        @Label("Wall Time")
+        @Description("Real time since the previous frame completed")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+
+        @Label("Presented")
+        @Description("Whether the frame was drawn to the display")
+        boolean presented;
+    }
+
+    @Name("javagb.InterruptDispatched")
+    @Label("Interrupt Dispatched")
+    @Category(CATEGORY)
+    static class InterruptDispatched extends Event {
+        @Label("Interrupt")
+        String type;
+
+        @Label("Latency")
+        @Description("Clock cycles from the interrupt being raised to the cpu jumping to its handler, -1 if unknown")
+        long latencyCycles;
+    }
+
+    @Name("javagb.OamDma")
+    @Label("OAM DMA")
+    @Category(CATEGORY)
+    static class OamDma extends Event {
+        @Label("Source")
+        @Description("Address the 160 bytes were copied from")
+        int source;
+
+        @Label("Cycles")
+        @Description("Clock cycles OAM stays off the cpu's bus")
+        int cycles;
+    }
+
+    @Name("javagb.BankSwitch")
+    @Label("Bank Switch")
+    @Category(CATEGORY)
+    static class BankSwitch extends Event {
+        @Label("Register")
+        @Description("Address of the bank controller register written")
+        int register;
+
+        @Label("Value")
+        int value;
+
+        @Label("ROM Bank")
+        @Description("Rom bank mapped at 0x4000-0x7FFF after the write")
+        int romBank;
+
+        @Label("Previous ROM Bank")
+        int previousRomBank;
+
+        @Label("RAM Bank")
+        @Description("Cartridge ram bank mapped at 0xA000-0xBFFF after the write, -1 while disabled")
+        int ramBank;
+
+        @Label("Previous RAM Bank")
+        int previousRamBank;
+    }
+
+    @Name("javagb.Halt")
+    @Label("Halt")
+    @Category(CATEGORY)
+    @Description("The cpu waiting in HALT for an interrupt. Starts at HALT, ends when an interrupt wakes it.")
+    static class Halt extends Event {
+        @Label("Cycles")
+        @Description("Clock cycles spent halted")
+        long cycles;
+
+        @Label("Wake-up Interrupt")
+        String interrupt;
+    }
+
+    @Name("javagb.SaveRamFlush")
+    @Label("Save RAM Flush")
+    @Category(CATEGORY)
+    @Description("Dirty cartridge ram pages copied into the save file and forced to disk")
+    static class SaveRamFlush extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Pages")
+        @Description("Ram pages written, plus one if the clock was")
+        int pages;
+    }
+}
@@ -0,0 +1,231 @@
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds the emulation to the Game Boy's frame rate, or a multiple of it.
+ *
+ * Frames are scheduled on an absolute timeline, start + n * period, so a late frame doesn't
+ * push the ones after it back and rounding never accumulates into drift. The wait parks the
+ * thread until shortly before the deadline and spins the rest, so the cpu idles for most of
+ * the wait without waking up late. How early to stop parking follows how late parks wake up
+ * on this host.
+ *
+ * A machine that falls far behind (a debugger, a long GC, the window being dragged) starts a
+ * new timeline instead of racing to catch up, and the frames it missed count as dropped.
+ */
+public class FramePacer {
+    public static final double FRAME_RATE = 59.7275; // 4194304 Hz / 70224 cycles per frame
+
+    private static final long MIN_SPIN_NANOS = 100_000;
+    private static final long MAX_SPIN_NANOS = 2_000_000;
+    private static final int MAX_LAG_FRAMES = 4; // later than this and the timeline restarts
+
+    // upper bounds of the jitter buckets, how far a frame interval was from the target
+    static final long[] JITTER_BUCKET_MICROS = {50, 100, 250, 500, 1000, 2000, 4000, 8000, 16000, Long.MAX_VALUE};
+
+    public enum Speed {
+        SLOW_MOTION(0.5),
+        NORMAL(1),
+        DOUBLE(2),
+        TURBO(Double.POSITIVE_INFINITY); // uncapped
+
+        final double multiplier;
+
+        Speed(double multiplier) {
+            this.multiplier = multiplier;
+        }
+
+        /**
+         * Parses 1x/2x/turbo/slow, and the enum names.
+         */
+        public static Speed parse(String name) {
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "1": case "1x": case "normal": return NORMAL;
+                case "2": case "2x": case "double": return DOUBLE;
+                case "0.5": case "0.5x": case "slow": case "slow_motion": return SLOW_MOTION;
+                case "turbo": case "max": return TURBO;
+                default: throw new IllegalArgumentException("unknown speed " + name + ", use 1x, 2x, slow or turbo");
+            }
+        }
+    }
+
+    /**
+     * Where the pacer gets the time from and how it sleeps, replaced in tests.
+     */
+    interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void parkNanos(long nanos) {
+                LockSupport.parkNanos(nanos);
+            }
+        };
+
+        long nanoTime();
+
+        void parkNanos(long nanos);
+    }
+
+    private final Clock clock;
+    private volatile Speed speed; // may be changed from other threads, takes effect on the next frame
+
+    // emulation thread only
+    private Speed timelineSpeed;
+    private double exactPeriodNanos;
+    private long periodNanos;
+    private long timelineStart;
+    private long timelineFrames;
+    private long behindFrames; // frame slots the timeline is behind by
+    private long lastFrameEnd;
+    private boolean late; // the last frame finished after it was due
+    private long spinNanos = 500_000;
+
+    private final long[] jitter = new long[JITTER_BUCKET_MICROS.length];
+    private long maxJitterNanos;
+    private long pacedFrames;
+    private long droppedFrames;
+
+    public FramePacer() {
+        this(Speed.NORMAL);
+    }
+
+    public FramePacer(Speed speed) {
+        this(speed, Clock.SYSTEM);
+    }
+
+    FramePacer(Speed speed, Clock clock) {
+        this.speed = speed;
+        this.clock = clock;
+    }
+
+    public Speed getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(Speed speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * Called by the emulation thread when a frame is done, waits until the next one is due.
+     *
+     * @return frames dropped, ones that were due and passed while this frame was still running
+     */
+    public long frameCompleted() {
+        long now = clock.nanoTime();
+        Speed current = speed;
+        if (current != timelineSpeed) {
+            startTimeline(current, now);
+            return 0;
+        }
+        late = false;
+        if (current == Speed.TURBO) {
+            lastFrameEnd = now;
+            return 0;
+        }
+
+        timelineFrames++;
+        long deadline = timelineStart + Math.round(timelineFrames * exactPeriodNanos);
+        long behind = Math.max(0, now - deadline) / periodNanos; // whole frame slots missed so far
+        long dropped = Math.max(0, behind - behindFrames);
+        droppedFrames += dropped;
+        behindFrames = behind;
+        late = now > deadline;
+        if (behind > MAX_LAG_FRAMES) {
+            startTimeline(current, now);
+            return dropped;
+        }
+        if (now < deadline) {
+            waitUntil(deadline);
+        }
+
+        long end = clock.nanoTime();
+        recordJitter(end - lastFrameEnd - periodNanos);
+        lastFrameEnd = end;
+        return dropped;
+    }
+
+    private void startTimeline(Speed current, long now) {
+        timelineSpeed = current;
+        exactPeriodNanos = 1e9 / FRAME_RATE / current.multiplier; // 0 for turbo
+        periodNanos = Math.round(exactPeriodNanos);
+        timelineStart = now;
+        timelineFrames = 0;
+        behindFrames = 0;
+        lastFrameEnd = now;
+        late = false;
+    }
+
+    private void waitUntil(long deadline) {
+        long parkFor = deadline - clock.nanoTime() - spinNanos;
+        if (parkFor > 0) {
+            long wakeAt = clock.nanoTime() + parkFor;
+            clock.parkNanos(parkFor);
+            // aim to spin about twice the usual oversleep
+            long overslept = Math.max(0, clock.nanoTime() - wakeAt);
+            spinNanos += (2 * overslept - spinNanos) / 8;
+            spinNanos = Math.max(MIN_SPIN_NANOS, Math.min(MAX_SPIN_NANOS, spinNanos));
+        }
+        while (clock.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    private void recordJitter(long nanos) {
+        long abs = Math.abs(nanos);
+        maxJitterNanos = Math.max(maxJitterNanos, abs);
+        long micros = abs / 1000;
+        int bucket = 0;
+        while (micros >= JITTER_BUCKET_MICROS[bucket]) {
+            bucket++;
+        }
+        jitter[bucket]++;
+        pacedFrames++;
+    }
+
+    /**
+     * Whether the last frame finished after it was due, so the next one starts behind.
+     */
+    public boolean isLate() {
+        return late;
+    }
+
+    /**
+     * Paced frames by how far their interval was from the target, bucket i counting those under
+     * {@link #JITTER_BUCKET_MICROS}[i] microseconds off (and not under the bucket before).
+     */
+    public long[] getJitterHistogram() {
+        return jitter.clone();
+    }
+
+    public long getMaxJitterNanos() {
+        return maxJitterNanos;
+    }
+
+    public long getPacedFrames() {
+        return pacedFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%d frames paced at %s, %d dropped, max jitter %.3f ms%n",
+                pacedFrames, speed, droppedFrames, maxJitterNanos / 1e6));
+        long previous = 0;
+        for (int i = 0; i < jitter.length; i++) {
+            String range = JITTER_BUCKET_MICROS[i] == Long.MAX_VALUE
+                    ? String.format(">= %d us", previous) : String.format("< %d us", JITTER_BUCKET_MICROS[i]);
+            report.append(String.format(Locale.ROOT, "%12s %10d %6.2f%%%n", range, jitter[i],
+                    pacedFrames == 0 ? 0 : 100.0 * jitter[i] / pacedFrames));
+            previous = JITTER_BUCKET_MICROS[i];
+        }
+        return report.toString();
+    }
+}
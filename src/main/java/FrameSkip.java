@@ -0,0 +1,117 @@
+import java.util.Locale;
+
+/**
+ * Decides which frames get rendered. A skipped frame is still emulated in full, gpu timing,
+ * STAT and VBLANK interrupts included, only its pixels aren't drawn and it isn't presented
+ * (see {@link Gpu#setRenderFrames(boolean)}). The game runs the same either way, skipping
+ * only makes it cheaper to run.
+ *
+ * A fixed skip renders one frame, then skips the next N. The adaptive one renders no faster
+ * than about the display refreshes, which at 2x or turbo leaves most frames out, and skips
+ * up to {@link #MAX_LATE_SKIP} frames in a row while the pacer is running late.
+ */
+public class FrameSkip {
+    static final int MAX_LATE_SKIP = 4; // a slow host still shows a frame this often
+    // frames closer together than this come faster than a 60 Hz display shows them, with some slack for jitter
+    static final long MIN_RENDER_INTERVAL_NANOS = Math.round(1e9 / FramePacer.FRAME_RATE * 3 / 4);
+
+    private static final int ADAPTIVE = -1;
+
+    private final int skip; // frames skipped after each rendered one, or ADAPTIVE
+
+    private int skippedInARow;
+    private boolean rendered; // anything rendered yet
+    private long lastRenderNanos;
+    private long renderedFrames;
+    private long skippedFrames;
+
+    private FrameSkip(int skip) {
+        this.skip = skip;
+    }
+
+    /**
+     * Renders every frame.
+     */
+    public static FrameSkip none() {
+        return new FrameSkip(0);
+    }
+
+    /**
+     * Renders one frame in every {@code skip} + 1.
+     */
+    public static FrameSkip fixed(int skip) {
+        if (skip < 0) {
+            throw new IllegalArgumentException("frame skip must be 0 or more, was " + skip);
+        }
+        return new FrameSkip(skip);
+    }
+
+    public static FrameSkip adaptive() {
+        return new FrameSkip(ADAPTIVE);
+    }
+
+    /**
+     * Parses a number of frames to skip, or "auto" for adaptive.
+     */
+    public static FrameSkip parse(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.equals("auto") || lower.equals("adaptive")) {
+            return adaptive();
+        }
+        try {
+            return fixed(Integer.parseInt(lower));
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("unknown frame skip " + name + ", use a number of frames or auto");
+        }
+    }
+
+    public boolean isAdaptive() {
+        return skip == ADAPTIVE;
+    }
+
+    /**
+     * Called before every frame, whether to render it.
+     */
+    public boolean renderNext(FramePacer pacer) {
+        return renderNext(pacer.isLate(), System.nanoTime());
+    }
+
+    boolean renderNext(boolean late, long now) {
+        boolean render;
+        if (skip != ADAPTIVE) {
+            render = !rendered || skippedInARow >= skip;
+        }
+        else if (rendered && now - lastRenderNanos < MIN_RENDER_INTERVAL_NANOS) {
+            render = false;
+        }
+        else {
+            render = !late || skippedInARow >= MAX_LATE_SKIP;
+        }
+
+        if (render) {
+            skippedInARow = 0;
+            rendered = true;
+            lastRenderNanos = now;
+            renderedFrames++;
+        }
+        else {
+            skippedInARow++;
+            skippedFrames++;
+        }
+        return render;
+    }
+
+    public long getRenderedFrames() {
+        return renderedFrames;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    @Override
+    public String toString() {
+        return skip == ADAPTIVE ? "auto" : Integer.toString(skip);
+    }
+}
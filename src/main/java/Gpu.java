@@ -1,13 +1,13 @@
 import helpers.Logger;
+import helpers.PagedMemory;
+import helpers.StateBuffer;
 
-import javax.swing.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Created by Pablo Canseco on 3/28/2018.
  */
-class Gpu extends JPanel {
+class Gpu {
     private final String name = "GPU";
     private Logger log = new Logger(name, Logger.Level.FATAL);
     public static final int width = 160;
@@ -125,15 +125,13 @@ class Gpu extends JPanel {
         }
     }
 
-    public class Sprite {
-        public int y = 0; // Y-coordinate of top-left corner, (Value stored is Y-coordinate minus 16)
-        public int x = 0; // X-coordinate of top-left corner, (Value stored is X-coordinate minus 8)
-        int tileNumber = 0;
-        boolean belowBackground = false; // false = above background, true = below background
-        boolean isYflip = false;
-        boolean isXflip = false;
-        boolean isPalette1 = false; // false = palette 0, true = palette 1
-    }
+    // sprite attribute flags, byte 3 of each OAM entry
+    private static final int SPRITE_PALETTE_1 = 0b0001_0000;
+    private static final int SPRITE_X_FLIP    = 0b0010_0000;
+    private static final int SPRITE_Y_FLIP    = 0b0100_0000;
+    private static final int SPRITE_BEHIND_BG = 0b1000_0000;
+    private static final int SPRITE_COUNT = 40;
+    private static final int SPRITES_PER_LINE = 10;
 
     enum Mode {
         HBLANK,
@@ -150,21 +148,48 @@ class Gpu extends JPanel {
     public final LcdControl lcdControl = new LcdControl();
     public int scrollX;
     public int scrollY;
-    public int[] vram = new int[0x2000]; // 8192
-    private int[][][] tileset = new int[384][8][8];
-    private int[] screen = new int[160 * 144];
+    public int windowX; // WX, the window's left edge plus 7
+    public int windowY; // WY
+    int windowLine; // row of the window to draw next, only counts lines the window was drawn on
+    // where each tile of the current line's background and window rows starts in the tileset
+    private final int[] backgroundRow = new int[32];
+    private final int[] windowRow = new int[32];
+    public PagedMemory vram; // 8192
+    private PagedMemory tileset; // 384 tiles of 8x8, indexed (tile << 6) | (y << 3) | x
+    private int[] screen;
+    private boolean screenShared = false; // set after a fork, the next scanline copies the screen first
+    private boolean presentFrames = true;
+    private boolean renderFrames = true; // false to emulate frames without drawing them
+    private long frameCount = 0;
+    private long frameEndCycle;  // timer cycle and wall time the last frame completed at, for FlightEvents
+    private long frameEndNanos;
     public int[] backgroundPalette = {0, 3, 3, 3};
     public int[][] spritePalette = {{0, 3, 3, 3}, {0, 3, 3, 3}};
     public int[] palette = {0, 1, 2, 3};
-    private List<Sprite> spriteList = new ArrayList<>();
+
+    // OAM decoded into one array per attribute, indexed by sprite number
+    private final int[] spriteY;     // top edge on screen (OAM value minus 16)
+    private final int[] spriteX;     // left edge on screen (OAM value minus 8)
+    private final int[] spriteTile;
+    private final int[] spriteFlags; // SPRITE_* bits
+    // sprites found on the current line by the OAM scan, highest priority first
+    private final int[] lineSprites = new int[SPRITES_PER_LINE];
+    private int lineSpriteCount;
+    private final boolean[] spritePixelTaken = new boolean[160];
 
     Gpu() {
+        vram = new PagedMemory(0x2000);
+        tileset = new PagedMemory(384 * 64);
+        screen = new int[160 * 144];
         modeClock = 0;
         currentMode = Mode.VRAM_ACCESS;
         lcdControl.setLcdControl(0x91);
-        for (int i = 0; i < 40; i++) {
-            spriteList.add(new Sprite());
-        }
+        spriteY = new int[SPRITE_COUNT];
+        spriteX = new int[SPRITE_COUNT];
+        spriteTile = new int[SPRITE_COUNT];
+        spriteFlags = new int[SPRITE_COUNT];
+        Arrays.fill(spriteY, -16);
+        Arrays.fill(spriteX, -8);
     }
 
     Gpu(Logger.Level level) {
@@ -172,6 +197,165 @@ class Gpu extends JPanel {
         this.log = new Logger(name, level);
     }
 
+    private Gpu(Gpu other) {
+        this.log = other.log;
+        this.currentMode = other.currentMode;
+        this.modeClock = other.modeClock;
+        this.frameCount = other.frameCount;
+        this.frameEndCycle = other.frameEndCycle;
+        this.frameEndNanos = other.frameEndNanos;
+        this.line = other.line;
+        this.lyc = other.lyc;
+        this.scrollX = other.scrollX;
+        this.scrollY = other.scrollY;
+        this.windowX = other.windowX;
+        this.windowY = other.windowY;
+        this.windowLine = other.windowLine;
+        this.lcdStatus.isAnyStat = other.lcdStatus.isAnyStat;
+        this.lcdStatus.isLyLyc = other.lcdStatus.isLyLyc;
+        this.lcdStatus.setLcdStat(other.lcdStatus.getLcdStat());
+        this.lcdControl.lcdEnable = other.lcdControl.lcdEnable;
+        this.lcdControl.setLcdControl(other.lcdControl.getLcdControl());
+        this.vram = other.vram.fork();
+        this.tileset = other.tileset.fork();
+        this.screen = other.screen;
+        this.screenShared = true;
+        other.screenShared = true;
+        this.backgroundPalette = other.backgroundPalette.clone();
+        this.spritePalette = new int[][] {other.spritePalette[0].clone(), other.spritePalette[1].clone()};
+        this.palette = other.palette.clone();
+        this.spriteY = other.spriteY.clone();
+        this.spriteX = other.spriteX.clone();
+        this.spriteTile = other.spriteTile.clone();
+        this.spriteFlags = other.spriteFlags.clone();
+        System.arraycopy(other.lineSprites, 0, lineSprites, 0, SPRITES_PER_LINE);
+        this.lineSpriteCount = other.lineSpriteCount;
+        this.presentFrames = false;
+    }
+
+    /**
+     * Copy of this gpu sharing vram, tiles and the screen copy-on-write.
+     * Forks don't present frames to the display until told to.
+     */
+    Gpu fork() {
+        return new Gpu(this);
+    }
+
+    public void setPresentFrames(boolean presentFrames) {
+        this.presentFrames = presentFrames;
+    }
+
+    public boolean isPresentingFrames() {
+        return presentFrames;
+    }
+
+    /**
+     * Frames not rendered still run their full timing, modes and interrupts, only the pixels
+     * aren't drawn and the frame isn't presented. The screen keeps the last rendered frame.
+     * Set between frames, it takes effect from the next scanline.
+     */
+    public void setRenderFrames(boolean renderFrames) {
+        this.renderFrames = renderFrames;
+    }
+
+    public boolean isRenderingFrames() {
+        return renderFrames;
+    }
+
+    /**
+     * The shade of every pixel, row by row. Read only, it's the gpu's own buffer.
+     */
+    int[] getScreen() {
+        return screen;
+    }
+
+    /**
+     * Number of frames completed so far, incremented when the gpu enters VBLANK.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    void saveState(StateBuffer out) {
+        out.writeInt(currentMode.ordinal());
+        out.writeInt(modeClock);
+        out.writeLong(frameCount);
+        out.writeInt(line);
+        out.writeInt(lyc);
+        out.writeInt(scrollX);
+        out.writeInt(scrollY);
+        out.writeInt(windowX);
+        out.writeInt(windowY);
+        out.writeInt(windowLine);
+        out.writeBoolean(lcdStatus.isAnyStat);
+        out.writeBoolean(lcdStatus.isLyLyc);
+        out.writeInt(lcdStatus.getLcdStat());
+        out.writeInt(lcdControl.getLcdControl());
+        out.writeMemory(vram);
+        out.writeMemory(tileset);
+        out.writeInts(screen);
+        out.writeInts(backgroundPalette);
+        out.writeInts(spritePalette[0]);
+        out.writeInts(spritePalette[1]);
+        out.writeInts(palette);
+        out.writeInts(spriteY);
+        out.writeInts(spriteX);
+        out.writeInts(spriteTile);
+        out.writeInts(spriteFlags);
+        out.writeInts(lineSprites);
+        out.writeInt(lineSpriteCount);
+    }
+    void loadState(StateBuffer in) {
+        currentMode = Mode.values()[in.readInt()];
+        modeClock = in.readInt();
+        frameCount = in.readLong();
+        line = in.readInt();
+        lyc = in.readInt();
+        scrollX = in.readInt();
+        scrollY = in.readInt();
+        windowX = in.readInt();
+        windowY = in.readInt();
+        windowLine = in.readInt();
+        lcdStatus.isAnyStat = in.readBoolean();
+        lcdStatus.isLyLyc = in.readBoolean();
+        lcdStatus.setLcdStat(in.readInt());
+        int control = in.readInt();
+        lcdControl.lcdEnable = (control & 0b1000_0000) != 0; // restore directly, turning the lcd on resets the line
+        lcdControl.setLcdControl(control);
+        in.readMemory(vram);
+        in.readMemory(tileset);
+        if (screenShared) {
+            screen = new int[screen.length];
+            screenShared = false;
+        }
+        in.readInts(screen);
+        in.readInts(backgroundPalette);
+        in.readInts(spritePalette[0]);
+        in.readInts(spritePalette[1]);
+        in.readInts(palette);
+        in.readInts(spriteY);
+        in.readInts(spriteX);
+        in.readInts(spriteTile);
+        in.readInts(spriteFlags);
+        in.readInts(lineSprites);
+        lineSpriteCount = in.readInt();
+    }
+
+    private void frameCompleted() {
+        long cycle = TimerService.getInstance().getCycleCount();
+        long nanos = System.nanoTime();
+        FlightEvents.FrameCompleted event = new FlightEvents.FrameCompleted();
+        if (event.isEnabled()) {
+            event.frame = frameCount;
+            event.cycles = cycle - frameEndCycle;
+            event.wallTime = nanos - frameEndNanos;
+            event.presented = presentFrames && renderFrames;
+            event.commit();
+        }
+        frameEndCycle = cycle;
+        frameEndNanos = nanos;
+    }
+
     public void step(int cycles) {
         modeClock += cycles;
 
@@ -183,6 +367,8 @@ class Gpu extends JPanel {
                 if (modeClock >= 80) {
                     currentMode = Mode.VRAM_ACCESS;
                     modeClock = 0;
+
+                    selectLineSprites();
                 }
                 break;
             case VRAM_ACCESS:
@@ -200,11 +386,15 @@ class Gpu extends JPanel {
 
                     if (line == 143) {
                         currentMode = Mode.VBLANK;
+                        frameCount++;
 
                         InterruptManager.getInstance()
                                 .raiseInterrupt(InterruptManager.InterruptTypes.VBLANK);
 
-                        Display.getInstance().renderFrame(screen);
+                        if (presentFrames && renderFrames) {
+                            Display.getInstance().renderFrame(screen);
+                        }
+                        frameCompleted();
                     }
                     else {
                         currentMode = Mode.OAM_ACCESS;
@@ -242,42 +432,103 @@ class Gpu extends JPanel {
             // find bit index for this pixel
             sx = 1 << (7 - i);
 
-            int val = ((vram[address] & sx) != 0 ? 1 : 0) |
-                    ((vram[address + 1] & sx) != 0 ? 2 : 0);
+            int val = ((vram.read(address) & sx) != 0 ? 1 : 0) |
+                    ((vram.read(address + 1) & sx) != 0 ? 2 : 0);
 
             log.debug("updating tile " + tile + " row " + y + " value " + val);
 
             //update tileset
-            tileset[tile][y][i] = val;
+            tileset.write((tile << 6) | (y << 3) | i, val);
         }
     }
 
     public void buildSprite(int address, int value) {
         int spriteNumber = address >> 2;
-        if (spriteNumber < 40) {
+        if (spriteNumber < SPRITE_COUNT) {
             switch (address & 0b0000_0011) {
-                // Y-coordinate
-                case 0: spriteList.get(spriteNumber).y = value-16; break;
-
-                // X-coordinate
-                case 1: spriteList.get(spriteNumber).x = value-8; break;
-
-                // Data tile
-                case 2: spriteList.get(spriteNumber).tileNumber = value; break;
-
-                // Options
-                case 3:
-                    spriteList.get(spriteNumber).isPalette1         = ((value & 0b0001_0000) != 0);
-                    spriteList.get(spriteNumber).isXflip            = ((value & 0b0010_0000) != 0);
-                    spriteList.get(spriteNumber).isYflip            = ((value & 0b0100_0000) != 0);
-                    spriteList.get(spriteNumber).belowBackground    = ((value & 0b1000_0000) != 0);
-                    break;
+                case 0: spriteY[spriteNumber] = value - 16; break;
+                case 1: spriteX[spriteNumber] = value - 8; break;
+                case 2: spriteTile[spriteNumber] = value; break;
+                case 3: spriteFlags[spriteNumber] = value & 0b1111_0000; break;
             }
         }
+    }
+
+    /**
+     * Maps the LCD registers (0xFF40-0xFF45, 0xFF4A-0xFF4B) and palettes (0xFF47-0xFF49) to this gpu.
+     */
+    void mapIo(MemoryManager mmu) {
+        mmu.mapIo(0xff40, lcdControl::getLcdControl, lcdControl::setLcdControl);
+        mmu.mapIo(0xff41, lcdStatus::getLcdStat, lcdStatus::setLcdStat);
+        mmu.mapIo(0xff42, () -> scrollY, value -> scrollY = value);
+        mmu.mapIo(0xff43, () -> scrollX, value -> scrollX = value);
+        mmu.mapIo(0xff44, () -> line, value -> { }); // read only
+        mmu.mapIo(0xff45, () -> lyc, value -> lyc = value);
+        mmu.mapIo(0xff4a, () -> windowY, value -> windowY = value);
+        mmu.mapIo(0xff4b, () -> windowX, value -> windowX = value);
+        // palettes are write only
+        mmu.mapIo(0xff47, null, value -> setPalette(backgroundPalette, value));
+        mmu.mapIo(0xff48, null, value -> setPalette(spritePalette[0], value));
+        mmu.mapIo(0xff49, null, value -> setPalette(spritePalette[1], value));
+    }
+
+    private void setPalette(int[] shades, int value) {
+        for (int i = 0; i < 4; i++) {
+            shades[i] = palette[(value >> (i * 2)) & 3];
+        }
+    }
+
+    /**
+     * Decodes all 40 sprites at once from OAM, after a DMA transfer replaced it.
+     */
+    public void buildSprites(int[] oam) {
+        for (int i = 0; i < SPRITE_COUNT; i++) {
+            int base = i << 2;
+            spriteY[i] = oam[base] - 16;
+            spriteX[i] = oam[base + 1] - 8;
+            spriteTile[i] = oam[base + 2];
+            spriteFlags[i] = oam[base + 3] & 0b1111_0000;
+        }
+    }
 
+    /**
+     * The OAM scan: picks the first ten sprites in OAM order that cover this line, whether
+     * or not they're on screen horizontally, and orders them by priority. The one further
+     * left wins, and between two at the same x the one earlier in OAM.
+     */
+    void selectLineSprites() {
+        int height = lcdControl.getSpriteSize();
+        int count = 0;
+        for (int i = 0; i < SPRITE_COUNT && count < SPRITES_PER_LINE; i++) {
+            int row = line - spriteY[i];
+            if (row >= 0 && row < height) {
+                int j = count++;
+                while (j > 0 && spriteX[lineSprites[j - 1]] > spriteX[i]) {
+                    lineSprites[j] = lineSprites[j - 1];
+                    j--;
+                }
+                lineSprites[j] = i;
+            }
+        }
+        lineSpriteCount = count;
     }
 
-    private void renderScanLine() {
+    void renderScanLine() {
+        if (line == 0) {
+            windowLine = 0;
+        }
+        if (!renderFrames) {
+            // the window's row counter is machine state, it moves on as if the line was drawn
+            if (lcdControl.bgWndDisplayPriority && isWindowVisible()) {
+                windowLine++;
+            }
+            return;
+        }
+
+        if (screenShared) {
+            screen = screen.clone();
+            screenShared = false;
+        }
 
         int[] scanlineRow = new int[160];
 
@@ -292,95 +543,99 @@ class Gpu extends JPanel {
         log.info("Rendered scanline " + this.line);
     }
 
-    private void renderSprites(int[] scanrow) {
-        int spriteSize = lcdControl.getSpriteSize();
-
-        for(int i = 0; i < 40; i++) {
-            Sprite obj = spriteList.get(i);
-
-            // Check if this sprite falls on this scanline
-            if((obj.y <= line) && ((obj.y + lcdControl.getSpriteSize()) > line)) {
-
-                // Palette to use for this sprite
-                int[] pal = obj.isPalette1 ? spritePalette[1] : spritePalette[0];
-
-                // Where to render on the canvas
-                int canvasoffs = ((line * 160) + obj.x);
-
-                // Data for this line of the sprite
-                int[] tilerow;
-
-                // If the sprite is Y-flipped,
-                // use the opposite side of the tile
-                if(obj.isYflip) {
-                    tilerow = tileset[obj.tileNumber][spriteSize - 1 - (line - obj.y)];
+    void renderSprites(int[] scanrow) {
+        int height = lcdControl.getSpriteSize();
+        int canvasoffs = line * 160;
+        // a pixel belongs to the highest priority sprite that isn't transparent there,
+        // even if that sprite is then hidden behind the background
+        Arrays.fill(spritePixelTaken, false);
+
+        for (int n = 0; n < lineSpriteCount; n++) {
+            int i = lineSprites[n];
+            int flags = spriteFlags[i];
+            int row = line - spriteY[i];
+            if (row < 0 || row >= height) {
+                continue; // moved or resized after the scan
+            }
+            if ((flags & SPRITE_Y_FLIP) != 0) {
+                row = height - 1 - row;
+            }
+            // tall sprites use an even/odd pair of tiles, the low bit of the number is ignored
+            int tile = (height == 16) ? (spriteTile[i] & 0xFE) : spriteTile[i];
+            int tilerow = (tile << 6) + (row << 3);
+            int[] pal = (flags & SPRITE_PALETTE_1) != 0 ? spritePalette[1] : spritePalette[0];
+            boolean xflip = (flags & SPRITE_X_FLIP) != 0;
+            boolean behind = (flags & SPRITE_BEHIND_BG) != 0;
+
+            for (int x = 0; x < 8; x++) {
+                int screenX = spriteX[i] + x;
+                if (screenX < 0 || screenX >= 160 || spritePixelTaken[screenX]) {
+                    continue;
                 }
-                else {
-                    tilerow = tileset[obj.tileNumber][line - obj.y];
+                int color = tileset.read(tilerow + (xflip ? 7 - x : x));
+                if (color == 0) {
+                    continue; // transparent
                 }
-
-                int color;
-
-                for(int x = 0; x < 8; x++)
-                {
-                    // If this pixel is still on-screen, AND
-                    // if it's not colour 0 (transparent), AND
-                    // if this sprite has priority OR shows under the bg
-                    // then render the pixel
-                    if(     (((obj.x + x) >= 0) && ((obj.x + x) < 160)) &&
-                            (tilerow[x] != 0) &&
-                            (!obj.belowBackground || scanrow[obj.x + x] <= 0)
-                    ) {
-                        // If the sprite is X-flipped,
-                        // write pixels in reverse order
-                        color = pal[tilerow[obj.isXflip ? (7-x) : x]];
-
-                        screen[canvasoffs] = color;
-                    }
-
-                    canvasoffs++;
+                spritePixelTaken[screenX] = true;
+                if (!behind || scanrow[screenX] == 0) {
+                    screen[canvasoffs + screenX] = pal[color];
                 }
             }
         }
     }
 
-    private void renderBackground(int[] scanlineRow) {
-        boolean bgmap = lcdControl.bgTileMapDisplaySelect;
-        boolean bgtile = !lcdControl.bgAndWndTileDataSelect;
-
-        int mapoffset = bgmap ? 0x1C00 : 0x1800;  /* 0x1800; */
-        mapoffset += (((line + scrollY) & 0b1111_1111) >> 3) << 5;
-
-        int lineoffset = (scrollX >> 3);
-
-        int y = (line + scrollY) & 7;
-        int x = (scrollX & 7);
-
-        int canvasoffset = line * 160;
+    void renderBackground(int[] scanlineRow) {
+        int windowStart = isWindowVisible() ? Math.max(0, windowX - 7) : 160;
 
-        int colorint;
-        int tile = vram[mapoffset + lineoffset];
+        resolveTileRow(lcdControl.bgTileMapDisplaySelect, (line + scrollY) & 0xFF, backgroundRow);
+        drawTileRow(backgroundRow, scrollX, 0, windowStart, scanlineRow);
 
-        if (bgtile && (tile < 128)) {
-            tile += 256;
+        if (windowStart < 160) {
+            resolveTileRow(lcdControl.wndTileMapDisplaySelect, windowLine, windowRow);
+            drawTileRow(windowRow, windowStart - (windowX - 7), windowStart, 160, scanlineRow);
+            windowLine++;
         }
+    }
 
-        for (int i = 0; i < 160; i++) {
-            colorint = tileset[tile][y][x];
-
-            screen[canvasoffset] = backgroundPalette[colorint];
-            canvasoffset++;
+    private boolean isWindowVisible() {
+        return lcdControl.wndDisplayEnable && line >= windowY && windowX < 167;
+    }
 
-            scanlineRow[i] = colorint;
+    /**
+     * Looks up one row of a tile map once, storing where the pixel row {@code y & 7} of each
+     * of its 32 tiles starts in the tileset.
+     */
+    private void resolveTileRow(boolean highMap, int y, int[] rowStarts) {
+        int mapoffset = (highMap ? 0x1C00 : 0x1800) + ((y >> 3) << 5);
+        boolean signedTiles = !lcdControl.bgAndWndTileDataSelect; // tiles 0-127 come from 0x9000
+        int row = (y & 7) << 3;
+        for (int i = 0; i < 32; i++) {
+            int tile = vram.read(mapoffset + i);
+            if (signedTiles && (tile < 128)) {
+                tile += 256;
+            }
+            rowStarts[i] = (tile << 6) | row;
+        }
+    }
 
-            x++;
-            if (x == 8) {
-                x = 0;
-                lineoffset = (lineoffset + 1) & 31;
-                tile = vram[mapoffset + lineoffset];
-                if (bgtile && (tile < 128)) {
-                    tile += 256;
-                }
+    /**
+     * Draws screen pixels {@code from} to {@code to} (exclusive) of a background or window row,
+     * where pixel {@code from} is at {@code layerX} in the 256 pixel wide layer.
+     */
+    private void drawTileRow(int[] rowStarts, int layerX, int from, int to, int[] scanlineRow) {
+        int canvasoffset = line * 160;
+        int i = from;
+        while (i < to) {
+            // a tile row's 8 pixels never cross a tileset page
+            int start = rowStarts[(layerX >> 3) & 31];
+            int[] pixels = tileset.page(start >> PagedMemory.PAGE_BITS);
+            int base = start & (PagedMemory.PAGE_SIZE - 1);
+            for (int x = layerX & 7; x < 8 && i < to; x++) {
+                int colorint = pixels[base + x];
+                screen[canvasoffset + i] = backgroundPalette[colorint];
+                scanlineRow[i] = colorint;
+                i++;
+                layerX++;
             }
         }
     }
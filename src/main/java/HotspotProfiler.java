@@ -0,0 +1,280 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Attributes cycles to the guest code that spent them, for finding the routines a game spends
+ * its time in. Attach one to a cpu with {@link Cpu#setHotspotProfiler(HotspotProfiler)}.
+ *
+ * Every step's cycles are counted twice: flat, against the rom bank and address of the
+ * instruction, and in a call tree built from CALL, RST and interrupt dispatch, unwound by
+ * RET and RETI. A return unwinds every frame whose return address sits at or below the
+ * popped stack slot, so routines that drop their return address or jump through a pushed
+ * address don't leave stale frames behind for long.
+ *
+ * Functions are named by their entry point, bank:address like "01:4A2F", or by the labels
+ * of a .sym file (RGBDS and no$gmb write the same "bank:address label" lines).
+ */
+public class HotspotProfiler {
+    static final int MAX_DEPTH = 64; // deeper calls are counted against the deepest frame
+
+    private final long[] rom0Cycles = new long[0x4000]; // 0x0000-0x3FFF, counted as bank 0
+    private final long[][] romXCycles = new long[512][]; // 0x4000-0x7FFF per bank, allocated on first use
+    private final long[] ramCycles = new long[0x8000];   // code running from 0x8000-0xFFFF
+    private final TreeMap<Integer, String> symbols = new TreeMap<>(); // bank << 16 | address
+
+    private final Node root = new Node(null, -1);
+    private Node current = root;
+    private final Node[] frames = new Node[MAX_DEPTH];
+    private final int[] frameSp = new int[MAX_DEPTH]; // where each frame's return address is
+    private int depth = 0;
+
+    private Node stepNode;
+    private int stepBank;
+    private int stepPc;
+
+    /**
+     * Called before each step with where the cpu is about to execute.
+     */
+    void begin(int bank, int pc) {
+        stepNode = current;
+        stepBank = bank;
+        stepPc = pc;
+    }
+
+    /**
+     * Called after each step with the cycles it took, which go to where {@link #begin(int, int)}
+     * said, even if the step called or returned.
+     */
+    void end(long cycles) {
+        stepNode.cycles += cycles;
+        if (stepPc < 0x4000) {
+            rom0Cycles[stepPc] += cycles;
+        }
+        else if (stepPc >= 0x8000) {
+            ramCycles[stepPc - 0x8000] += cycles;
+        }
+        else {
+            long[] bank = romXCycles[stepBank];
+            if (bank == null) {
+                bank = romXCycles[stepBank] = new long[0x4000];
+            }
+            bank[stepPc - 0x4000] += cycles;
+        }
+    }
+
+    /**
+     * A call to {@code address} that pushed its return address to {@code sp}.
+     */
+    void enter(int bank, int address, int sp) {
+        if (depth == MAX_DEPTH) {
+            return;
+        }
+        frames[depth] = current;
+        frameSp[depth] = sp;
+        depth++;
+        current = current.child(key(bank, address));
+    }
+
+    /**
+     * A return popping its address from {@code sp}.
+     */
+    void exit(int sp) {
+        while (depth > 0 && frameSp[depth - 1] <= sp) {
+            depth--;
+            current = frames[depth];
+        }
+    }
+
+    /**
+     * Where assemblers put the symbols of {@code romPath}: next to it, with .sym for an extension.
+     */
+    public static Path symbolPathFor(Path romPath) {
+        String name = romPath.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return romPath.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".sym");
+    }
+
+    /**
+     * Reads labels from a .sym file, ";" starts a comment.
+     */
+    public void loadSymbols(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf(';');
+                String[] parts = (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+");
+                int colon = parts[0].indexOf(':');
+                if (parts.length < 2 || colon < 0) {
+                    continue;
+                }
+                try {
+                    int bank = Integer.parseInt(parts[0].substring(0, colon), 16);
+                    int address = Integer.parseInt(parts[0].substring(colon + 1), 16);
+                    symbols.put(bank << 16 | address, parts[1]);
+                }
+                catch (NumberFormatException e) {
+                    // not a label line
+                }
+            }
+        }
+    }
+
+    /**
+     * Cycles spent at an address, {@code bank} only matters for 0x4000-0x7FFF.
+     */
+    public long getCycles(int bank, int address) {
+        if (address < 0x4000) {
+            return rom0Cycles[address];
+        }
+        if (address >= 0x8000) {
+            return ramCycles[address - 0x8000];
+        }
+        long[] cycles = romXCycles[bank];
+        return cycles == null ? 0 : cycles[address - 0x4000];
+    }
+
+    public long getTotalCycles() {
+        return root.totalCycles();
+    }
+
+    /**
+     * bank << 16 | address, with bank 0 outside the switchable rom bank the way .sym files have it.
+     */
+    private static int key(int bank, int address) {
+        return address < 0x4000 || address >= 0x8000 ? address : bank << 16 | address;
+    }
+
+    /**
+     * The label of the entry point at {@code key}, or bank:address if there is none.
+     */
+    String functionName(int key) {
+        String name = symbols.get(key);
+        return name != null ? name : String.format("%02X:%04X", key >> 16, key & 0xFFFF);
+    }
+
+    /**
+     * bank:address with the nearest label at or before it in the same bank, if any.
+     */
+    String locationName(int key) {
+        String location = String.format("%02X:%04X", key >> 16, key & 0xFFFF);
+        Map.Entry<Integer, String> label = symbols.floorEntry(key);
+        if (label == null || label.getKey() >> 16 != key >> 16) {
+            return location;
+        }
+        int address = key & 0xFFFF;
+        int offset = address - (label.getKey() & 0xFFFF);
+        return location + " " + label.getValue() + (offset == 0 ? "" : String.format("+%d", offset));
+    }
+
+    /**
+     * The call tree in the folded stack format of flamegraph.pl and speedscope: one line per
+     * call path with cycles of its own, functions separated by ';', then the cycles.
+     */
+    public void writeFoldedStacks(Writer out) throws IOException {
+        List<Node> nodes = new ArrayList<>();
+        root.collect(nodes);
+        for (Node node : nodes) {
+            if (node.cycles > 0) {
+                out.write(node.stack());
+                out.write(' ');
+                out.write(Long.toString(node.cycles));
+                out.write('\n');
+            }
+        }
+    }
+
+    public void writeFoldedStacks(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeFoldedStacks(out);
+        }
+    }
+
+    /**
+     * The {@code limit} addresses that took the most cycles, one per line.
+     */
+    public String getReport(int limit) {
+        List<long[]> hot = new ArrayList<>(); // key, cycles
+        addSpots(hot, rom0Cycles, 0, 0);
+        for (int bank = 0; bank < romXCycles.length; bank++) {
+            if (romXCycles[bank] != null) {
+                addSpots(hot, romXCycles[bank], bank, 0x4000);
+            }
+        }
+        addSpots(hot, ramCycles, 0, 0x8000);
+        hot.sort((a, b) -> Long.compare(b[1], a[1]));
+
+        long total = getTotalCycles();
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%d cycles, %d addresses executed%n", total, hot.size()));
+        report.append(String.format("%14s %8s  %s%n", "cycles", "cycles%", "address"));
+        for (int i = 0; i < hot.size() && i < limit; i++) {
+            long[] spot = hot.get(i);
+            report.append(String.format(Locale.ROOT, "%14d %7.2f%%  %s%n", spot[1], 100.0 * spot[1] / total,
+                    locationName((int) spot[0])));
+        }
+        return report.toString();
+    }
+
+    private static void addSpots(List<long[]> into, long[] cycles, int bank, int base) {
+        for (int i = 0; i < cycles.length; i++) {
+            if (cycles[i] > 0) {
+                into.add(new long[] {key(bank, base + i), cycles[i]});
+            }
+        }
+    }
+
+    private class Node {
+        final Node parent;
+        final int function; // key of the entry point, -1 for code outside any call
+        Node[] children = new Node[0];
+        long cycles; // spent in this function itself, not in its callees
+
+        Node(Node parent, int function) {
+            this.parent = parent;
+            this.function = function;
+        }
+
+        Node child(int function) {
+            for (Node child : children) {
+                if (child.function == function) {
+                    return child;
+                }
+            }
+            Node child = new Node(this, function);
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, children.length);
+            grown[children.length] = child;
+            children = grown;
+            return child;
+        }
+
+        long totalCycles() {
+            long total = cycles;
+            for (Node child : children) {
+                total += child.totalCycles();
+            }
+            return total;
+        }
+
+        void collect(List<Node> into) {
+            into.add(this);
+            for (Node child : children) {
+                child.collect(into);
+            }
+        }
+
+        String stack() {
+            String name = function < 0 ? "main" : functionName(function);
+            return parent == null ? name : parent.stack() + ";" + name;
+        }
+    }
+}
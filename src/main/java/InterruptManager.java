@@ -1,4 +1,5 @@
 import helpers.Logger;
+import helpers.StateBuffer;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -29,6 +30,7 @@ public class InterruptManager {
         public final String name;
         private boolean isRaised;
         private boolean isEnabled;
+        private long raisedCycle = -1; // timer cycle it was raised at, -1 if unknown
 
         private Interrupt(String name) {
             this.name = name;
@@ -49,8 +51,17 @@ public class InterruptManager {
             this.isEnabled = false;
         }
         public void raise() {
+            if (!isRaised) {
+                raisedCycle = TimerService.getInstance().getCycleCount();
+            }
             this.isRaised = true;
         }
+        /**
+         * Clock cycles since this was raised, -1 if unknown (raised before a state was loaded).
+         */
+        long getCyclesSinceRaised() {
+            return raisedCycle < 0 ? -1 : TimerService.getInstance().getCycleCount() - raisedCycle;
+        }
         public void enable() {
             this.isEnabled = true;
         }
@@ -74,12 +85,59 @@ public class InterruptManager {
         instance = null;
     }
 
+    static void setInstance(InterruptManager interruptManager) {
+        instance = interruptManager;
+    }
+
+    /**
+     * Maps the interrupt flags (0xFF0F). Interrupt enable is at 0xFFFF, outside the I/O block.
+     */
+    static void mapIo(MemoryManager mmu) {
+        mmu.mapIo(0xff0f, () -> getInstance().getInterruptsRaised(), value -> getInstance().raiseInterrupt(value));
+    }
+
     private InterruptManager() {
         for (InterruptTypes i : InterruptTypes.values()) {
             ints.put(i, new Interrupt(i.name()));
         }
     }
 
+    /**
+     * Independent copy of this interrupt state, for forking a machine.
+     */
+    InterruptManager fork() {
+        InterruptManager copy = new InterruptManager();
+        for (Map.Entry<InterruptTypes, Interrupt> e : ints.entrySet()) {
+            copy.ints.get(e.getKey()).isRaised = e.getValue().isRaised;
+            copy.ints.get(e.getKey()).isEnabled = e.getValue().isEnabled;
+            copy.ints.get(e.getKey()).raisedCycle = e.getValue().raisedCycle;
+        }
+        copy.masterEnable = masterEnable;
+        copy.upper3bitsForEnableReg = upper3bitsForEnableReg;
+        copy.upper3bitsForFlagReg = upper3bitsForFlagReg;
+        return copy;
+    }
+
+    void saveState(StateBuffer out) {
+        for (InterruptTypes i : InterruptTypes.values()) {
+            out.writeBoolean(ints.get(i).isRaised);
+            out.writeBoolean(ints.get(i).isEnabled);
+        }
+        out.writeBoolean(masterEnable);
+        out.writeInt(upper3bitsForEnableReg);
+        out.writeInt(upper3bitsForFlagReg);
+    }
+    void loadState(StateBuffer in) {
+        for (InterruptTypes i : InterruptTypes.values()) {
+            ints.get(i).isRaised = in.readBoolean();
+            ints.get(i).isEnabled = in.readBoolean();
+            ints.get(i).raisedCycle = -1;
+        }
+        masterEnable = in.readBoolean();
+        upper3bitsForEnableReg = in.readInt();
+        upper3bitsForFlagReg = in.readInt();
+    }
+
     public void masterEnable() {
         this.masterEnable = true;
     }
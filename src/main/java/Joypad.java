@@ -1,4 +1,6 @@
+import helpers.EventRing;
 import helpers.Logger;
+import helpers.StateBuffer;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
@@ -19,64 +21,99 @@ public class Joypad implements KeyListener {
     public static void reset() {
         instance = null;
     }
+    static void setInstance(Joypad joypad) {
+        instance = joypad;
+    }
+
+    /**
+     * Maps P1 (0xFF00) to whichever joypad is active.
+     */
+    static void mapIo(MemoryManager mmu) {
+        mmu.mapIo(0xff00, () -> getInstance().getKeysPressed(), value -> getInstance().setJoypadMode(value));
+    }
 
-    private boolean aPressed;
-    private boolean bPressed;
-    private boolean startPressed;
-    private boolean selectPressed;
-    private boolean upPressed;
-    private boolean downPressed;
-    private boolean leftPressed;
-    private boolean rightPressed;
+    // button bits, as used by getButtons()/setButtons() and input movies
+    public static final int BUTTON_A      = 0b0000_0001;
+    public static final int BUTTON_B      = 0b0000_0010;
+    public static final int BUTTON_SELECT = 0b0000_0100;
+    public static final int BUTTON_START  = 0b0000_1000;
+    public static final int BUTTON_RIGHT  = 0b0001_0000;
+    public static final int BUTTON_LEFT   = 0b0010_0000;
+    public static final int BUTTON_UP     = 0b0100_0000;
+    public static final int BUTTON_DOWN   = 0b1000_0000;
+    private static final int DPAD_BUTTONS = 0b1111_0000;
+    private static final int RELEASED = 0b1_0000_0000; // event flag, set on key release
+
+    private static final int[] BUTTON_FOR_KEY_CODE = new int[256];
+    static {
+        for (Keys k : Keys.values()) {
+            BUTTON_FOR_KEY_CODE[k.keyCode] = k.button;
+        }
+    }
+
+    private int buttons; // BUTTON_* bits of the buttons currently held
 
     private boolean isDpadMode;
 
+    // key events arrive on the AWT thread; they're queued here and only the
+    // emulation thread touches the machine, in drainInput().
+    private final EventRing events = new EventRing(256);
+    private final EventRing.Handler eventHandler = this::applyEvent;
+    private long inputEvents;
+    private long inputLatencyNanos;
+
     private enum Keys {
-        A(90),
-        B(88),
-        START(10),
-        SELECT(16),
-        UP(38),
-        DOWN(40),
-        LEFT(37),
-        RIGHT(39);
+        A(90, BUTTON_A),
+        B(88, BUTTON_B),
+        START(10, BUTTON_START),
+        SELECT(16, BUTTON_SELECT),
+        UP(38, BUTTON_UP),
+        DOWN(40, BUTTON_DOWN),
+        LEFT(37, BUTTON_LEFT),
+        RIGHT(39, BUTTON_RIGHT);
 
         //<editor-fold desc="IMPLEMENTATION" default-state="collapsed">
         private int keyCode;
-        Keys(int code) {
+        private int button;
+        Keys(int code, int button) {
             this.keyCode = code;
+            this.button = button;
         }
         public int getKeyCode() {
             return keyCode;
         }
-        public static Keys getKeyFromInt(int n) {
-            for (Keys k : Keys.values()) {
-                if (k.getKeyCode() == n) {
-                    return k;
-                }
-            }
-            return null;
-        }
         //</editor-fold>
     }
 
+    /**
+     * Independent copy of the button and select-line state, for forking a machine.
+     */
+    Joypad fork() {
+        Joypad copy = new Joypad();
+        copy.buttons = buttons;
+        copy.isDpadMode = isDpadMode;
+        return copy;
+    }
+
+    // only the select line is machine state, which buttons are held comes from the host.
+    void saveState(StateBuffer out) {
+        out.writeBoolean(isDpadMode);
+    }
+    void loadState(StateBuffer in) {
+        isDpadMode = in.readBoolean();
+    }
+
     public int getKeysPressed() {
         int retval = 0b1100_1111;
 
         if (isDpadMode) {
             retval |= 0b0010_0000;
-            retval &= downPressed  ? 0b1111_0111 : 0b1111_1111; // Bit 3 - P13 Input Down  (0=Pressed)
-            retval &= upPressed    ? 0b1111_1011 : 0b1111_1111; // Bit 2 - P12 Input Up    (0=Pressed)
-            retval &= leftPressed  ? 0b1111_1101 : 0b1111_1111; // Bit 1 - P11 Input Left  (0=Pressed)
-            retval &= rightPressed ? 0b1111_1110 : 0b1111_1111; // Bit 0 - P10 Input Right (0=Pressed)
+            retval &= ~((buttons >> 4) & 0b0000_1111); // Bits 3-0 - Down, Up, Left, Right (0=Pressed)
             return retval;
         }
         else {
             retval |= 0b0001_0000;
-            retval &= startPressed  ? 0b1111_0111 : 0b1111_1111; // Bit 3 - P13 Input Start    (0=Pressed)
-            retval &= selectPressed ? 0b1111_1011 : 0b1111_1111; // Bit 2 - P12 Input Select   (0=Pressed)
-            retval &= bPressed      ? 0b1111_1101 : 0b1111_1111; // Bit 1 - P11 Input Button B (0=Pressed)
-            retval &= aPressed      ? 0b1111_1110 : 0b1111_1111; // Bit 0 - P10 Input Button A (0=Pressed)
+            retval &= ~(buttons & 0b0000_1111); // Bits 3-0 - Start, Select, B, A (0=Pressed)
             return retval;
         }
     }
@@ -94,62 +131,80 @@ public class Joypad implements KeyListener {
         }
     }
 
+    /**
+     * Currently held buttons as BUTTON_* bits.
+     */
+    public int getButtons() {
+        return buttons;
+    }
+
+    /**
+     * Replaces the held buttons with the given BUTTON_* bits, raising the joypad
+     * interrupt if a newly pressed button is on the currently selected line.
+     */
+    public void setButtons(int newButtons) {
+        newButtons &= 0b1111_1111;
+        int pressed = newButtons & ~buttons;
+        buttons = newButtons;
+        if (pressed != 0) {
+            raiseIfSelected(pressed);
+        }
+    }
+
+    /**
+     * Applies the key events queued since the last call, in the order they happened.
+     * Must be called from the emulation thread, between instructions.
+     */
+    public void drainInput() {
+        if (!events.isEmpty()) {
+            events.drain(eventHandler);
+        }
+    }
+
+    /**
+     * Average time key events waited in the queue before {@link #drainInput()} applied them.
+     */
+    public long getAverageInputLatencyNanos() {
+        return inputEvents == 0 ? 0 : inputLatencyNanos / inputEvents;
+    }
+
+    private void applyEvent(long timestamp, int event) {
+        inputLatencyNanos += System.nanoTime() - timestamp;
+        inputEvents++;
+
+        int button = event & ~RELEASED;
+        if ((event & RELEASED) == 0) {
+            // key repeat raises the interrupt again, like pressing it anew
+            raiseIfSelected(button);
+            buttons |= button;
+        }
+        else {
+            buttons &= ~button;
+        }
+    }
+
+    private static int buttonFor(int keyCode) {
+        return keyCode >= 0 && keyCode < BUTTON_FOR_KEY_CODE.length ? BUTTON_FOR_KEY_CODE[keyCode] : 0;
+    }
+
+    private void raiseIfSelected(int pressed) {
+        boolean onSelectedLine = isDpadMode
+                ? (pressed & DPAD_BUTTONS) != 0
+                : (pressed & ~DPAD_BUTTONS) != 0;
+        if (onSelectedLine) {
+            InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
+        }
+    }
+
     @Override
     public void keyPressed(KeyEvent e) {
-        Keys keyPressed = Keys.getKeyFromInt(e.getKeyCode());
-        if (keyPressed == null) {
+        int button = buttonFor(e.getKeyCode());
+        if (button == 0) {
             //log.error("key " + e.getKeyChar() + "doesn't do anything.");
         }
         else {
-            switch (keyPressed) {
-                case A:
-                    if (!isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    aPressed = true;
-                    break;
-                case B:
-                    if (!isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    bPressed = true;
-                    break;
-                case START:
-                    if (!isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    startPressed = true;
-                    break;
-                case SELECT:
-                    if (!isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    selectPressed = true;
-                    break;
-                case UP:
-                    if (isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    upPressed = true;
-                    break;
-                case DOWN:
-                    if (isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    downPressed = true;
-                    break;
-                case LEFT:
-                    if (isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    leftPressed = true;
-                    break;
-                case RIGHT:
-                    if (isDpadMode) {
-                        InterruptManager.getInstance().raiseInterrupt(InterruptManager.InterruptTypes.JOYPAD_INPUT);
-                    }
-                    rightPressed = true;
-                    break;
+            if (!events.offer(System.nanoTime(), button)) {
+                log.warning("input queue full, dropped press of " + e.getKeyChar());
             }
             log.debug("pressed " + e.getKeyChar());
         }
@@ -158,36 +213,13 @@ public class Joypad implements KeyListener {
 
     @Override
     public void keyReleased(KeyEvent e) {
-        Keys keyReleased = Keys.getKeyFromInt(e.getKeyCode());
-        if (keyReleased == null) {
+        int button = buttonFor(e.getKeyCode());
+        if (button == 0) {
             log.error("key " + e.getKeyChar() + "doesn't do anything.");
         }
         else {
-            switch (keyReleased) {
-                case A:
-                    aPressed = false;
-                    break;
-                case B:
-                    bPressed = false;
-                    break;
-                case START:
-                    startPressed = false;
-                    break;
-                case SELECT:
-                    selectPressed = false;
-                    break;
-                case UP:
-                    upPressed = false;
-                    break;
-                case DOWN:
-                    downPressed = false;
-                    break;
-                case LEFT:
-                    leftPressed = false;
-                    break;
-                case RIGHT:
-                    rightPressed = false;
-                    break;
+            if (!events.offer(System.nanoTime(), button | RELEASED)) {
+                log.warning("input queue full, dropped release of " + e.getKeyChar());
             }
             log.debug("released " + e.getKeyChar());
         }
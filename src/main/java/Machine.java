@@ -0,0 +1,271 @@
+import helpers.Digests;
+import helpers.Logger;
+import helpers.StateBuffer;
+
+import java.security.MessageDigest;
+
+/**
+ * One complete emulated Game Boy: the cartridge and its MBC, gpu, memory map, cpu,
+ * and the timer/interrupt/joypad state that the rest of the code reaches through singletons.
+ *
+ * Several machines can exist at once (see {@link #fork()}), but the singletons can only
+ * point at one of them, so only the active machine may be stepped. {@link #step()} activates
+ * its machine automatically.
+ */
+public class Machine {
+    private static final int STATE_MAGIC = 0x47425354; // "GBST"
+    private static final int STATE_VERSION = 6;
+    private static Machine active;
+
+    private final Cartridge cart;
+    private final MbcManager mbc;
+    private final Gpu gpu;
+    private final MemoryManager mmu;
+    private final Cpu cpu;
+    private final TimerService timer;
+    private final InterruptManager interrupts;
+    private final Joypad joypad;
+    private MachineMetrics metrics; // null unless registered, forks aren't
+
+    Machine(Cartridge cart) {
+        this(cart, Logger.Level.WARN);
+    }
+
+    Machine(Cartridge cart, Logger.Level cpuLogLevel) {
+        TimerService.reset();
+        InterruptManager.reset();
+        Joypad.reset();
+
+        this.cart = cart;
+        this.mbc = new MbcManager(cart);
+        this.gpu = new Gpu();
+        this.mmu = new MemoryManager(mbc, gpu);
+        this.cpu = new Cpu(mmu, gpu, cpuLogLevel);
+        this.timer = TimerService.getInstance();
+        this.interrupts = InterruptManager.getInstance();
+        this.joypad = Joypad.getInstance();
+        active = this;
+    }
+
+    private Machine(Machine other) {
+        this.cart = other.cart;
+        this.mbc = other.mbc.fork();
+        this.gpu = other.gpu.fork();
+        this.mmu = other.mmu.fork(mbc, gpu);
+        this.cpu = other.cpu.fork(mmu, gpu);
+        this.timer = other.timer.fork();
+        this.interrupts = other.interrupts.fork();
+        this.joypad = other.joypad.fork();
+    }
+
+    /**
+     * Returns an independent copy of this machine. Memory is shared page by page
+     * copy-on-write, so forking is cheap and only pages written afterwards are duplicated.
+     * The fork doesn't present frames to the display; see {@link #setPresentFrames(boolean)}.
+     */
+    public Machine fork() {
+        return new Machine(this);
+    }
+
+    /**
+     * Points the singletons at this machine's timer, interrupts and joypad.
+     */
+    public void activate() {
+        TimerService.setInstance(timer);
+        InterruptManager.setInstance(interrupts);
+        Joypad.setInstance(joypad);
+        Cpu.setCurrentInstance(cpu);
+        active = this;
+    }
+
+    public boolean isActive() {
+        return active == this;
+    }
+
+    public void step() {
+        if (active != this) {
+            activate();
+        }
+        cpu.step();
+    }
+
+    /**
+     * Steps until the gpu finishes the current frame (enters VBLANK).
+     */
+    public void runFrame() {
+        long frame = gpu.getFrameCount();
+        while (gpu.getFrameCount() == frame && !cpu.paused) {
+            step();
+        }
+    }
+
+    /**
+     * Publishes the metrics of a frame that stays, unlike run-ahead's look-ahead frames.
+     * Called once per real frame by whatever runs them.
+     */
+    void frameCommitted() {
+        if (metrics != null) {
+            metrics.frameCompleted();
+        }
+    }
+
+    /**
+     * Whether the frames now running will be rolled back by a state load, so the save file
+     * and the metrics must not see them.
+     */
+    void setSpeculating(boolean speculating) {
+        mbc.setSpeculating(speculating);
+        if (metrics != null) {
+            if (speculating) {
+                metrics.speculationStarted();
+            }
+            else {
+                metrics.speculationEnded();
+            }
+        }
+    }
+
+    /**
+     * Runs at normal speed until the cpu stops, applying host input at the start of every frame.
+     */
+    public void run() {
+        run(new FramePacer());
+    }
+
+    /**
+     * Runs at {@code pacer}'s speed until the cpu stops, applying host input at the start of every frame.
+     */
+    public void run(FramePacer pacer) {
+        run(pacer, FrameSkip.none());
+    }
+
+    /**
+     * Runs at {@code pacer}'s speed until the cpu stops, rendering the frames {@code frameSkip} picks.
+     */
+    public void run(FramePacer pacer, FrameSkip frameSkip) {
+        while (!cpu.paused) {
+            joypad.drainInput();
+            gpu.setRenderFrames(frameSkip.renderNext(pacer));
+            runFrame();
+            frameCommitted();
+            pace(pacer);
+        }
+    }
+
+    /**
+     * Waits until the next frame is due, telling the metrics about frames that came too late.
+     */
+    void pace(FramePacer pacer) {
+        long dropped = pacer.frameCompleted();
+        if (dropped > 0 && metrics != null) {
+            metrics.framesDropped(dropped);
+        }
+    }
+
+    public long getFrameCount() {
+        return gpu.getFrameCount();
+    }
+
+    /**
+     * Writes the complete emulated state into {@code out}, replacing what it held.
+     * Which buttons are held isn't part of it; that's host input.
+     */
+    public void saveState(StateBuffer out) {
+        out.clear();
+        out.writeInt(STATE_MAGIC);
+        out.writeInt(STATE_VERSION);
+        cpu.saveState(out);
+        mmu.saveState(out);
+        gpu.saveState(out);
+        mbc.saveState(out);
+        timer.saveState(out);
+        interrupts.saveState(out);
+        joypad.saveState(out);
+    }
+
+    /**
+     * Restores a state written by {@link #saveState(StateBuffer)} for the same cartridge.
+     */
+    public void loadState(StateBuffer in) {
+        in.rewind();
+        if (in.readInt() != STATE_MAGIC || in.readInt() != STATE_VERSION) {
+            throw new IllegalStateException("not a machine state, or from an incompatible version");
+        }
+        cpu.loadState(in);
+        mmu.loadState(in);
+        gpu.loadState(in);
+        mbc.loadState(in);
+        timer.loadState(in);
+        interrupts.loadState(in);
+        joypad.loadState(in);
+    }
+
+    /**
+     * SHA-1 over work RAM, high RAM and cartridge RAM, used to check that
+     * two runs ended up in the same place.
+     */
+    public String getRamHash() {
+        MessageDigest md = Digests.sha1();
+        mmu.digestRam(md);
+        mbc.digestRam(md);
+        return Digests.toHex(md.digest());
+    }
+
+    public void setPresentFrames(boolean presentFrames) {
+        gpu.setPresentFrames(presentFrames);
+    }
+
+    public boolean isPresentingFrames() {
+        return gpu.isPresentingFrames();
+    }
+
+    /**
+     * Whether frames are drawn; unrendered ones are still emulated in full, see {@link Gpu#setRenderFrames(boolean)}.
+     */
+    public void setRenderFrames(boolean renderFrames) {
+        gpu.setRenderFrames(renderFrames);
+    }
+
+    public boolean isRenderingFrames() {
+        return gpu.isRenderingFrames();
+    }
+
+    public Cartridge getCartridge() {
+        return cart;
+    }
+
+    /**
+     * Counters published for JMX, null unless registered with {@link MetricsRegistry}.
+     */
+    MachineMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(MachineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    TimerService getTimer() {
+        return timer;
+    }
+
+    MbcManager getMbc() {
+        return mbc;
+    }
+
+    Gpu getGpu() {
+        return gpu;
+    }
+
+    MemoryManager getMmu() {
+        return mmu;
+    }
+
+    Cpu getCpu() {
+        return cpu;
+    }
+
+    Joypad getJoypad() {
+        return joypad;
+    }
+}
@@ -0,0 +1,186 @@
+import helpers.ThreadAllocation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live counters of one machine, shown over JMX by {@link MetricsRegistry}.
+ *
+ * The cpu and mbc count in plain fields as they go, and the emulation thread copies those
+ * counts here once per frame ({@link #frameCompleted()}). Counting costs the emulation thread
+ * an increment, and JMX readers only ever see these published copies, at most a frame old.
+ *
+ * Only frames that stay count. Run-ahead's look-ahead frames are rolled back by a state load,
+ * which rewinds frames and cycles but not the cpu's and mbc's counters, so what those
+ * counted in between ({@link #speculationStarted()}, {@link #speculationEnded()}) is left out.
+ */
+public class MachineMetrics implements MachineMetricsMBean {
+    private static final long RATE_INTERVAL_NANOS = 1_000_000_000L;
+    private static final InterruptManager.InterruptTypes[] INTERRUPTS = InterruptManager.InterruptTypes.values();
+
+    private final Machine machine;
+    private final String title;
+
+    // published by the emulation thread, read by anyone
+    private volatile long cycles;
+    private volatile long frames;
+    private volatile long instructions;
+    private volatile long droppedFrames;
+    private volatile long bankSwitches;
+    private volatile long allocatedBytes = -1;
+    private volatile double instructionsPerSecond;
+    private volatile double realTimeRatio;
+    private final AtomicLongArray interrupts = new AtomicLongArray(INTERRUPTS.length); // by ordinal
+
+    // emulation thread only
+    private long dropped;
+    private boolean rateStarted;
+    private long rateStartNanos;
+    private long rateStartInstructions;
+    private long rateStartCycles;
+    private long speculativeInstructions; // counted in frames that were rolled back
+    private long speculativeBankSwitches;
+    private final long[] speculativeInterrupts = new long[INTERRUPTS.length];
+    private long speculationInstructions; // counters when the current speculation started
+    private long speculationBankSwitches;
+    private final long[] speculationInterrupts = new long[INTERRUPTS.length];
+
+    MachineMetrics(Machine machine) {
+        this.machine = machine;
+        this.title = machine.getCartridge().getTitle();
+    }
+
+    /**
+     * Publishes the machine's counters. Called by the emulation thread after every frame that
+     * isn't going to be rolled back.
+     */
+    void frameCompleted() {
+        long now = System.nanoTime();
+        Cpu cpu = machine.getCpu();
+        long cycleCount = machine.getTimer().getCycleCount();
+        long instructionCount = cpu.getInstructionCount() - speculativeInstructions;
+        cycles = cycleCount;
+        frames = machine.getFrameCount();
+        instructions = instructionCount;
+        droppedFrames = dropped;
+        bankSwitches = machine.getMbc().getBankSwitchCount() - speculativeBankSwitches;
+        for (int i = 0; i < INTERRUPTS.length; i++) {
+            interrupts.set(i, cpu.getInterruptCount(INTERRUPTS[i]) - speculativeInterrupts[i]);
+        }
+
+        if (rateStarted && now - rateStartNanos < RATE_INTERVAL_NANOS) {
+            return;
+        }
+        if (rateStarted) {
+            double seconds = (now - rateStartNanos) / 1e9;
+            instructionsPerSecond = (instructionCount - rateStartInstructions) / seconds;
+            realTimeRatio = (cycleCount - rateStartCycles) / (double) RealTimeClock.CYCLES_PER_SECOND / seconds;
+        }
+        rateStarted = true;
+        rateStartNanos = now;
+        rateStartInstructions = instructionCount;
+        rateStartCycles = cycleCount;
+        allocatedBytes = ThreadAllocation.currentThreadAllocatedBytes();
+    }
+
+    /**
+     * The frames from now until {@link #speculationEnded()} will be rolled back.
+     */
+    void speculationStarted() {
+        Cpu cpu = machine.getCpu();
+        speculationInstructions = cpu.getInstructionCount();
+        speculationBankSwitches = machine.getMbc().getBankSwitchCount();
+        for (int i = 0; i < INTERRUPTS.length; i++) {
+            speculationInterrupts[i] = cpu.getInterruptCount(INTERRUPTS[i]);
+        }
+    }
+
+    void speculationEnded() {
+        Cpu cpu = machine.getCpu();
+        speculativeInstructions += cpu.getInstructionCount() - speculationInstructions;
+        speculativeBankSwitches += machine.getMbc().getBankSwitchCount() - speculationBankSwitches;
+        for (int i = 0; i < INTERRUPTS.length; i++) {
+            speculativeInterrupts[i] += cpu.getInterruptCount(INTERRUPTS[i]) - speculationInterrupts[i];
+        }
+    }
+
+    /**
+     * Frames that were due on screen but never got there. Called by the emulation thread.
+     */
+    void framesDropped(long count) {
+        dropped += count;
+    }
+
+    long getInterrupts(InterruptManager.InterruptTypes type) {
+        return interrupts.get(type.ordinal());
+    }
+
+    @Override
+    public String getTitle() {
+        return title;
+    }
+
+    @Override
+    public long getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public long getInstructions() {
+        return instructions;
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    @Override
+    public double getRealTimeRatio() {
+        return realTimeRatio;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public long getVBlankInterrupts() {
+        return getInterrupts(InterruptManager.InterruptTypes.VBLANK);
+    }
+
+    @Override
+    public long getLcdStatInterrupts() {
+        return getInterrupts(InterruptManager.InterruptTypes.LCDC_STATUS);
+    }
+
+    @Override
+    public long getTimerInterrupts() {
+        return getInterrupts(InterruptManager.InterruptTypes.TIMER_OVERFLOW);
+    }
+
+    @Override
+    public long getSerialInterrupts() {
+        return getInterrupts(InterruptManager.InterruptTypes.SERIAL_TRANSFER_COMPLETE);
+    }
+
+    @Override
+    public long getJoypadInterrupts() {
+        return getInterrupts(InterruptManager.InterruptTypes.JOYPAD_INPUT);
+    }
+
+    @Override
+    public long getBankSwitches() {
+        return bankSwitches;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
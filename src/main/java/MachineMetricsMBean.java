@@ -0,0 +1,35 @@
+/**
+ * What one machine's {@link MachineMetrics} shows over JMX, as javagb:type=Machine.
+ */
+public interface MachineMetricsMBean {
+    String getTitle();
+
+    long getCycles();
+
+    long getFrames();
+
+    long getInstructions();
+
+    /** Over the last second or so. */
+    double getInstructionsPerSecond();
+
+    /** Emulated time per real time over the last second or so, 1 is full speed. */
+    double getRealTimeRatio();
+
+    long getDroppedFrames();
+
+    long getVBlankInterrupts();
+
+    long getLcdStatInterrupts();
+
+    long getTimerInterrupts();
+
+    long getSerialInterrupts();
+
+    long getJoypadInterrupts();
+
+    long getBankSwitches();
+
+    /** By the thread running the machine, -1 if the jvm doesn't say. */
+    long getAllocatedBytes();
+}
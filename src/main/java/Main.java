@@ -1,7 +1,15 @@
 import helpers.Logger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This class serves as the entry point for executing the emulator.
@@ -19,11 +27,51 @@ public class Main {
         skipBootrom = argsList.contains("-sb") || argsList.contains("--skip-bootrom");
         boolean cartParseOnly = argsList.contains("-cpo") || argsList.contains("--cart-parse-only");
         boolean disableAcceleration = argsList.contains("-noaccel") || argsList.contains("--disable-hw-acceleration");
+        boolean profileOpcodes = argsList.contains("-prof") || argsList.contains("--profile-opcodes");
+        String romPath = stringOption(argsList, "-rom", "--rom", null);
+        String playPath = stringOption(argsList, "-play", "--play", null);
+        String recordPath = stringOption(argsList, "-rec", "--record", null);
+        String libraryPath = stringOption(argsList, "-lib", "--library", null);
+        String loadAllPath = stringOption(argsList, "-load", "--load-all", null);
+        String moviePath = stringOption(argsList, "-movie", "--movie", null);
+        String benchOutPath = stringOption(argsList, "-out", "--bench-out", null);
+        String hotspotPath = stringOption(argsList, "-hot", "--profile-hotspots", null);
+        String symbolPath = stringOption(argsList, "-sym", "--symbols", null);
+        String speedName = stringOption(argsList, "-speed", "--speed", "1x");
+        String frameSkipName = stringOption(argsList, "-skip", "--frame-skip", "0");
+        int runAheadFrames;
+        int benchFrames;
+        int warmupFrames;
+        try {
+            runAheadFrames = intOption(argsList, "-ra", "--run-ahead", 0);
+            benchFrames = intOption(argsList, "-bench", "--bench", 0);
+            warmupFrames = intOption(argsList, "-warm", "--warmup", 600);
+        }
+        catch (IllegalArgumentException ex) {
+            log.error(ex.getMessage());
+            System.exit(1);
+            return;
+        }
 
         if (argsList.contains("-h") || argsList.contains("-help") || argsList.contains("--help")) {
             System.out.println("USAGE: java Main [options]");
-            System.out.println("\t -sb      (--skip-bootrom) \t\t\t\tBegin executing the game immediately, bypassing the Nintendo logo scroll.");
+            System.out.println("\t -sb      (--skip-bootrom) \t\t\t\tBegin executing the game immediately, restoring the cached state the Nintendo logo scroll leaves behind.");
             System.out.println("\t -noaccel (--disable-hw-acceleration) \tDisables the use of Java2D OpenGL.");
+            System.out.println("\t -ra N    (--run-ahead N) \t\t\t\tPresent frames N frames ahead of the real machine to hide input lag.");
+            System.out.println("\t -speed S (--speed S) \t\t\t\t\tRun at 1x (default), 2x, slow (half speed) or turbo (uncapped).");
+            System.out.println("\t -skip N  (--frame-skip N) \t\t\t\tRender one frame in N + 1, or auto to skip what the display can't keep up with. Emulation is unchanged.");
+            System.out.println("\t -rom F   (--rom F) \t\t\t\t\tLoad the rom in file F.");
+            System.out.println("\t -play F  (--play F) \t\t\t\t\tReplay the movie in file F headless, exit with 1 if RAM doesn't match.");
+            System.out.println("\t -rec F   (--record F) \t\t\t\t\tRecord input into movie file F (written on exit). Implies -sb.");
+            System.out.println("\t -lib D   (--library D) \t\t\t\tIndex the roms under directory D into the rom library and exit.");
+            System.out.println("\t -load D  (--load-all D) \t\t\t\tLoad every rom and .zip/.gz under directory D, report load throughput and exit.");
+            System.out.println("\t -bench N (--bench N) \t\t\t\t\tRun the rom headless and uncapped for N frames, report the speed and exit.");
+            System.out.println("\t -warm N  (--warmup N) \t\t\t\t\tFrames to run before a -bench measures, 600 by default.");
+            System.out.println("\t -movie F (--movie F) \t\t\t\t\tInput for -bench from the movie in file F.");
+            System.out.println("\t -out F   (--bench-out F) \t\t\t\tWrite the -bench result to F, as JSON for .json, else appended as a CSV row.");
+            System.out.println("\t -prof    (--profile-opcodes) \t\t\tCount executions and cycles per opcode, print the top ones on exit.");
+            System.out.println("\t -hot F   (--profile-hotspots F) \t\tCount cycles per rom bank:address and call stack, write folded stacks to F on exit.");
+            System.out.println("\t -sym F   (--symbols F) \t\t\t\tLabels for -hot from the .sym file F, the rom's own .sym by default.");
             return;
         }
 
@@ -32,8 +80,22 @@ public class Main {
         log.info("Skip Bootrom   set to " + skipBootrom);
         log.info("CartParseOnly  set to " + cartParseOnly);
         log.info("disableAcceleration set to " + disableAcceleration);
+        log.info("Run Ahead      set to " + runAheadFrames);
+        log.info("Speed          set to " + speedName);
+        log.info("Frame skip     set to " + frameSkipName);
+        log.info("Play movie     set to " + playPath);
+        log.info("Record movie   set to " + recordPath);
+        log.info("Bench frames   set to " + benchFrames);
+        log.info("Profile opcodes set to " + profileOpcodes);
+        log.info("Hotspots       set to " + hotspotPath);
         log.info("==============================");
 
+        if (libraryPath != null) {
+            System.exit(scanLibrary(Paths.get(libraryPath), log) ? 0 : 1);
+        }
+        if (loadAllPath != null) {
+            System.exit(loadAll(Paths.get(loadAllPath), log) ? 0 : 1);
+        }
 
         // cpu_instrs
         //Cartridge cart = new Cartridge("src/test/resources/gb-test-roms/cpu_instrs/cpu_instrs.gb", true);
@@ -101,7 +163,15 @@ public class Main {
         // Games
         //Cartridge cart = new Cartridge("src/main/resources/tetris.gb", true);
         //Cartridge cart = new Cartridge("src/main/resources/drmario.gb", true);
-        Cartridge cart = new Cartridge("src/main/resources/pokebluejp.gb", true);
+        Cartridge cart;
+        try {
+            cart = new Cartridge(romPath != null ? romPath : "src/main/resources/pokebluejp.gb", true);
+        }
+        catch (UncheckedIOException | IllegalArgumentException ex) {
+            log.error("can't load rom: " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
         //Cartridge cart = new Cartridge("src/main/resources/mario.gb", true);
         //Cartridge cart = new Cartridge("src/main/resources/Final Fantasy Legend III (USA).gb", true);
         //Cartridge cart = new Cartridge("src/main/resources/Legend of Zelda, The - Link's Awakening (V1.2) (U) [!].gb", true);
@@ -111,18 +181,234 @@ public class Main {
             return;
         }
 
+        if (playPath != null) {
+            System.exit(playMovie(cart, Paths.get(playPath), log) ? 0 : 1);
+        }
+        if (benchFrames > 0) {
+            // profile the measured frames only, warm-up runs on a fork
+            Consumer<Machine> profilers = machine -> attachProfilers(machine, profileOpcodes, hotspotPath, symbolPath, log);
+            System.exit(bench(cart, moviePath, warmupFrames, benchFrames, benchOutPath, profilers, log) ? 0 : 1);
+        }
+
+        FramePacer pacer;
+        FrameSkip frameSkip;
+        try {
+            pacer = new FramePacer(FramePacer.Speed.parse(speedName));
+            frameSkip = FrameSkip.parse(frameSkipName);
+        }
+        catch (IllegalArgumentException ex) {
+            log.error(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
         if (!disableAcceleration) {
             System.setProperty("sun.java2d.opengl", "true");
         }
         log.info("\"sun.java2d.opengl\" set to " + System.getProperty("sun.java2d.opengl"));
 
-        MbcManager mbc = new MbcManager(cart);
-        Gpu gpu = new Gpu();
-        MemoryManager mmu = new MemoryManager(mbc, gpu);
-        Cpu cpu = new Cpu(mmu, gpu);
+        Machine machine = new Machine(cart);
+        if (skipBootrom || recordPath != null) {
+            BootStateCache.getDefault().boot(machine);
+        }
+        if (recordPath == null) { // movies start from empty cartridge ram
+            enableBatterySave(machine, log);
+        }
+        attachProfilers(machine, profileOpcodes, hotspotPath, symbolPath, log);
+        MetricsRegistry.getInstance().register(machine);
+
+        // the window closing exits the jvm, so the pacing report is printed from a shutdown hook
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info(pacer.getReport());
+            log.info("frame skip " + frameSkip + ": " + frameSkip.getRenderedFrames() + " frames rendered, "
+                    + frameSkip.getSkippedFrames() + " skipped");
+        }));
 
         // go
-        cpu.main();
+        if (recordPath != null) {
+            recordMovie(machine, pacer, frameSkip, Paths.get(recordPath), log);
+        }
+        else if (runAheadFrames > 0) {
+            new RunAhead(machine, runAheadFrames).run(pacer, frameSkip);
+        }
+        else {
+            machine.run(pacer, frameSkip);
+        }
+    }
+
+    private static void enableBatterySave(Machine machine, Logger log) {
+        Path file = BatterySave.savePathFor(machine.getCartridge().getPath());
+        try {
+            if (machine.getMbc().enableBatterySave(file) != null) {
+                log.info("battery ram saved to " + file);
+            }
+        }
+        catch (IOException ex) {
+            log.error("couldn't open save file " + file + ", progress won't be saved: " + ex);
+        }
+    }
+
+    private static void attachProfilers(Machine machine, boolean profileOpcodes, String hotspotPath,
+                                        String symbolPath, Logger log) {
+        // the window closing exits the jvm, so the reports are written from shutdown hooks
+        if (profileOpcodes) {
+            OpcodeProfiler profiler = new OpcodeProfiler();
+            machine.getCpu().setProfiler(profiler);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(profiler.getReport(40))));
+        }
+        if (hotspotPath != null) {
+            HotspotProfiler hotspots = new HotspotProfiler();
+            Path symbols = symbolPath != null ? Paths.get(symbolPath)
+                    : HotspotProfiler.symbolPathFor(machine.getCartridge().getPath());
+            if (symbolPath != null || Files.isRegularFile(symbols)) {
+                try {
+                    hotspots.loadSymbols(symbols);
+                    log.info("symbols loaded from " + symbols);
+                }
+                catch (IOException ex) {
+                    log.error("couldn't read symbols " + symbols + ": " + ex);
+                }
+            }
+            machine.getCpu().setHotspotProfiler(hotspots);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.print(hotspots.getReport(40));
+                try {
+                    hotspots.writeFoldedStacks(Paths.get(hotspotPath));
+                    log.info("folded stacks written to " + hotspotPath);
+                }
+                catch (IOException ex) {
+                    log.error("couldn't write hotspots " + hotspotPath + ": " + ex);
+                }
+            }));
+        }
+    }
+
+    private static boolean scanLibrary(Path root, Logger log) {
+        try {
+            RomLibrary library = RomLibrary.getDefault();
+            System.out.println(root + ": " + library.scan(root));
+            System.out.println(library.getEntries().size() + " roms in the library");
+            return true;
+        }
+        catch (IOException | UncheckedIOException ex) {
+            log.error("can't index " + root + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean loadAll(Path root, Logger log) {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).filter(RomLoader::isLoadable).collect(Collectors.toList());
+        }
+        catch (IOException | UncheckedIOException ex) {
+            log.error("can't list " + root + ": " + ex.getMessage());
+            return false;
+        }
+
+        long start = System.nanoTime();
+        long failed = files.parallelStream().filter(file -> {
+            try {
+                RomLoader.load(file);
+                return false;
+            }
+            catch (UncheckedIOException | IllegalArgumentException ex) {
+                log.warning(ex.getMessage());
+                return true;
+            }
+        }).count();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(RomLoader.getReport());
+        System.out.println(String.format("%d files in %.3f s wall clock, %.0f roms/s, %d failed",
+                files.size(), seconds, RomLoader.getLoadCount() / seconds, failed));
+        return failed == 0;
+    }
+
+    private static boolean playMovie(Cartridge cart, Path file, Logger log) {
+        try {
+            MoviePlayer.Result result = new MoviePlayer(cart, Movie.read(file)).play();
+            System.out.println(file + ": " + result);
+            return result.matches();
+        }
+        catch (IOException | IllegalArgumentException ex) {
+            log.error("can't play " + file + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean bench(Cartridge cart, String moviePath, int warmupFrames, int frames,
+                                 String outPath, Consumer<Machine> profilers, Logger log) {
+        try {
+            Movie movie = moviePath != null ? Movie.read(Paths.get(moviePath)) : null;
+            RomBench bench = new RomBench(cart, movie);
+            profilers.accept(bench.getMachine());
+            RomBench.Result result = bench.run(warmupFrames, frames);
+            System.out.println(result);
+            if (outPath != null) {
+                result.write(Paths.get(outPath));
+            }
+            return true;
+        }
+        catch (IOException | IllegalArgumentException ex) {
+            log.error("can't bench: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private static void recordMovie(Machine machine, FramePacer pacer, FrameSkip frameSkip, Path file, Logger log) {
+        MovieRecorder recorder = new MovieRecorder(machine);
+
+        // the window closing exits the jvm, save whatever was recorded up to then
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Movie movie = recorder.toMovie();
+            try {
+                movie.write(file);
+                log.info("recorded " + movie.getFrameCount() + " frames to " + file);
+            }
+            catch (IOException ex) {
+                log.error("couldn't write movie " + file + ": " + ex);
+            }
+        }));
+
+        while (!machine.getCpu().paused) {
+            machine.setRenderFrames(frameSkip.renderNext(pacer));
+            recorder.recordFrame();
+            machine.frameCommitted();
+            machine.pace(pacer);
+        }
+    }
+
+    private static String stringOption(List<String> argsList, String shortName, String longName, String defaultValue) {
+        int index = Math.max(argsList.indexOf(shortName), argsList.indexOf(longName));
+        if (index < 0 || index + 1 >= argsList.size()) {
+            return defaultValue;
+        }
+        return argsList.get(index + 1);
+    }
+
+    /**
+     * A count given on the command line.
+     *
+     * @throws IllegalArgumentException if it isn't a number, or is negative
+     */
+    private static int intOption(List<String> argsList, String shortName, String longName, int defaultValue) {
+        int index = Math.max(argsList.indexOf(shortName), argsList.indexOf(longName));
+        if (index < 0 || index + 1 >= argsList.size()) {
+            return defaultValue;
+        }
+        String value = argsList.get(index + 1);
+        int count;
+        try {
+            count = Integer.parseInt(value);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(shortName + " needs a number, not " + value);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException(shortName + " can't be negative, was " + count);
+        }
+        return count;
     }
 }
 
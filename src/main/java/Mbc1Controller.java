@@ -0,0 +1,116 @@
+import helpers.StateBuffer;
+
+/**
+ * MBC1: up to 2MB of rom and 32KB of ram. The two bit register at 0x4000 holds either
+ * rom bank bits 5-6 or the ram bank, depending on the mode set at 0x6000.
+ */
+final class Mbc1Controller implements BankController {
+    private final int romBankMask;
+    private final int ramBankMask;
+
+    private int romBankSelected = 1;
+    private int ramBankSelected = 0;
+    private boolean ramEnabled;
+    private boolean isRomMode = true;
+
+    private int romXOffset = 0x4000;
+    private int ramOffset = RAM_UNMAPPED;
+
+    Mbc1Controller(int romBanks, int ramBanks) {
+        this.romBankMask = romBanks - 1;
+        this.ramBankMask = ramBanks - 1;
+    }
+
+    private Mbc1Controller(Mbc1Controller other) {
+        this.romBankMask = other.romBankMask;
+        this.ramBankMask = other.ramBankMask;
+        this.romBankSelected = other.romBankSelected;
+        this.ramBankSelected = other.ramBankSelected;
+        this.ramEnabled = other.ramEnabled;
+        this.isRomMode = other.isRomMode;
+        updateOffsets();
+    }
+
+    @Override
+    public int rom0Offset() {
+        return 0;
+    }
+
+    @Override
+    public int romXOffset() {
+        return romXOffset;
+    }
+
+    @Override
+    public int ramOffset() {
+        return ramOffset;
+    }
+
+    @Override
+    public void writeRegister(int address, int value) {
+        if (address <= 0x1FFF) {
+            // lower 4 bits == 0xA means enable. Anything else disable.
+            ramEnabled = ((value & 0b0000_1111) == 0xA);
+        }
+        else if (address <= 0x3FFF) {
+            // write the lower 5 bits of romBank selection
+            romBankSelected = (value & 0b0001_1111);
+            if (romBankSelected == 0) {
+                romBankSelected++;
+            }
+        }
+        else if (address <= 0x5FFF) {
+            if (isRomMode) {
+                romBankSelected &= 0b0001_1111; // clear bits 5 and 6
+                romBankSelected |= (value & 0b0000_0011) << 5; // replace bits 1 and 2 from value
+                if (romBankSelected == 0 ||
+                        romBankSelected == 0x20 ||
+                        romBankSelected == 0x40 ||
+                        romBankSelected == 0x60) {
+                    romBankSelected++;
+                }
+            }
+            else {
+                ramBankSelected = (value & 0b0000_0011); // select a bank from 0 to 3
+            }
+        }
+        else {
+            isRomMode = (value == 0); // 0=rom, 1=ram
+
+            if (isRomMode) {
+                ramBankSelected = 0;
+            }
+            else {
+                romBankSelected &= 0b0001_1111;
+            }
+        }
+        updateOffsets();
+    }
+
+    private void updateOffsets() {
+        romXOffset = (romBankSelected & romBankMask) << 14;
+        ramOffset = ramEnabled ? (ramBankSelected & ramBankMask) << 13 : RAM_UNMAPPED;
+    }
+
+    @Override
+    public BankController fork() {
+        return new Mbc1Controller(this);
+    }
+
+    @Override
+    public void saveState(StateBuffer out) {
+        out.writeInt(romBankSelected);
+        out.writeInt(ramBankSelected);
+        out.writeBoolean(ramEnabled);
+        out.writeBoolean(isRomMode);
+    }
+
+    @Override
+    public void loadState(StateBuffer in) {
+        romBankSelected = in.readInt();
+        ramBankSelected = in.readInt();
+        ramEnabled = in.readBoolean();
+        isRomMode = in.readBoolean();
+        updateOffsets();
+    }
+}
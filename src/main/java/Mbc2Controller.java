@@ -0,0 +1,75 @@
+import helpers.StateBuffer;
+
+/**
+ * MBC2: up to 256KB of rom and 512x4 bits of ram inside the controller. The ram enable
+ * and rom bank registers share 0x0000-0x3FFF and are told apart by address bit 8.
+ */
+final class Mbc2Controller implements BankController {
+    private final int romBankMask;
+
+    private int romBankSelected = 1;
+    private boolean ramEnabled;
+
+    private int romXOffset = 0x4000;
+
+    Mbc2Controller(int romBanks) {
+        this.romBankMask = romBanks - 1;
+    }
+
+    private Mbc2Controller(Mbc2Controller other) {
+        this.romBankMask = other.romBankMask;
+        this.romBankSelected = other.romBankSelected;
+        this.ramEnabled = other.ramEnabled;
+        this.romXOffset = other.romXOffset;
+    }
+
+    @Override
+    public int rom0Offset() {
+        return 0;
+    }
+
+    @Override
+    public int romXOffset() {
+        return romXOffset;
+    }
+
+    @Override
+    public int ramOffset() {
+        return ramEnabled ? 0 : RAM_UNMAPPED;
+    }
+
+    @Override
+    public void writeRegister(int address, int value) {
+        if (address > 0x3FFF) {
+            return;
+        }
+        if ((address & 0x0100) == 0) {
+            ramEnabled = ((value & 0b0000_1111) == 0xA);
+        }
+        else {
+            romBankSelected = (value & 0b0000_1111);
+            if (romBankSelected == 0) {
+                romBankSelected++;
+            }
+            romXOffset = (romBankSelected & romBankMask) << 14;
+        }
+    }
+
+    @Override
+    public BankController fork() {
+        return new Mbc2Controller(this);
+    }
+
+    @Override
+    public void saveState(StateBuffer out) {
+        out.writeInt(romBankSelected);
+        out.writeBoolean(ramEnabled);
+    }
+
+    @Override
+    public void loadState(StateBuffer in) {
+        romBankSelected = in.readInt();
+        ramEnabled = in.readBoolean();
+        romXOffset = (romBankSelected & romBankMask) << 14;
+    }
+}
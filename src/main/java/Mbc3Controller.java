@@ -0,0 +1,127 @@
+import helpers.StateBuffer;
+
+/**
+ * MBC3: up to 2MB of rom, 32KB of ram and, on some carts, a real-time clock whose
+ * registers are mapped at 0xA000-0xBFFF in place of a ram bank.
+ */
+final class Mbc3Controller implements BankController {
+    private final int romBankMask;
+    private final int ramBankMask;
+    private final RealTimeClock clock; // null if the cart has no timer
+
+    private int romBankSelected = 1;
+    private int ramBankSelected = 0;
+    private int clockRegisterSelected = -1; // -1 = a ram bank is mapped, not a clock register
+    private boolean ramEnabled; // also enables the clock registers
+
+    private int romXOffset = 0x4000;
+    private int ramOffset = RAM_UNMAPPED;
+
+    Mbc3Controller(int romBanks, int ramBanks, RealTimeClock clock) {
+        this.romBankMask = romBanks - 1;
+        this.ramBankMask = ramBanks - 1;
+        this.clock = clock;
+    }
+
+    private Mbc3Controller(Mbc3Controller other) {
+        this.romBankMask = other.romBankMask;
+        this.ramBankMask = other.ramBankMask;
+        this.clock = other.clock != null ? other.clock.fork() : null;
+        this.romBankSelected = other.romBankSelected;
+        this.ramBankSelected = other.ramBankSelected;
+        this.clockRegisterSelected = other.clockRegisterSelected;
+        this.ramEnabled = other.ramEnabled;
+        updateOffsets();
+    }
+
+    @Override
+    public int rom0Offset() {
+        return 0;
+    }
+
+    @Override
+    public int romXOffset() {
+        return romXOffset;
+    }
+
+    @Override
+    public int ramOffset() {
+        return ramOffset;
+    }
+
+    @Override
+    public void writeRegister(int address, int value) {
+        if (address <= 0x1FFF) {
+            ramEnabled = ((value & 0b0000_1111) == 0xA);
+        }
+        else if (address <= 0x3FFF) {
+            romBankSelected = (value & 0b0111_1111);
+            if (romBankSelected == 0) {
+                romBankSelected++;
+            }
+        }
+        else if (address <= 0x5FFF) {
+            if (value <= 0x03) {
+                ramBankSelected = value;
+                clockRegisterSelected = -1;
+            }
+            else if (value >= 0x08 && value <= 0x0C && clock != null) {
+                clockRegisterSelected = value - 0x08;
+            }
+        }
+        else if (clock != null) {
+            clock.latch(value);
+        }
+        updateOffsets();
+    }
+
+    private void updateOffsets() {
+        romXOffset = (romBankSelected & romBankMask) << 14;
+        ramOffset = (ramEnabled && clockRegisterSelected < 0) ? (ramBankSelected & ramBankMask) << 13 : RAM_UNMAPPED;
+    }
+
+    @Override
+    public int readUnmapped() {
+        return (ramEnabled && clockRegisterSelected >= 0) ? clock.read(clockRegisterSelected) : 0xFF;
+    }
+
+    @Override
+    public void writeUnmapped(int value) {
+        if (ramEnabled && clockRegisterSelected >= 0) {
+            clock.write(clockRegisterSelected, value);
+        }
+    }
+
+    @Override
+    public RealTimeClock getClock() {
+        return clock;
+    }
+
+    @Override
+    public BankController fork() {
+        return new Mbc3Controller(this);
+    }
+
+    @Override
+    public void saveState(StateBuffer out) {
+        out.writeInt(romBankSelected);
+        out.writeInt(ramBankSelected);
+        out.writeInt(clockRegisterSelected);
+        out.writeBoolean(ramEnabled);
+        if (clock != null) {
+            clock.saveState(out);
+        }
+    }
+
+    @Override
+    public void loadState(StateBuffer in) {
+        romBankSelected = in.readInt();
+        ramBankSelected = in.readInt();
+        clockRegisterSelected = in.readInt();
+        ramEnabled = in.readBoolean();
+        if (clock != null) {
+            clock.loadState(in);
+        }
+        updateOffsets();
+    }
+}
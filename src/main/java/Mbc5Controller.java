@@ -0,0 +1,106 @@
+import helpers.StateBuffer;
+
+/**
+ * MBC5: up to 8MB of rom through a 9 bit bank number, where bank 0 really is bank 0,
+ * and 128KB of ram in 16 banks. On rumble carts bit 3 of the ram bank drives the motor.
+ */
+final class Mbc5Controller implements BankController {
+    private final int romBankMask;
+    private final int ramBankMask;
+    private final boolean hasRumble;
+
+    private int romBankSelected = 1;
+    private int ramBankSelected = 0;
+    private boolean ramEnabled;
+    private boolean rumbling;
+
+    private int romXOffset = 0x4000;
+    private int ramOffset = RAM_UNMAPPED;
+
+    Mbc5Controller(int romBanks, int ramBanks, boolean hasRumble) {
+        this.romBankMask = romBanks - 1;
+        this.ramBankMask = ramBanks - 1;
+        this.hasRumble = hasRumble;
+    }
+
+    private Mbc5Controller(Mbc5Controller other) {
+        this.romBankMask = other.romBankMask;
+        this.ramBankMask = other.ramBankMask;
+        this.hasRumble = other.hasRumble;
+        this.romBankSelected = other.romBankSelected;
+        this.ramBankSelected = other.ramBankSelected;
+        this.ramEnabled = other.ramEnabled;
+        this.rumbling = other.rumbling;
+        updateOffsets();
+    }
+
+    @Override
+    public int rom0Offset() {
+        return 0;
+    }
+
+    @Override
+    public int romXOffset() {
+        return romXOffset;
+    }
+
+    @Override
+    public int ramOffset() {
+        return ramOffset;
+    }
+
+    @Override
+    public void writeRegister(int address, int value) {
+        if (address <= 0x1FFF) {
+            ramEnabled = (value == 0x0A);
+        }
+        else if (address <= 0x2FFF) {
+            romBankSelected = (romBankSelected & 0x100) | value;
+        }
+        else if (address <= 0x3FFF) {
+            romBankSelected = (romBankSelected & 0xFF) | ((value & 0b0000_0001) << 8);
+        }
+        else if (address <= 0x5FFF) {
+            if (hasRumble) {
+                rumbling = (value & 0b0000_1000) != 0;
+                ramBankSelected = (value & 0b0000_0111);
+            }
+            else {
+                ramBankSelected = (value & 0b0000_1111);
+            }
+        }
+        updateOffsets();
+    }
+
+    private void updateOffsets() {
+        romXOffset = (romBankSelected & romBankMask) << 14;
+        ramOffset = ramEnabled ? (ramBankSelected & ramBankMask) << 13 : RAM_UNMAPPED;
+    }
+
+    @Override
+    public boolean isRumbling() {
+        return rumbling;
+    }
+
+    @Override
+    public BankController fork() {
+        return new Mbc5Controller(this);
+    }
+
+    @Override
+    public void saveState(StateBuffer out) {
+        out.writeInt(romBankSelected);
+        out.writeInt(ramBankSelected);
+        out.writeBoolean(ramEnabled);
+        out.writeBoolean(rumbling);
+    }
+
+    @Override
+    public void loadState(StateBuffer in) {
+        romBankSelected = in.readInt();
+        ramBankSelected = in.readInt();
+        ramEnabled = in.readBoolean();
+        rumbling = in.readBoolean();
+        updateOffsets();
+    }
+}
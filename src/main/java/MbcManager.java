@@ -1,5 +1,10 @@
 import helpers.Logger;
+import helpers.PagedMemory;
+import helpers.StateBuffer;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -63,13 +68,13 @@ public class MbcManager {
         cartridgeTypes.put(0x11, new CartridgeType(0x11, "MBC3",                    MbcType.MBC3, false, false, false, false, false));
         cartridgeTypes.put(0x12, new CartridgeType(0x12, "MBC3 + RAM",              MbcType.MBC3, true, false, false, false, false));
         cartridgeTypes.put(0x13, new CartridgeType(0x13, "MBC3 + RAM + Battery",    MbcType.MBC3, true, true, false, false, false));
-        /*cartridgeTypes.put(0x19, new CartridgeType(0x19, "MBC5"));
-        cartridgeTypes.put(0x1A, new CartridgeType(0x1A, "MBC5 + RAM"));
-        cartridgeTypes.put(0x1B, new CartridgeType(0x1B, "MBC5 + RAM + Battery"));
-        cartridgeTypes.put(0x1C, new CartridgeType(0x1C, "MBC5 + Rumble"));
-        cartridgeTypes.put(0x1D, new CartridgeType(0x1D, "MBC5 + RAM + Rumble"));
-        cartridgeTypes.put(0x1E, new CartridgeType(0x1E, "MBC5 + RAM + Battery + Rumble"));
-        cartridgeTypes.put(0x20, new CartridgeType(0x20, "MBC6 + RAM + Battery"));
+        cartridgeTypes.put(0x19, new CartridgeType(0x19, "MBC5",                    MbcType.MBC5, false, false, false, false, false));
+        cartridgeTypes.put(0x1A, new CartridgeType(0x1A, "MBC5 + RAM",              MbcType.MBC5, true, false, false, false, false));
+        cartridgeTypes.put(0x1B, new CartridgeType(0x1B, "MBC5 + RAM + Battery",    MbcType.MBC5, true, true, false, false, false));
+        cartridgeTypes.put(0x1C, new CartridgeType(0x1C, "MBC5 + Rumble",           MbcType.MBC5, false, false, false, true, false));
+        cartridgeTypes.put(0x1D, new CartridgeType(0x1D, "MBC5 + RAM + Rumble",     MbcType.MBC5, true, false, false, true, false));
+        cartridgeTypes.put(0x1E, new CartridgeType(0x1E, "MBC5 + RAM + Battery + Rumble", MbcType.MBC5, true, true, false, true, false));
+        /*cartridgeTypes.put(0x20, new CartridgeType(0x20, "MBC6 + RAM + Battery"));
         cartridgeTypes.put(0x21, new CartridgeType(0x21, "Unused"));
         cartridgeTypes.put(0x22, new CartridgeType(0x22, "MBC7 + RAM + Bat. + Accelerometer"));
         cartridgeTypes.put(0xFC, new CartridgeType(0xFC, "POCKET CAMERA"));
@@ -79,136 +84,211 @@ public class MbcManager {
     }
 
     private final Cartridge cart;
-    private final MbcType mbcType;
-    private int romBankSelected = 1;
-    private boolean ramEnabled;
-    private int ramBankSelected = 0;
-    private boolean isRomMode = true;
+    private final BankController banks;
     private final boolean hasRam;
     private final boolean hasBattery;
-    private final boolean hasTimer;
-    private int[] ram;
+    private PagedMemory ram;
+    private final int ramAddressMask; // small ram (2KB, MBC2's 512 nibbles) is mirrored across 0xA000-0xBFFF
+    private final int ramUnusedBits;  // MBC2 ram is 4 bits wide, the upper bits read as 1s
+    private BatterySave batterySave; // null unless the ram is persisted, see enableBatterySave()
+    private long bankSwitches; // see getBankSwitchCount()
 
     MbcManager(Cartridge cart) {
         this.cart = cart;
-        this.mbcType    = cart.getCartridgeType().mbcType;
-        this.hasRam     = cart.getCartridgeType().hasRam && (cart.getRamSize() != 0);
-        this.hasBattery = cart.getCartridgeType().hasBattery;
-        this.hasTimer   = cart.getCartridgeType().hasTimer;
-        this.ram        = new int[cart.getRamSize()];
-        for(int i : ram) {
-            i = 0xFF;
+        CartridgeType type = cart.getCartridgeType();
+        this.hasBattery = type.hasBattery;
+
+        int ramSize;
+        if (type.mbcType == MbcType.MBC2) {
+            // the 512x4 bit ram is inside the mbc, the header always says there is none
+            ramSize = 0x200;
+            this.hasRam = true;
+            this.ramUnusedBits = 0xF0;
+        }
+        else {
+            ramSize = cart.getRamSize();
+            this.hasRam = type.hasRam && (ramSize != 0);
+            this.ramUnusedBits = 0;
+        }
+        this.ram = new PagedMemory(ramSize);
+        this.ramAddressMask = Math.max(1, Math.min(ramSize, 0x2000)) - 1;
+
+        // bank numbers are masked to what the cart really has, sizes are powers of two
+        int romBanks = Math.max(2, cart.getRomSize() >> 14);
+        int ramBanks = Math.max(1, ramSize >> 13);
+        switch (type.mbcType) {
+            case ROM_ONLY:
+                this.banks = new RomOnlyController();
+                break;
+            case MBC1:
+                this.banks = new Mbc1Controller(romBanks, ramBanks);
+                break;
+            case MBC2:
+                this.banks = new Mbc2Controller(romBanks);
+                break;
+            case MBC3:
+                this.banks = new Mbc3Controller(romBanks, ramBanks, type.hasTimer ? new RealTimeClock() : null);
+                break;
+            case MBC5:
+                this.banks = new Mbc5Controller(romBanks, ramBanks, type.hasRumble);
+                break;
+            default:
+                throw new IllegalArgumentException(type.mbcType.name() + " is not implemented yet");
         }
     }
     MbcManager(Cartridge cart, Logger.Level logLevel) {
         this(cart);
         this.log = new Logger(name, logLevel);
     }
+    private MbcManager(MbcManager other) {
+        this.log = other.log;
+        this.cart = other.cart; // rom contents are never written, so the cartridge itself is shared
+        this.banks = other.banks.fork();
+        this.hasRam = other.hasRam;
+        this.hasBattery = other.hasBattery;
+        this.ram = other.ram.fork();
+        this.ramAddressMask = other.ramAddressMask;
+        this.ramUnusedBits = other.ramUnusedBits;
+        // forks are speculative, only the original writes the save file
+    }
+
+    /**
+     * Copy of this controller whose cartridge RAM is shared copy-on-write with this one.
+     */
+    MbcManager fork() {
+        return new MbcManager(this);
+    }
+
+    /**
+     * Loads cartridge RAM from the given save file and keeps the file up to date from now on.
+     *
+     * @return the save file, or null if the cartridge has no battery-backed RAM or clock
+     */
+    BatterySave enableBatterySave(Path file) throws IOException {
+        RealTimeClock clock = banks.getClock();
+        if (!hasBattery || !(hasRam || clock != null)) {
+            return null;
+        }
+        batterySave = BatterySave.open(file, ram, clock);
+        return batterySave;
+    }
+
+    void digestRam(MessageDigest md) {
+        ram.digest(md);
+    }
+
+    void saveState(StateBuffer out) {
+        banks.saveState(out);
+        out.writeMemory(ram);
+    }
+    void loadState(StateBuffer in) {
+        banks.loadState(in);
+        in.readMemory(ram);
+        if (batterySave != null) {
+            batterySave.markChanged();
+        }
+    }
+
+    /**
+     * Whether the frames now running will be rolled back, so the save file must not see them.
+     */
+    void setSpeculating(boolean speculating) {
+        if (batterySave != null) {
+            batterySave.setSpeculating(speculating);
+        }
+    }
+
+    /**
+     * Whether an MBC5 rumble cart currently has its motor on.
+     */
+    public boolean isRumbling() {
+        return banks.isRumbling();
+    }
+
+    /**
+     * The bank switching state, for the memory map to read rom through directly.
+     */
+    BankController getBankController() {
+        return banks;
+    }
+
+    Cartridge getCartridge() {
+        return cart;
+    }
 
     public int mbcRead(final int address) {
-        switch (mbcType) {
-            case ROM_ONLY:
-                return cart.readFromAddress(address);
-            case MBC1:
-                if (address < 0x4000) {
-                    return cart.readFromAddress(address);
-                }
-                else if (address < 0x8000){
-                    int effectiveAddress = (romBankSelected * 0x4000) + (address - 0x4000);
-                    return cart.readFromAddress(effectiveAddress);
-                }
-                else if (address >= 0xA000 && address <= 0xBFFF) {
-                    if (!ramEnabled || !hasRam) {
-                        return 0xFF;
-                    }
-                    else if (ramBankSelected == 0) {
-                        log.debug(String.format("read from effective address 0x%04X, array 0x%04X", address, address - 0xA000));
-                        return ram[address - 0xA000];
-                    }
-                    else {
-                        int effectiveAddress = ((ramBankSelected * 0x2000) + (address - 0xA000));
-                        log.debug(String.format("read from effective address 0x%04X, array 0x%04X", address, effectiveAddress));
-                        return ram[effectiveAddress];
-                    }
-                }
-                else {
-                    log.error(String.format("mbcRead() at address 0x%04X is not supported", address));
-                }
-            default:
-                log.warning(mbcType.name() + " is not implemented yet. Reading from provided address");
-                return cart.readFromAddress(address);
+        if (address < 0x4000) {
+            return cart.readFromAddress(banks.rom0Offset() + address);
         }
+        else if (address < 0x8000) {
+            return cart.readFromAddress(banks.romXOffset() + (address - 0x4000));
+        }
+        else if (address >= 0xA000 && address <= 0xBFFF) {
+            return readRam(address);
+        }
+        log.error(String.format("mbcRead() at address 0x%04X is not supported", address));
+        return 0xFF;
     }
 
-    public void mbcWrite(final int address, final int value) {
-        switch (mbcType) {
-            case ROM_ONLY:
-                log.debug("Cartridge is ROM_ONLY so writing to ROM won't do anything");
-                break;
-            case MBC1:
+    int readRam(final int address) {
+        int offset = banks.ramOffset();
+        if (offset == BankController.RAM_UNMAPPED) {
+            return banks.readUnmapped();
+        }
+        else if (!hasRam) {
+            return 0xFF;
+        }
+        return ram.read(offset + ((address - 0xA000) & ramAddressMask)) | ramUnusedBits;
+    }
 
-                if (address <= 0x1FFF) {
-                    // lower 4 bits == 0xA means enable. Anything else disable.
-                    ramEnabled = ((value & 0b0000_1111) == 0xA);
-                    log.debug("ram enabled set to " + ramEnabled);
-                }
-                else if (address <= 0x3FFF) {
-                    // write the lower 5 bits of romBank selection
-                    romBankSelected = (value & 0b0001_1111);
-                    log.debug(String.format("selected 0x%02X for rom bank low", romBankSelected));
-
-                    if (romBankSelected == 0) {
-                        romBankSelected++;
-                    }
-                }
-                else if (address <= 0x5FFF) {
-                    if (isRomMode) {
-                        romBankSelected &= 0b0001_1111; // clear bits 5 and 6
-                        romBankSelected |= (value & 0b0000_0011) << 5; // replace bits 1 and 2 from value
-                        log.debug("selected " + romBankSelected + " for rom bank high");
-                        if (romBankSelected == 0 ||
-                                romBankSelected == 0x20 ||
-                                romBankSelected == 0x40 ||
-                                romBankSelected == 0x60) {
-                            romBankSelected++;
-                        }
-                    }
-                    else {
-                        ramBankSelected = (value & 0b0000_0011); // select a bank from 0 to 3
-                        log.debug("selected ram bank " + ramBankSelected);
-                    }
+    public void mbcWrite(final int address, final int value) {
+        if (address >= 0xA000 && address <= 0xBFFF) {
+            writeRam(address, value);
+        }
+        else {
+            int romOffset = banks.romXOffset();
+            int ramOffset = banks.ramOffset();
+            banks.writeRegister(address, value);
+            if (romOffset != banks.romXOffset() || ramOffset != banks.ramOffset()) {
+                bankSwitches++;
+                FlightEvents.BankSwitch event = new FlightEvents.BankSwitch();
+                if (event.isEnabled()) {
+                    event.register = address;
+                    event.value = value;
+                    event.previousRomBank = romOffset >> 14;
+                    event.romBank = banks.romXOffset() >> 14;
+                    event.previousRamBank = ramOffset == BankController.RAM_UNMAPPED ? -1 : ramOffset >> 13;
+                    event.ramBank = ramBank();
+                    event.commit();
                 }
-                else if (address <= 0x7FFF) {
-                    isRomMode = (value == 0); // 0=rom, 1=ram
+            }
+        }
+    }
 
-                    if (isRomMode) {
-                        ramBankSelected = 0;
-                    }
-                    else {
-                        romBankSelected &= 0b0001_1111;
-                    }
+    /**
+     * Writes that changed the rom bank at 0x4000 or what's mapped at 0xA000, since this was
+     * created or forked. For MachineMetrics, not part of the state.
+     */
+    long getBankSwitchCount() {
+        return bankSwitches;
+    }
 
-                    log.debug("rom mode set to " + isRomMode);
-                }
-                else if (address <= 0xBFFF && address >= 0xA000) {
-                    if (!ramEnabled || !hasRam) {
-                        return;
-                    }
-                    else if (ramBankSelected == 0) {
-                        log.debug(String.format("write ram at effective address 0x%04X, array 0x%04X", address, address - 0xA000));
-                        ram[address - 0xA000] = value;
-                    }
-                    else {
-                        int effectiveAddress = ((ramBankSelected * 0x2000) + (address - 0xA000));
-                        log.debug(String.format("write ram at effective address 0x%04X, array 0x%04X", address, effectiveAddress));
-                        ram[effectiveAddress] = value;
-                    }
-                }
+    private int ramBank() {
+        int offset = banks.ramOffset();
+        return offset == BankController.RAM_UNMAPPED ? -1 : offset >> 13;
+    }
 
-                break;
-            default:
-                log.warning(mbcType.name() + " is not implemented yet. Rom write ignored.");
-                break;
+    private void writeRam(final int address, final int value) {
+        int offset = banks.ramOffset();
+        if (offset == BankController.RAM_UNMAPPED) {
+            banks.writeUnmapped(value);
+        }
+        else if (hasRam) {
+            int index = offset + ((address - 0xA000) & ramAddressMask);
+            ram.write(index, value & ~ramUnusedBits);
+            if (batterySave != null) {
+                batterySave.markDirty(index);
+            }
         }
     }
 }
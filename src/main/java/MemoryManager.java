@@ -1,7 +1,12 @@
 import helpers.Logger;
+import helpers.PagedMemory;
+import helpers.StateBuffer;
 
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Timer;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
 
 /**
  * Created by Pablo Canseco on 12/24/2017.
@@ -34,19 +39,54 @@ public class MemoryManager {
     }
 
     private MbcManager cartMbc;
+    private BankController banks; // cartMbc's, rom is read here directly
+    private int[] rom;
+    private int romMask;
     private Gpu gpu;
     public final int memorySize = 0xFFFF;
 
-    private int[] io   = new int[0x100];  // 256
-    private int[] oam  = new int[0x100];  // 256
-    private int[] wram = new int[0x2000]; // 8192
-    private int[] hram = new int[0x80];   // 128
+    private PagedMemory io;   // 256
+    private PagedMemory oam;  // 256
+    private PagedMemory wram; // 8192
+    private PagedMemory hram; // 128
 
     public boolean inBootrom = true;
 
+    // 0xFF00-0xFF7F: a reader and writer per register, installed by the devices that own them
+    private final IntSupplier[] ioReaders = new IntSupplier[0x80];
+    private final IntConsumer[] ioWriters = new IntConsumer[0x80];
+    private static final int[] IO_UNUSED_BITS = new int[0x80]; // bits that always read as 1
+    static {
+        IO_UNUSED_BITS[0x02] = 0b0111_1110;
+        IO_UNUSED_BITS[0x07] = 0b1111_1000;
+        IO_UNUSED_BITS[0x0f] = 0b1110_0000;
+        IO_UNUSED_BITS[0x10] = 0b1000_0000;
+        IO_UNUSED_BITS[0x1a] = 0b0111_1111;
+        IO_UNUSED_BITS[0x1c] = 0b1001_1111;
+        IO_UNUSED_BITS[0x20] = 0b1100_0000;
+        IO_UNUSED_BITS[0x23] = 0b0011_1111;
+        IO_UNUSED_BITS[0x26] = 0b0111_0000;
+        IO_UNUSED_BITS[0x41] = 0b1000_0000;
+        for (int unused : new int[] {0x03, 0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x15, 0x1f, 0x27, 0x28, 0x29}) {
+            IO_UNUSED_BITS[unused] = 0xff;
+        }
+        for (int unused = 0x4c; unused <= 0x7f; unused++) {
+            IO_UNUSED_BITS[unused] = 0xff;
+        }
+    }
+
+    private static final int DMA_LENGTH = 0xA0;  // bytes of OAM written by a transfer
+    private static final int DMA_CYCLES = 640;   // one byte per machine cycle
+    private long dmaEndCycle; // OAM is busy until the timer's cycle count reaches this
+
     MemoryManager(MbcManager cart, Gpu gpu) {
-        this.cartMbc = cart;
+        setCartridge(cart);
         this.gpu = gpu;
+        this.io   = new PagedMemory(0x100);
+        this.oam  = new PagedMemory(0x100);
+        this.wram = new PagedMemory(0x2000);
+        this.hram = new PagedMemory(0x80);
+        mapIoRegisters();
 
         //this.writeByte(0xff00, 0xcf);
     }
@@ -54,6 +94,96 @@ public class MemoryManager {
         this(cart, new Gpu(Logger.Level.FATAL));
         this.log = new Logger(this.getClass().getName(), Logger.Level.FATAL);
     }
+    private MemoryManager(MemoryManager other, MbcManager cart, Gpu gpu) {
+        setCartridge(cart);
+        this.gpu = gpu;
+        this.log = other.log;
+        this.io = other.io.fork();
+        this.oam = other.oam.fork();
+        this.wram = other.wram.fork();
+        this.hram = other.hram.fork();
+        this.inBootrom = other.inBootrom;
+        this.dmaEndCycle = other.dmaEndCycle;
+        mapIoRegisters();
+    }
+
+    /**
+     * Installs a register's handlers. A null reader reads as 0, apart from the unused bits.
+     */
+    void mapIo(final int address, final IntSupplier reader, final IntConsumer writer) {
+        ioReaders[address - 0xff00] = reader != null ? reader : () -> 0;
+        ioWriters[address - 0xff00] = writer;
+    }
+
+    private void mapIoRegisters() {
+        // by default a register just stores what's written (sound has no device yet) and reads as 0
+        for (int i = 0; i < 0x80; i++) {
+            final int index = i;
+            mapIo(0xff00 + i, null, value -> io.write(index, value));
+        }
+        for (int i = 0x10; i <= 0x3f; i++) { // sound
+            final int index = i;
+            mapIo(0xff00 + i, () -> io.read(index), value -> io.write(index, value));
+        }
+        mapIo(0xff01, null, value -> { // SERIAL
+            io.write(0x01, value);
+            System.out.print((char) value);
+        });
+        mapIo(0xff46, null, value -> startDma(value << 8));
+
+        Joypad.mapIo(this);
+        TimerService.mapIo(this);
+        InterruptManager.mapIo(this);
+        gpu.mapIo(this);
+    }
+
+    private void setCartridge(MbcManager cart) {
+        this.cartMbc = cart;
+        this.banks = cart.getBankController();
+        this.rom = cart.getCartridge().getRomData();
+        this.romMask = rom.length - 1;
+    }
+
+    /**
+     * Copy of this memory map wired to the given (already forked) cartridge and gpu.
+     * Memory pages are shared copy-on-write with this instance.
+     */
+    MemoryManager fork(MbcManager cart, Gpu gpu) {
+        return new MemoryManager(this, cart, gpu);
+    }
+
+    /**
+     * Number of the rom bank mapped at {@code address}, 0 outside 0x0000-0x7FFF.
+     */
+    int romBankAt(int address) {
+        if (address >= 0x8000) {
+            return 0;
+        }
+        int offset = address < 0x4000 ? banks.rom0Offset() : banks.romXOffset();
+        return (offset & romMask) >> 14;
+    }
+
+    void digestRam(MessageDigest md) {
+        wram.digest(md);
+        hram.digest(md);
+    }
+
+    void saveState(StateBuffer out) {
+        out.writeMemory(io);
+        out.writeMemory(oam);
+        out.writeMemory(wram);
+        out.writeMemory(hram);
+        out.writeBoolean(inBootrom);
+        out.writeLong(dmaEndCycle);
+    }
+    void loadState(StateBuffer in) {
+        in.readMemory(io);
+        in.readMemory(oam);
+        in.readMemory(wram);
+        in.readMemory(hram);
+        inBootrom = in.readBoolean();
+        dmaEndCycle = in.readLong();
+    }
 
     public int readByte(final int address) throws IndexOutOfBoundsException {
         if (isValidMemoryAddress(address)) {
@@ -71,89 +201,43 @@ public class MemoryManager {
                         log.fatal("DIV=" + div + " AT PC=0x100");
                     }
                 }
-                return cartMbc.mbcRead(address);
+                if (address < 0x4000) {
+                    return rom[(banks.rom0Offset() + address) & romMask];
+                }
+                return rom[(banks.romXOffset() + (address - 0x4000)) & romMask];
             }
             else if (address >= 0x8000 && address <= 0x9fff) {
-                return gpu.vram[address - 0x8000];
+                return gpu.vram.read(address - 0x8000);
             }
             else if (address >= 0xa000 && address <= 0xbfff) {
-                return cartMbc.mbcRead(address);
+                return cartMbc.readRam(address);
             }
             else if (address >= 0xc000 && address <= 0xdfff) {
-                return wram[address - 0xc000];
+                return wram.read(address - 0xc000);
             }
             else if (address >= 0xe000 && address <= 0xfdff) {
-                return wram[address - 0xe000];
+                return wram.read(address - 0xe000);
             }
             else if (address >= 0xfe00 && address <= 0xfeff) {
-                return oam[address - 0xfe00];
-            }
-            else if (address == 0xff40) {
-                return gpu.lcdControl.getLcdControl();
-            }
-            else if(address == 0xff41) {
-                return processUnusedBits(address, gpu.lcdStatus.getLcdStat());
-            }
-            else if (address == 0xff42) {
-                return gpu.scrollY;
-            }
-            else if (address == 0xff43) {
-                return gpu.scrollX;
-            }
-            else if (address == 0xff44) {
-                return gpu.line; // read only
+                if (isDmaActive()) {
+                    return 0xFF; // the dma owns the bus
+                }
+                return oam.read(address - 0xfe00);
             }
-            else if (address == 0xff45) {
-                return gpu.lyc;
+            else if (address <= 0xff7f) {
+                int index = address - 0xff00;
+                return ioReaders[index].getAsInt() | IO_UNUSED_BITS[index];
             }
-            else if (address == 0xff00) { // JOYPAD
-                return Joypad.getInstance().getKeysPressed();
+            else if (address == 0xffff) { // interrupt enable
+                return InterruptManager.getInstance().getInterruptsEnabled();
             }
-            else if (address >= 0xff01 && address <= 0xffff) {
-
-                // TIMER ADDRESSES
-                if (address == 0xff04) {
-                    return TimerService.getInstance().getDivider();
-                }
-                else if (address == 0xff05) {
-                    return TimerService.getInstance().getCounter();
-                }
-                else if (address == 0xff06) {
-                    return TimerService.getInstance().getModulo();
-                }
-                else if (address == 0xff07) { // timer control register
-                    return processUnusedBits(address, TimerService.getInstance().getControl());
-                }
-                // END TIMER ADDRESSES
-
-                else if (address == 0xff0f) { // interrupt flags
-                    int iflags = InterruptManager.getInstance().getInterruptsRaised();
-                    log.info("read the interrupt flags address, value = " + iflags);
-                    return processUnusedBits(address, iflags);
-                }
-                else if (address == 0xffff) { // interrupt enable
-                    int ie = InterruptManager.getInstance().getInterruptsEnabled();
-                    log.info("read the interrupt enable address, value = " + ie);
-                    return processUnusedBits(address, ie);
-                }
-                else if (address >= 0xff80 && address <= 0xfffe) {
-                    return processUnusedBits(address, hram[address - 0xff80]);
-                }
-
-                else if (address >= 0xff10 && address <= 0xff3f) { // sound hardware
-                    return processUnusedBits(address, io[address - 0xff10]);
-                }
-
-                else {
-                    return processUnusedBits(address, 0);
-                }
+            else {
+                return hram.read(address - 0xff80);
             }
         }
         else {
             throw new IndexOutOfBoundsException(address + " isn't a valid memory address.");
         }
-
-        return 0;
     }
     public void writeByte(final int address, final int value) throws IndexOutOfBoundsException, NumberFormatException {
         if (!isValidMemoryAddress(address)) {
@@ -172,7 +256,7 @@ public class MemoryManager {
             cartMbc.mbcWrite(address, value);
         }
         else if(address >= 0x8000 && address <= 0x9fff) {
-            gpu.vram[address - 0x8000] = value;
+            gpu.vram.write(address - 0x8000, value);
             if(address <= 0x97ff) {
                 gpu.updateTile(address);
                 log.debug(String.format("write %02x updateTile(address,%02x)", address, value));
@@ -180,88 +264,64 @@ public class MemoryManager {
         }
 
         if(address >= 0xc000 && address <= 0xdfff) {
-            wram[address - 0xc000] = value;
+            wram.write(address - 0xc000, value);
         }
         else if(address >= 0xe000 && address <= 0xfdff) {
-            wram[address - 0xe000] = value;
+            wram.write(address - 0xe000, value);
         }
         else if(address >= 0xfe00 && address <= 0xfeff) {
-            oam[address - 0xfe00] = value;
-            gpu.buildSprite(address - 0xfe00, value);
+            if (!isDmaActive()) {
+                oam.write(address - 0xfe00, value);
+                gpu.buildSprite(address - 0xfe00, value);
+            }
         }
         else if(address >= 0xff80 && address <= 0xfffe) {
-            hram[address - 0xff80] = value;
+            hram.write(address - 0xff80, value);
         }
         else if(address >= 0xff00 && address <= 0xff7f) {
-            if (address == 0xff00) { // JOYPAD
-                Joypad.getInstance().setJoypadMode(value);
-            }
-
-            else if(address == 0xff40) {
-                gpu.lcdControl.setLcdControl(value);
-            }
-            else if(address == 0xff41) {
-                gpu.lcdStatus.setLcdStat(value);
-            }
-            else if(address == 0xff42) {
-                gpu.scrollY = value;
-            }
-            else if(address == 0xff43) {
-                gpu.scrollX = value;
-            }
-            else if (address == 0xff45) {
-                gpu.lyc = value;
-            }
-            else if(address == 0xff46) {
-                log.debug("write " + address + "copy(0xfe00, value << 8, 160); // OAM DMA");
-                for(int i = 0; i < 160; i++) {
-                    writeByte(0xfe00 + i, readByte((value << 8) + i));
-                }
-            }
-            else if(address == 0xff47) { // background palette, write only
-                for(int i = 0; i < 4; i++) gpu.backgroundPalette[i] = gpu.palette[(value >> (i * 2)) & 3];
-            }
-            else if(address == 0xff48) { // sprite palette 0, write only
-                for(int i = 0; i < 4; i++) gpu.spritePalette[0][i] = gpu.palette[(value >> (i * 2)) & 3];
-            }
-            else if(address == 0xff49) { // sprite palette 1, write only
-                for(int i = 0; i < 4; i++) gpu.spritePalette[1][i] = gpu.palette[(value >> (i * 2)) & 3];
-            }
-            else if(address == 0xff0f) { // interrupt flags register
-                InterruptManager.getInstance().raiseInterrupt(value);
-            }
-
-            // TIMER ADDRESSES
-            else if(address == 0xff04) { // timer divider register
-                TimerService.getInstance().clearDivider();
-            }
-            else if (address == 0xff05) { // timer counter register
-                TimerService.getInstance().setCounter(value);
-            }
-            else if (address == 0xff06) { // timer modulo register
-                TimerService.getInstance().setModulo(value);
-            }
-            else if(address == 0xff07) { // timer control register
-                TimerService.getInstance().setControl(value);
-            }
-            // END TIMER ADDRESSES
-
-            else {
-                io[address - 0xff00] = value;
-            }
+            ioWriters[address - 0xff00].accept(value);
         }
         else if(address == 0xffff) { // interrupt enable register
             InterruptManager.getInstance().enableInterrupt(value);
             //log.info("write " + address + "=" + value + " : interrupt enable");
         }
+    }
 
+    /**
+     * OAM DMA. The copy is done up front in one go; what the hardware spreads over
+     * {@link #DMA_CYCLES} is modeled by keeping OAM off the cpu's bus until then.
+     */
+    private void startDma(final int source) {
+        int[] destination = oam.writablePage(0);
+        if (source <= 0x7fff && !inBootrom) {
+            int offset = source < 0x4000 ? banks.rom0Offset() + source : banks.romXOffset() + (source - 0x4000);
+            System.arraycopy(rom, offset & romMask, destination, 0, DMA_LENGTH);
+        }
+        else if (source >= 0x8000 && source <= 0x9fff) {
+            System.arraycopy(gpu.vram.page((source - 0x8000) >> PagedMemory.PAGE_BITS), 0, destination, 0, DMA_LENGTH);
+        }
+        else if (source >= 0xc000 && source <= 0xfdff) { // work ram and its echo
+            System.arraycopy(wram.page(((source - 0xc000) & 0x1fff) >> PagedMemory.PAGE_BITS), 0, destination, 0, DMA_LENGTH);
+        }
+        else {
+            dmaEndCycle = 0; // cartridge ram and the odd ones, read through the memory map
+            for (int i = 0; i < DMA_LENGTH; i++) {
+                destination[i] = readByte(source + i);
+            }
+        }
+        gpu.buildSprites(destination);
+        dmaEndCycle = TimerService.getInstance().getCycleCount() + DMA_CYCLES;
 
-        // hooks/intercepts
-        if (address == 0xFF01) { // SERIAL
-            System.out.print((char) value);
-            //if((char) value == '#') System.exit(1);
+        FlightEvents.OamDma event = new FlightEvents.OamDma();
+        if (event.isEnabled()) {
+            event.source = source;
+            event.cycles = DMA_CYCLES;
+            event.commit();
         }
+    }
 
+    private boolean isDmaActive() {
+        return TimerService.getInstance().getCycleCount() < dmaEndCycle;
     }
 
     public int readWord(final int address) throws IndexOutOfBoundsException {
@@ -292,50 +352,4 @@ public class MemoryManager {
         return true;
     }
 
-    private int processUnusedBits(int address, int value) {
-        //if (address == 0xff00) {
-        //    return value |= 0b1100_0000;
-        //}
-        /*else*/ if (address == 0xff02) {
-            return value |= 0b0111_1110;
-        }
-        else if (address == 0xff07) {
-            return value |= 0b1111_1000;
-        }
-        else if (address == 0xff0f) {
-            return value |= 0b1110_0000;
-        }
-        else if (address == 0xff41 || address == 0xff10) {
-            return value |= 0b1000_0000;
-        }
-        else if (address == 0xff1a) {
-            return value |= 0b0111_1111;
-        }
-        else if (address == 0xff1c) {
-            return value |= 0b1001_1111;
-        }
-        else if (address == 0xff20) {
-            return value |= 0b1100_0000;
-        }
-        else if (address == 0xff23) {
-            return value |= 0b0011_1111;
-        }
-        else if (address == 0xff26) {
-            return value |= 0b0111_0000;
-        }
-        else if (address == 0xff03 || address == 0xff08 ||
-                address == 0xff09 || address == 0xff0a ||
-                address == 0xff0b || address == 0xff0c ||
-                address == 0xff0d || address == 0xff0e ||
-                address == 0xff15 || address == 0xff1f ||
-                address == 0xff27 || address == 0xff28 ||
-                address == 0xff29 ||
-                (address >= 0xff4c && address <= 0xff7f)) {
-            return value |= 0b1111_1111;
-        }
-        else {
-            return value;
-        }
-    }
-
 }
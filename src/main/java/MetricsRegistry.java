@@ -0,0 +1,145 @@
+import helpers.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The machines whose {@link MachineMetrics} are shown over JMX, one javagb:type=Machine bean
+ * each, and itself the javagb:type=Machines bean that adds them all up. Forks and the
+ * machines behind run-ahead and benchmarks aren't registered unless someone asks.
+ * Any JMX client shows them, jconsole for one.
+ */
+public class MetricsRegistry implements MetricsRegistryMBean {
+    static final String DOMAIN = "javagb";
+
+    private static MetricsRegistry instance;
+
+    private final Logger log = new Logger("METRICS", Logger.Level.INFO);
+    private final MBeanServer server;
+    private final Map<MachineMetrics, ObjectName> machines = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    /**
+     * Registry on the platform MBean server.
+     */
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+        }
+        return instance;
+    }
+
+    MetricsRegistry(MBeanServer server) {
+        this.server = server;
+        try {
+            server.registerMBean(this, new ObjectName(DOMAIN + ":type=Machines"));
+        }
+        catch (JMException ex) {
+            log.warning("couldn't register the machine totals with JMX: " + ex);
+        }
+    }
+
+    /**
+     * Starts publishing {@code machine}'s counters, every frame from now on.
+     */
+    public MachineMetrics register(Machine machine) {
+        MachineMetrics metrics = new MachineMetrics(machine);
+        machine.setMetrics(metrics);
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Machine,id=" + nextId.getAndIncrement()
+                    + ",name=" + ObjectName.quote(metrics.getTitle()));
+            machines.put(metrics, name);
+            server.registerMBean(metrics, name);
+        }
+        catch (JMException ex) {
+            log.warning("couldn't register " + metrics.getTitle() + " with JMX: " + ex);
+        }
+        return metrics;
+    }
+
+    public void unregister(Machine machine) {
+        MachineMetrics metrics = machine.getMetrics();
+        ObjectName name = metrics == null ? null : machines.remove(metrics);
+        if (name == null) {
+            return;
+        }
+        machine.setMetrics(null);
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        }
+        catch (JMException ex) {
+            log.warning("couldn't unregister " + name + ": " + ex);
+        }
+    }
+
+    /**
+     * The JMX name {@code machine}'s metrics are registered under, null if they aren't.
+     */
+    ObjectName getName(Machine machine) {
+        MachineMetrics metrics = machine.getMetrics();
+        return metrics == null ? null : machines.get(metrics);
+    }
+
+    @Override
+    public int getMachineCount() {
+        return machines.size();
+    }
+
+    @Override
+    public long getCycles() {
+        return machines.keySet().stream().mapToLong(MachineMetrics::getCycles).sum();
+    }
+
+    @Override
+    public long getFrames() {
+        return machines.keySet().stream().mapToLong(MachineMetrics::getFrames).sum();
+    }
+
+    @Override
+    public long getInstructions() {
+        return machines.keySet().stream().mapToLong(MachineMetrics::getInstructions).sum();
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return machines.keySet().stream().mapToDouble(MachineMetrics::getInstructionsPerSecond).sum();
+    }
+
+    @Override
+    public double getRealTimeRatio() {
+        return machines.keySet().stream().mapToDouble(MachineMetrics::getRealTimeRatio).sum();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return machines.keySet().stream().mapToLong(MachineMetrics::getDroppedFrames).sum();
+    }
+
+    @Override
+    public long getInterrupts() {
+        long total = 0;
+        for (MachineMetrics metrics : machines.keySet()) {
+            for (InterruptManager.InterruptTypes type : InterruptManager.InterruptTypes.values()) {
+                total += metrics.getInterrupts(type);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long getBankSwitches() {
+        return machines.keySet().stream().mapToLong(MachineMetrics::getBankSwitches).sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return machines.keySet().stream().mapToLong(m -> Math.max(0, m.getAllocatedBytes())).sum();
+    }
+}
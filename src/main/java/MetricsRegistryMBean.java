@@ -0,0 +1,25 @@
+/**
+ * Totals over all registered machines, shown over JMX as javagb:type=Machines.
+ */
+public interface MetricsRegistryMBean {
+    int getMachineCount();
+
+    long getCycles();
+
+    long getFrames();
+
+    long getInstructions();
+
+    double getInstructionsPerSecond();
+
+    /** Summed, so two machines at full speed make 2. */
+    double getRealTimeRatio();
+
+    long getDroppedFrames();
+
+    long getInterrupts();
+
+    long getBankSwitches();
+
+    long getAllocatedBytes();
+}
@@ -0,0 +1,146 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recorded run: the buttons held during every frame, starting from the state the bootrom
+ * leaves behind (see {@link BootStateCache}), and a hash of RAM after the last frame
+ * to check a replay against (see {@link Machine#getRamHash()}).
+ *
+ * Stored as text, with one line per run of frames holding the same buttons:
+ * <pre>
+ * javagb-movie 1
+ * rom 0123...      sha1 of the whole rom
+ * title TETRIS
+ * frames 300
+ * ramhash 4567...
+ * input
+ * 120 00           120 frames with nothing held
+ * 2 08             2 frames holding START
+ * </pre>
+ */
+public class Movie {
+    private static final String MAGIC = "javagb-movie";
+    private static final int VERSION = 1;
+
+    private final String romHash;
+    private final String title;
+    private final int[] frames; // BUTTON_* bits per frame
+    private final String ramHash;
+
+    Movie(String romHash, String title, int[] frames, String ramHash) {
+        this.romHash = romHash;
+        this.title = title;
+        this.frames = frames;
+        this.ramHash = ramHash;
+    }
+
+    public String getRomHash() {
+        return romHash;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public int getButtons(int frame) {
+        return frames[frame];
+    }
+
+    public String getRamHash() {
+        return ramHash;
+    }
+
+    public void write(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(MAGIC + " " + VERSION + "\n");
+            out.write("rom " + romHash + "\n");
+            out.write("title " + title + "\n");
+            out.write("frames " + frames.length + "\n");
+            out.write("ramhash " + ramHash + "\n");
+            out.write("input\n");
+            int i = 0;
+            while (i < frames.length) {
+                int run = 1;
+                while (i + run < frames.length && frames[i + run] == frames[i]) {
+                    run++;
+                }
+                out.write(run + " " + String.format("%02x", frames[i]) + "\n");
+                i += run;
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the file isn't a movie this version can play
+     */
+    public static Movie read(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!(MAGIC + " " + VERSION).equals(in.readLine())) {
+                throw new IllegalArgumentException(file + " isn't a version " + VERSION + " movie");
+            }
+            String romHash = header(in, "rom", file);
+            String title = header(in, "title", file);
+            int frameCount = number(header(in, "frames", file), 10, file);
+            if (frameCount < 0) {
+                throw new IllegalArgumentException(file + ": negative frame count " + frameCount);
+            }
+            String ramHash = header(in, "ramhash", file);
+            if (!"input".equals(in.readLine())) {
+                throw new IllegalArgumentException(file + ": expected input section");
+            }
+
+            int[] frames = new int[frameCount];
+            int filled = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split(" ");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException(file + ": expected \"frames buttons\", got \"" + line + "\"");
+                }
+                int run = number(parts[0], 10, file);
+                int buttons = number(parts[1], 16, file);
+                if (buttons < 0 || buttons > 0xFF) {
+                    throw new IllegalArgumentException(file + ": buttons " + parts[1] + " aren't a byte");
+                }
+                if (run < 1 || filled + run > frameCount) {
+                    throw new IllegalArgumentException(file + ": input runs past " + frameCount + " frames");
+                }
+                Arrays.fill(frames, filled, filled + run, buttons);
+                filled += run;
+            }
+            if (filled != frameCount) {
+                throw new IllegalArgumentException(file + ": input covers " + filled + " of " + frameCount + " frames");
+            }
+            return new Movie(romHash, title, frames, ramHash);
+        }
+    }
+
+    private static int number(String text, int radix, Path file) {
+        try {
+            return Integer.parseInt(text, radix);
+        }
+        catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(file + ": " + text + " isn't a number");
+        }
+    }
+
+    private static String header(BufferedReader in, String name, Path file) throws IOException {
+        String line = in.readLine();
+        if (line == null || !line.startsWith(name + " ")) {
+            throw new IllegalArgumentException(file + ": expected " + name + " header");
+        }
+        return line.substring(name.length() + 1);
+    }
+}
@@ -0,0 +1,92 @@
+import helpers.Logger;
+
+/**
+ * Replays a {@link Movie} headless and as fast as the emulator runs, then checks that RAM
+ * ended up where it did when the movie was recorded. Replays are deterministic: the same rom,
+ * start state and input give the same RAM hash, so a mismatch means emulation changed.
+ */
+public class MoviePlayer {
+    private final Logger log = new Logger("MOVIE", Logger.Level.INFO);
+    private final Movie movie;
+    private final Machine machine;
+
+    MoviePlayer(Cartridge cart, Movie movie) {
+        this(cart, movie, BootStateCache.getDefault());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the movie was recorded on a different rom
+     */
+    MoviePlayer(Cartridge cart, Movie movie, BootStateCache bootCache) {
+        if (!cart.getRomHash().equals(movie.getRomHash())) {
+            throw new IllegalArgumentException("movie was recorded on rom " + movie.getRomHash()
+                    + " (" + movie.getTitle() + "), not " + cart.getRomHash() + " (" + cart.getTitle() + ")");
+        }
+        this.movie = movie;
+        this.machine = new Machine(cart);
+        machine.setPresentFrames(false);
+        bootCache.boot(machine);
+    }
+
+    public Result play() {
+        Joypad joypad = machine.getJoypad();
+        int frames = movie.getFrameCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < frames && !machine.getCpu().paused; i++) {
+            joypad.setButtons(movie.getButtons(i));
+            machine.runFrame();
+        }
+        Result result = new Result(frames, System.nanoTime() - start, movie.getRamHash(), machine.getRamHash());
+        log.info(result.toString());
+        return result;
+    }
+
+    Machine getMachine() {
+        return machine;
+    }
+
+    public static class Result {
+        private final int frames;
+        private final long nanos;
+        private final String expectedRamHash;
+        private final String actualRamHash;
+
+        Result(int frames, long nanos, String expectedRamHash, String actualRamHash) {
+            this.frames = frames;
+            this.nanos = nanos;
+            this.expectedRamHash = expectedRamHash;
+            this.actualRamHash = actualRamHash;
+        }
+
+        public boolean matches() {
+            return expectedRamHash.equals(actualRamHash);
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getFramesPerSecond() {
+            return frames / (nanos / 1e9);
+        }
+
+        public String getExpectedRamHash() {
+            return expectedRamHash;
+        }
+
+        public String getActualRamHash() {
+            return actualRamHash;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d frames in %.3f s (%.1f fps, %.2fx real time), ram hash %s",
+                    frames, nanos / 1e9, getFramesPerSecond(), getFramesPerSecond() / 59.73,
+                    matches() ? "matches" : "MISMATCH: expected " + expectedRamHash + ", got " + actualRamHash);
+        }
+    }
+}
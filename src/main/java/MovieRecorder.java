@@ -0,0 +1,57 @@
+/**
+ * Records the buttons held during each frame of a machine into a {@link Movie}.
+ *
+ * The machine must be in the state {@link BootStateCache#boot(Machine)} leaves it in, which
+ * is where {@link MoviePlayer} starts the replay. Buttons come either from the caller or,
+ * for a human at the keyboard, from the joypad's queued key events, applied between frames.
+ */
+public class MovieRecorder {
+    private final Machine machine;
+    private int[] frames = new int[1024];
+    private int frameCount;
+
+    MovieRecorder(Machine machine) {
+        this.machine = machine;
+    }
+
+    /**
+     * Runs one frame with the key events that arrived since the last frame.
+     */
+    public synchronized void recordFrame() {
+        machine.getJoypad().drainInput();
+        record(machine.getJoypad().getButtons());
+        machine.runFrame();
+    }
+
+    /**
+     * Runs one frame holding the given BUTTON_* bits.
+     */
+    public synchronized void recordFrame(int buttons) {
+        machine.getJoypad().setButtons(buttons);
+        record(machine.getJoypad().getButtons());
+        machine.runFrame();
+    }
+
+    public synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * The movie so far, ending with the current RAM hash. Waits for the frame being recorded to finish.
+     */
+    public synchronized Movie toMovie() {
+        Cartridge cart = machine.getCartridge();
+        int[] recorded = new int[frameCount];
+        System.arraycopy(frames, 0, recorded, 0, frameCount);
+        return new Movie(cart.getRomHash(), cart.getTitle(), recorded, machine.getRamHash());
+    }
+
+    private void record(int buttons) {
+        if (frameCount == frames.length) {
+            int[] grown = new int[frames.length * 2];
+            System.arraycopy(frames, 0, grown, 0, frameCount);
+            frames = grown;
+        }
+        frames[frameCount++] = buttons;
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Counts executions and cycles per opcode, for finding the instruction handlers worth
+ * optimizing. Attach one to a cpu with {@link Cpu#setProfiler(OpcodeProfiler)}; a cpu without
+ * one pays a single null check per instruction.
+ *
+ * Opcodes 0x00-0xFF are indexed as is, CB-prefixed ones as 0x100 plus the second byte.
+ * Cycles are the clock cycles the instruction consumed, prefix fetch included.
+ */
+public class OpcodeProfiler {
+    static final int OPCODES = 512;
+
+    private final long[] counts = new long[OPCODES];
+    private final long[] cycles = new long[OPCODES];
+
+    /**
+     * @param opcode as fetched, 0xCBxx for CB-prefixed instructions
+     */
+    void record(int opcode, long instructionCycles) {
+        int index = opcode > 0xFF ? 0x100 | (opcode & 0xFF) : opcode;
+        counts[index]++;
+        cycles[index] += instructionCycles;
+    }
+
+    public long getCount(int opcode) {
+        return counts[opcode > 0xFF ? 0x100 | (opcode & 0xFF) : opcode];
+    }
+
+    public long getCycles(int opcode) {
+        return cycles[opcode > 0xFF ? 0x100 | (opcode & 0xFF) : opcode];
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getTotalCycles() {
+        long total = 0;
+        for (long c : cycles) {
+            total += c;
+        }
+        return total;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(cycles, 0);
+    }
+
+    /**
+     * The {@code limit} opcodes that took the most cycles, one per line, with their share
+     * of all cycles and executions. Can be called while the cpu runs, the counts may then
+     * lag slightly behind.
+     */
+    public String getReport(int limit) {
+        long totalCount = getTotalCount();
+        long totalCycles = getTotalCycles();
+        List<Integer> used = new ArrayList<>();
+        for (int i = 0; i < OPCODES; i++) {
+            if (counts[i] > 0) {
+                used.add(i);
+            }
+        }
+        used.sort((a, b) -> Long.compare(cycles[b], cycles[a]));
+
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%d instructions, %d cycles, %d opcodes used%n", totalCount, totalCycles, used.size()));
+        report.append(String.format("%-8s %14s %8s %14s %8s %8s%n", "opcode", "count", "count%", "cycles", "cycles%", "avg"));
+        for (int i = 0; i < used.size() && i < limit; i++) {
+            int index = used.get(i);
+            report.append(String.format(Locale.ROOT, "%-8s %14d %7.2f%% %14d %7.2f%% %8.1f%n",
+                    index > 0xFF ? String.format("CB %02X", index & 0xFF) : String.format("%02X", index),
+                    counts[index], 100.0 * counts[index] / totalCount,
+                    cycles[index], 100.0 * cycles[index] / totalCycles,
+                    cycles[index] / (double) counts[index]));
+        }
+        return report.toString();
+    }
+}
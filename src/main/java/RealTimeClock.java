@@ -0,0 +1,248 @@
+import helpers.StateBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The MBC3 real-time clock.
+ *
+ * Nothing ticks: the clock keeps its counter as of some emulated cycle, and only works out the
+ * current time from the cycle count (see {@link TimerService#getCycleCount()}) when a game latches
+ * or writes it. Using emulated time keeps movies and run-ahead deterministic. Host time is only
+ * used to catch up on the time the emulator wasn't running, from the timestamp in the save file.
+ */
+class RealTimeClock {
+    static final int CYCLES_PER_SECOND = 4_194_304;
+    static final int SAVE_BYTES = 48; // the trailer other emulators append to .sav files
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final long DAY_LIMIT = 512; // the day counter is 9 bits
+
+    // registers, as selected by writing 0x08-0x0C to 0x4000-0x5FFF
+    static final int SECONDS = 0;
+    static final int MINUTES = 1;
+    static final int HOURS = 2;
+    static final int DAY_LOW = 3;
+    static final int DAY_HIGH = 4; // bit 0 day bit 8, bit 6 halt, bit 7 day counter carry
+
+    private long counter;     // seconds since day 0 00:00:00, as of baseCycle
+    private long baseCycle;   // emulated cycle the counter was last brought up to date at
+    private long haltedCycles; // part of a second that had passed when the clock was halted
+    private boolean halted;
+    private boolean dayCarry;
+    private final int[] latched = new int[5];
+    private int lastLatchWrite = -1; // latching takes a write of 0x00 and then 0x01
+
+    // latest time as seen by the emulation thread, for the save file flusher
+    private volatile Snapshot published = new Snapshot(0, false, false, new int[5], System.currentTimeMillis());
+
+    RealTimeClock fork() {
+        RealTimeClock copy = new RealTimeClock();
+        copy.counter = counter;
+        copy.baseCycle = baseCycle;
+        copy.haltedCycles = haltedCycles;
+        copy.halted = halted;
+        copy.dayCarry = dayCarry;
+        System.arraycopy(latched, 0, copy.latched, 0, latched.length);
+        copy.lastLatchWrite = lastLatchWrite;
+        copy.published = published;
+        return copy;
+    }
+
+    void saveState(StateBuffer out) {
+        out.writeLong(counter);
+        out.writeLong(baseCycle);
+        out.writeLong(haltedCycles);
+        out.writeBoolean(halted);
+        out.writeBoolean(dayCarry);
+        out.writeInts(latched);
+        out.writeInt(lastLatchWrite);
+    }
+    void loadState(StateBuffer in) {
+        counter = in.readLong();
+        baseCycle = in.readLong();
+        haltedCycles = in.readLong();
+        halted = in.readBoolean();
+        dayCarry = in.readBoolean();
+        in.readInts(latched);
+        lastLatchWrite = in.readInt();
+        publish();
+    }
+
+    /**
+     * Reads a latched register.
+     */
+    int read(int register) {
+        return latched[register];
+    }
+
+    /**
+     * A write to 0x6000-0x7FFF. Writing 0x00 then 0x01 copies the current time into the registers.
+     */
+    void latch(int value) {
+        if (lastLatchWrite == 0 && value == 1) {
+            catchUp(now());
+            int[] registers = registers();
+            System.arraycopy(registers, 0, latched, 0, registers.length);
+            publish();
+        }
+        lastLatchWrite = value;
+    }
+
+    void write(int register, int value) {
+        long cycle = now();
+        catchUp(cycle);
+        long seconds = counter % 60;
+        long minutes = (counter / 60) % 60;
+        long hours = (counter / 3600) % 24;
+        long days = counter / SECONDS_PER_DAY;
+
+        switch (register) {
+            case SECONDS:
+                seconds = value & 0x3F;
+                // writing the seconds restarts the current second
+                baseCycle = cycle;
+                haltedCycles = 0;
+                break;
+            case MINUTES:
+                minutes = value & 0x3F;
+                break;
+            case HOURS:
+                hours = value & 0x1F;
+                break;
+            case DAY_LOW:
+                days = (days & 0x100) | (value & 0xFF);
+                break;
+            case DAY_HIGH:
+                days = (days & 0xFF) | ((value & 0x01) << 8);
+                dayCarry = (value & 0x80) != 0;
+                setHalted((value & 0x40) != 0, cycle);
+                break;
+            default:
+                return;
+        }
+        // out of range values (seconds of 60-63) carry into the next field instead of counting up to 63
+        counter = days * SECONDS_PER_DAY + hours * 3600 + minutes * 60 + seconds;
+        wrapDays();
+        latched[register] = registers()[register];
+        publish();
+    }
+
+    private void setHalted(boolean halt, long cycle) {
+        if (halt && !halted) {
+            haltedCycles = cycle - baseCycle;
+        }
+        else if (!halt && halted) {
+            baseCycle = cycle - haltedCycles;
+        }
+        halted = halt;
+    }
+
+    private void catchUp(long cycle) {
+        if (halted) {
+            return;
+        }
+        long seconds = (cycle - baseCycle) / CYCLES_PER_SECOND;
+        if (seconds > 0) {
+            counter += seconds;
+            baseCycle += seconds * CYCLES_PER_SECOND;
+            wrapDays();
+        }
+    }
+
+    private void wrapDays() {
+        if (counter >= DAY_LIMIT * SECONDS_PER_DAY) {
+            dayCarry = true;
+            counter %= DAY_LIMIT * SECONDS_PER_DAY;
+        }
+    }
+
+    private int[] registers() {
+        return registersFor(counter, halted, dayCarry);
+    }
+
+    private static int[] registersFor(long counter, boolean halted, boolean dayCarry) {
+        long days = counter / SECONDS_PER_DAY;
+        return new int[] {
+                (int) (counter % 60),
+                (int) ((counter / 60) % 60),
+                (int) ((counter / 3600) % 24),
+                (int) (days & 0xFF),
+                (int) ((days >> 8) & 0x01) | (halted ? 0x40 : 0) | (dayCarry ? 0x80 : 0)
+        };
+    }
+
+    private static long now() {
+        return TimerService.getInstance().getCycleCount();
+    }
+
+    private void publish() {
+        published = new Snapshot(counter, halted, dayCarry, latched.clone(), System.currentTimeMillis());
+    }
+
+    Snapshot getPublished() {
+        return published;
+    }
+
+    /**
+     * Restores the clock from a save file trailer, advanced by the host time since it was written.
+     */
+    void loadSave(ByteBuffer trailer, long unixSeconds) {
+        ByteBuffer in = trailer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int[] current = new int[5];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = in.getInt();
+        }
+        for (int i = 0; i < latched.length; i++) {
+            latched[i] = in.getInt() & 0xFF;
+        }
+        long savedAt = in.getLong();
+
+        halted = (current[DAY_HIGH] & 0x40) != 0;
+        dayCarry = (current[DAY_HIGH] & 0x80) != 0;
+        long days = ((current[DAY_HIGH] & 0x01) << 8) | (current[DAY_LOW] & 0xFF);
+        counter = days * SECONDS_PER_DAY + (current[HOURS] & 0x1F) * 3600L
+                + (current[MINUTES] & 0x3F) * 60L + (current[SECONDS] & 0x3F);
+        if (!halted && savedAt > 0 && unixSeconds > savedAt) {
+            counter += unixSeconds - savedAt;
+        }
+        wrapDays();
+        baseCycle = now();
+        haltedCycles = 0;
+        publish();
+    }
+
+    /**
+     * The clock as last published by the emulation thread. Safe to use from any thread.
+     */
+    static final class Snapshot {
+        private final long counter;
+        private final boolean halted;
+        private final boolean dayCarry;
+        private final int[] latched;
+        private final long hostMillis;
+
+        private Snapshot(long counter, boolean halted, boolean dayCarry, int[] latched, long hostMillis) {
+            this.counter = counter;
+            this.halted = halted;
+            this.dayCarry = dayCarry;
+            this.latched = latched;
+            this.hostMillis = hostMillis;
+        }
+
+        /**
+         * Writes the save file trailer, assuming the clock kept running in real time since it was published.
+         */
+        void writeSave(ByteBuffer trailer, long unixMillis) {
+            ByteBuffer out = trailer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            long now = halted ? counter : counter + Math.max(0, unixMillis - hostMillis) / 1000;
+            boolean carry = dayCarry || now >= DAY_LIMIT * SECONDS_PER_DAY;
+            for (int register : registersFor(now % (DAY_LIMIT * SECONDS_PER_DAY), halted, carry)) {
+                out.putInt(register);
+            }
+            for (int register : latched) {
+                out.putInt(register);
+            }
+            out.putLong(unixMillis / 1000);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import helpers.Logger;
+import helpers.ThreadAllocation;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Runs a rom headless and uncapped for a number of frames and measures how fast it went,
+ * optionally with input from a {@link Movie}.
+ *
+ * Warm-up frames run on a fork of the booted machine that is then thrown away, so the
+ * measured frames are the same ones, ending in the same RAM hash, whatever the warm-up.
+ */
+public class RomBench {
+    private final Logger log = new Logger("BENCH", Logger.Level.INFO);
+    private final Cartridge cart;
+    private final Movie movie; // null for no input
+    private final Machine machine;
+
+    RomBench(Cartridge cart, Movie movie) {
+        this(cart, movie, BootStateCache.getDefault());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the movie was recorded on a different rom
+     */
+    RomBench(Cartridge cart, Movie movie, BootStateCache bootCache) {
+        if (movie != null && !cart.getRomHash().equals(movie.getRomHash())) {
+            throw new IllegalArgumentException("movie was recorded on rom " + movie.getRomHash()
+                    + " (" + movie.getTitle() + "), not " + cart.getRomHash() + " (" + cart.getTitle() + ")");
+        }
+        this.cart = cart;
+        this.movie = movie;
+        this.machine = new Machine(cart);
+        machine.setPresentFrames(false);
+        bootCache.boot(machine);
+    }
+
+    Machine getMachine() {
+        return machine;
+    }
+
+    public Result run(int warmupFrames, int frames) {
+        Machine warmup = machine.fork();
+        runFrames(warmup, warmupFrames);
+        machine.activate();
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long allocated = ThreadAllocation.currentThreadAllocatedBytes();
+        long cycles = TimerService.getInstance().getCycleCount();
+        long start = System.nanoTime();
+
+        long instructions = runFrames(machine, frames);
+
+        long nanos = System.nanoTime() - start;
+        Result result = new Result(cart.getTitle(), cart.getRomHash(), warmupFrames, frames, nanos, instructions,
+                TimerService.getInstance().getCycleCount() - cycles,
+                gcCount() - gcCount, gcMillis() - gcMillis,
+                allocated < 0 ? -1 : ThreadAllocation.currentThreadAllocatedBytes() - allocated,
+                machine.getRamHash());
+        log.info(result.toString());
+        return result;
+    }
+
+    /**
+     * @return instructions executed
+     */
+    private long runFrames(Machine target, int frames) {
+        Cpu cpu = target.getCpu();
+        Joypad joypad = target.getJoypad();
+        long instructions = cpu.getInstructionCount();
+        for (int i = 0; i < frames && !cpu.paused; i++) {
+            joypad.setButtons(movie != null && i < movie.getFrameCount() ? movie.getButtons(i) : 0);
+            long frame = target.getFrameCount();
+            while (target.getFrameCount() == frame && !cpu.paused) {
+                target.step();
+            }
+        }
+        return cpu.getInstructionCount() - instructions;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    public static class Result {
+        static final String CSV_HEADER = "title,rom_hash,warmup_frames,frames,seconds,fps,real_time,"
+                + "instructions_per_second,cycles,gc_count,gc_millis,allocated_bytes_per_frame,ram_hash";
+
+        private final String title;
+        private final String romHash;
+        private final int warmupFrames;
+        private final int frames;
+        private final long nanos;
+        private final long instructions;
+        private final long cycles;
+        private final long gcCount;
+        private final long gcMillis;
+        private final long allocatedBytes; // -1 if unknown
+        private final String ramHash;
+
+        Result(String title, String romHash, int warmupFrames, int frames, long nanos, long instructions,
+               long cycles, long gcCount, long gcMillis, long allocatedBytes, String ramHash) {
+            this.title = title;
+            this.romHash = romHash;
+            this.warmupFrames = warmupFrames;
+            this.frames = frames;
+            this.nanos = nanos;
+            this.instructions = instructions;
+            this.cycles = cycles;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.allocatedBytes = allocatedBytes;
+            this.ramHash = ramHash;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getInstructions() {
+            return instructions;
+        }
+
+        public long getCycles() {
+            return cycles;
+        }
+
+        public String getRamHash() {
+            return ramHash;
+        }
+
+        public double getFramesPerSecond() {
+            return frames / (nanos / 1e9);
+        }
+
+        /**
+         * How many times faster than a real Game Boy this ran.
+         */
+        public double getRealTimeMultiple() {
+            return getFramesPerSecond() / FramePacer.FRAME_RATE;
+        }
+
+        public double getInstructionsPerSecond() {
+            return instructions / (nanos / 1e9);
+        }
+
+        public long getAllocatedBytesPerFrame() {
+            return allocatedBytes < 0 || frames == 0 ? -1 : allocatedBytes / frames;
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("title", title);
+            json.put("romHash", romHash);
+            json.put("warmupFrames", warmupFrames);
+            json.put("frames", frames);
+            json.put("seconds", nanos / 1e9);
+            json.put("fps", getFramesPerSecond());
+            json.put("realTime", getRealTimeMultiple());
+            json.put("instructionsPerSecond", getInstructionsPerSecond());
+            json.put("instructions", instructions);
+            json.put("cycles", cycles);
+            json.put("gcCount", gcCount);
+            json.put("gcMillis", gcMillis);
+            json.put("allocatedBytesPerFrame", getAllocatedBytesPerFrame());
+            json.put("ramHash", ramHash);
+            json.put("javaVersion", System.getProperty("java.version"));
+            return json;
+        }
+
+        String toCsvRow() {
+            return String.format(Locale.ROOT, "\"%s\",%s,%d,%d,%.3f,%.2f,%.3f,%.0f,%d,%d,%d,%d,%s",
+                    title.replace("\"", "\"\""), romHash, warmupFrames, frames, nanos / 1e9, getFramesPerSecond(),
+                    getRealTimeMultiple(), getInstructionsPerSecond(), cycles, gcCount, gcMillis,
+                    getAllocatedBytesPerFrame(), ramHash);
+        }
+
+        /**
+         * Writes the result as JSON if the file name ends in .json, otherwise appends it as a
+         * CSV row, starting the file with a header if it's new. One CSV file can collect
+         * a row per build.
+         */
+        public void write(Path file) throws IOException {
+            if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                Files.write(file, toJson().toString(2).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String row = toCsvRow() + System.lineSeparator();
+            if (!Files.exists(file) || Files.size(file) == 0) {
+                row = CSV_HEADER + System.lineSeparator() + row;
+            }
+            Files.write(file, row.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d frames in %.3f s, %.1f fps (%.2fx real time), "
+                            + "%.2f M instructions/s, %d gcs (%d ms), %s per frame, ram hash %s",
+                    title, frames, nanos / 1e9, getFramesPerSecond(), getRealTimeMultiple(),
+                    getInstructionsPerSecond() / 1e6, gcCount, gcMillis,
+                    allocatedBytes < 0 ? "? bytes" : getAllocatedBytesPerFrame() / 1024 + " KB", ramHash);
+        }
+    }
+}
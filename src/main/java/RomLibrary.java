@@ -0,0 +1,422 @@
+import helpers.Digests;
+import helpers.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Catalog of the roms under a directory tree, kept in an index file between runs.
+ *
+ * Scanning reads the 0x100-0x150 header of every rom file on a parallel stream, without
+ * building a {@link Cartridge}. Only files whose header has a valid logo are read any further,
+ * once, through a reused buffer, for the global checksum and content hash. A rescan only
+ * reads files whose size or modification time changed since they were last indexed, and
+ * files without a Game Boy header are remembered the same way so they aren't opened again.
+ */
+public class RomLibrary {
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_START = 0x0100;
+    private static final int HEADER_END = 0x0150;
+    private static final int ADDRESS_LOGO = 0x0104;
+    private static final int ADDRESS_TITLE_START = 0x0134;
+    private static final int ADDRESS_TITLE_END = 0x0143;
+    private static final int ADDRESS_CART_TYPE = 0x0147;
+    private static final int ADDRESS_ROM_SIZE = 0x0148;
+    private static final int ADDRESS_RAM_SIZE = 0x0149;
+    private static final int ADDRESS_HEADER_CHECKSUM = 0x014D;
+    private static final int ADDRESS_GLOBAL_CHECKSUM = 0x014E; // big endian, 0x014E-0x014F
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int[] LOGO = MemoryManager.getBiosLogo();
+
+    private static final ThreadLocal<ByteBuffer> readBuffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+    private final Logger log = new Logger("LIB", Logger.Level.INFO);
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>(); // by absolute path
+    private final Map<String, long[]> rejects = new ConcurrentHashMap<>(); // not roms, by path: size, modified
+
+    /**
+     * Opens the library kept in {@code indexFile}, which doesn't need to exist yet.
+     */
+    RomLibrary(Path indexFile) {
+        this.indexFile = indexFile;
+        readIndex();
+    }
+
+    /**
+     * Library in the file named by the {@code javagb.library.index} system property,
+     * or {@code ~/.java-gb/library.json} when it isn't set.
+     */
+    public static RomLibrary getDefault() {
+        String file = System.getProperty("javagb.library.index");
+        if (file == null) {
+            return new RomLibrary(Paths.get(System.getProperty("user.home"), ".java-gb", "library.json"));
+        }
+        return new RomLibrary(Paths.get(file));
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * The entry for a rom file, or null if it wasn't found by a scan.
+     */
+    public Entry get(Path file) {
+        return entries.get(keyFor(file));
+    }
+
+    /**
+     * Brings the index up to date with the roms under {@code root} and writes it out.
+     * Roms that disappeared from under {@code root} are dropped; entries elsewhere are kept.
+     */
+    public ScanResult scan(Path root) throws IOException {
+        long start = System.nanoTime();
+        Path absoluteRoot = root.toAbsolutePath().normalize();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(absoluteRoot)) {
+            files = walk.filter(RomLibrary::isRomFileName).collect(Collectors.toList());
+        }
+
+        Set<String> found = ConcurrentHashMap.newKeySet(); // keys of entries and rejects still there
+        AtomicInteger indexed = new AtomicInteger();
+        AtomicInteger unchanged = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        files.parallelStream().forEach(file -> {
+            String key = keyFor(file);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    return;
+                }
+                long size = attributes.size();
+                long modified = attributes.lastModifiedTime().toMillis();
+                Entry known = entries.get(key);
+                long[] reject = rejects.get(key);
+                if ((known != null && known.size == size && known.modified == modified)
+                        || (reject != null && reject[0] == size && reject[1] == modified)) {
+                    found.add(key);
+                    unchanged.incrementAndGet();
+                    return;
+                }
+                Entry entry = index(file, key, size, modified);
+                found.add(key);
+                if (entry == null) {
+                    rejects.put(key, new long[] {size, modified});
+                    rejected.incrementAndGet();
+                    return;
+                }
+                rejects.remove(key);
+                entries.put(key, entry);
+                indexed.incrementAndGet();
+            }
+            catch (IOException ex) {
+                // keep what the index had until the file can be read again, unless it's gone
+                log.warning("couldn't index " + file + ": " + ex);
+                if (Files.exists(file)) {
+                    found.add(key);
+                }
+                rejected.incrementAndGet();
+            }
+        });
+
+        int removed = 0;
+        for (String key : new ArrayList<>(entries.keySet())) {
+            if (Paths.get(key).startsWith(absoluteRoot) && !found.contains(key)) {
+                entries.remove(key);
+                removed++;
+            }
+        }
+        rejects.keySet().removeIf(key -> Paths.get(key).startsWith(absoluteRoot) && !found.contains(key));
+        writeIndex();
+        return new ScanResult(files.size(), indexed.get(), unchanged.get(), rejected.get(), removed,
+                System.nanoTime() - start);
+    }
+
+    private static boolean isRomFileName(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".gb") || name.endsWith(".gbc") || name.endsWith(".sgb");
+    }
+
+    private static String keyFor(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Reads one rom file, or returns null if it doesn't have a Game Boy header.
+     */
+    static Entry index(Path file, String key, long size, long modified) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_END - HEADER_START);
+            while (header.hasRemaining()) {
+                if (channel.read(header, HEADER_START + header.position()) < 0) {
+                    return null; // too short to have a header
+                }
+            }
+            for (int i = 0; i < LOGO.length; i++) {
+                if (headerByte(header, ADDRESS_LOGO + i) != LOGO[i]) {
+                    return null;
+                }
+            }
+
+            StringBuilder title = new StringBuilder();
+            for (int i = ADDRESS_TITLE_START; i <= ADDRESS_TITLE_END; i++) {
+                if (headerByte(header, i) != 0) { // same as Cartridge, skip NULs
+                    title.append((char) headerByte(header, i));
+                }
+            }
+            int headerChecksum = 0;
+            for (int i = ADDRESS_TITLE_START; i < ADDRESS_HEADER_CHECKSUM; i++) {
+                headerChecksum = headerChecksum - headerByte(header, i) - 1;
+            }
+            int expectedGlobalChecksum = (headerByte(header, ADDRESS_GLOBAL_CHECKSUM) << 8)
+                    | headerByte(header, ADDRESS_GLOBAL_CHECKSUM + 1);
+
+            // the global checksum and hash cover every byte, read the whole file once
+            MessageDigest md = Digests.sha1();
+            ByteBuffer buffer = readBuffers.get();
+            int globalChecksum = 0;
+            long position = 0;
+            int read;
+            buffer.clear();
+            while ((read = channel.read(buffer, position)) > 0) {
+                buffer.flip();
+                for (int i = 0; i < read; i++) {
+                    long address = position + i;
+                    if (address != ADDRESS_GLOBAL_CHECKSUM && address != ADDRESS_GLOBAL_CHECKSUM + 1) {
+                        globalChecksum += buffer.get(i) & 0xFF;
+                    }
+                }
+                md.update(buffer);
+                buffer.clear();
+                position += read;
+            }
+
+            return new Entry(key, size, modified, title.toString(),
+                    headerByte(header, ADDRESS_CART_TYPE),
+                    Cartridge.romSizeForCode(headerByte(header, ADDRESS_ROM_SIZE)),
+                    Cartridge.ramSizeForCode(headerByte(header, ADDRESS_RAM_SIZE)),
+                    (headerChecksum & 0xFF) == headerByte(header, ADDRESS_HEADER_CHECKSUM),
+                    (globalChecksum & 0xFFFF) == expectedGlobalChecksum,
+                    Digests.toHex(md.digest()));
+        }
+    }
+
+    private static int headerByte(ByteBuffer header, int address) {
+        return header.get(address - HEADER_START) & 0xFF;
+    }
+
+    private void readIndex() {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8));
+            if (json.getInt("version") != INDEX_VERSION) {
+                log.warning("ignoring index " + indexFile + " from another version");
+                return;
+            }
+            JSONArray roms = json.getJSONArray("roms");
+            for (int i = 0; i < roms.length(); i++) {
+                Entry entry = Entry.fromJson(roms.getJSONObject(i));
+                entries.put(entry.path, entry);
+            }
+            JSONArray rejected = json.optJSONArray("rejected"); // not in older indexes
+            for (int i = 0; rejected != null && i < rejected.length(); i++) {
+                JSONObject reject = rejected.getJSONObject(i);
+                rejects.put(reject.getString("path"), new long[] {reject.getLong("size"), reject.getLong("modified")});
+            }
+        }
+        catch (IOException | JSONException ex) {
+            log.warning("couldn't read index " + indexFile + ", rescanning everything: " + ex);
+            entries.clear();
+            rejects.clear();
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        JSONArray roms = new JSONArray();
+        for (Entry entry : entries.values()) {
+            roms.put(entry.toJson());
+        }
+        JSONArray rejected = new JSONArray();
+        for (Map.Entry<String, long[]> reject : rejects.entrySet()) {
+            JSONObject json = new JSONObject();
+            json.put("path", reject.getKey());
+            json.put("size", reject.getValue()[0]);
+            json.put("modified", reject.getValue()[1]);
+            rejected.put(json);
+        }
+        JSONObject json = new JSONObject();
+        json.put("version", INDEX_VERSION);
+        json.put("roms", roms);
+        json.put("rejected", rejected);
+
+        // write next to the index and move into place, so a reader never sees half a file
+        Path directory = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, indexFile.getFileName().toString(), ".tmp");
+        Files.write(temp, json.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * What the index knows about one rom file.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final long modified; // millis, as reported by the file system
+        private final String title;
+        private final int cartridgeType; // header byte 0x0147
+        private final int romSize;
+        private final int ramSize;
+        private final boolean headerChecksumValid;
+        private final boolean globalChecksumValid;
+        private final String sha1;
+
+        Entry(String path, long size, long modified, String title, int cartridgeType, int romSize, int ramSize,
+              boolean headerChecksumValid, boolean globalChecksumValid, String sha1) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.title = title;
+            this.cartridgeType = cartridgeType;
+            this.romSize = romSize;
+            this.ramSize = ramSize;
+            this.headerChecksumValid = headerChecksumValid;
+            this.globalChecksumValid = globalChecksumValid;
+            this.sha1 = sha1;
+        }
+
+        public Path getPath() {
+            return Paths.get(path);
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public int getCartridgeType() {
+            return cartridgeType;
+        }
+
+        /**
+         * Name of the cartridge type, or null if the emulator doesn't support it.
+         */
+        public String getCartridgeTypeName() {
+            MbcManager.CartridgeType type = MbcManager.cartridgeTypes.get(cartridgeType);
+            return type != null ? type.name : null;
+        }
+
+        public int getRomSize() {
+            return romSize;
+        }
+
+        public int getRamSize() {
+            return ramSize;
+        }
+
+        public boolean isHeaderChecksumValid() {
+            return headerChecksumValid;
+        }
+
+        public boolean isGlobalChecksumValid() {
+            return globalChecksumValid;
+        }
+
+        /**
+         * SHA-1 of the file, the same as {@link Cartridge#getRomHash()}.
+         */
+        public String getSha1() {
+            return sha1;
+        }
+
+        private JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("path", path);
+            json.put("size", size);
+            json.put("modified", modified);
+            json.put("title", title);
+            json.put("type", cartridgeType);
+            json.put("romSize", romSize);
+            json.put("ramSize", ramSize);
+            json.put("headerChecksum", headerChecksumValid);
+            json.put("globalChecksum", globalChecksumValid);
+            json.put("sha1", sha1);
+            return json;
+        }
+
+        private static Entry fromJson(JSONObject json) {
+            return new Entry(json.getString("path"), json.getLong("size"), json.getLong("modified"),
+                    json.getString("title"), json.getInt("type"), json.getInt("romSize"), json.getInt("ramSize"),
+                    json.getBoolean("headerChecksum"), json.getBoolean("globalChecksum"), json.getString("sha1"));
+        }
+
+        @Override
+        public String toString() {
+            String type = getCartridgeTypeName();
+            return String.format("%s [%s] %s, %dKB rom, %dKB ram%s%s",
+                    path, title, type != null ? type : String.format("type 0x%02X", cartridgeType),
+                    romSize / 1024, ramSize / 1024,
+                    headerChecksumValid ? "" : ", bad header checksum",
+                    globalChecksumValid ? "" : ", bad global checksum");
+        }
+    }
+
+    /**
+     * Counts from one {@link #scan(Path)}.
+     */
+    public static final class ScanResult {
+        public final int files;     // rom files found
+        public final int indexed;   // new or changed, read again
+        public final int unchanged; // taken from the index as they were, roms and known non-roms
+        public final int rejected;  // read and found to have no Game Boy header, or unreadable
+        public final int removed;   // in the index but gone from disk
+        public final long nanos;
+
+        ScanResult(int files, int indexed, int unchanged, int rejected, int removed, long nanos) {
+            this.files = files;
+            this.indexed = indexed;
+            this.unchanged = unchanged;
+            this.rejected = rejected;
+            this.removed = removed;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files in %.1f ms: %d indexed, %d unchanged, %d rejected, %d removed",
+                    files, nanos / 1e6, indexed, unchanged, rejected, removed);
+        }
+    }
+}
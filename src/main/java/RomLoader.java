@@ -0,0 +1,167 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads a rom image from a plain file, a gzip file or the first rom in a zip archive,
+ * decompressing straight into the rom array. The array is allocated once from the size in
+ * the header, so loading never goes through a temp file or a growing buffer.
+ *
+ * Every failure is an exception: {@link UncheckedIOException} when the file can't be read,
+ * {@link IllegalArgumentException} when it isn't a rom or a readable archive of one.
+ */
+final class RomLoader {
+    private static final int HEADER_SIZE = 0x0150;
+    private static final int ADDRESS_ROM_SIZE = 0x0148;
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_ROM_SIZE = Cartridge.romSizeForCode(0x08); // 8 MB, the largest cartridge rom
+
+    // totals for every load in this process, see getReport()
+    private static final LongAdder loads = new LongAdder();
+    private static final LongAdder fileBytes = new LongAdder();
+    private static final LongAdder romBytes = new LongAdder();
+    private static final LongAdder loadNanos = new LongAdder();
+
+    private RomLoader() {
+    }
+
+    static boolean isLoadable(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return isRomName(name) || name.endsWith(".zip") || name.endsWith(".gz");
+    }
+
+    private static boolean isRomName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".gb") || lower.endsWith(".gbc") || lower.endsWith(".sgb");
+    }
+
+    /**
+     * The uncompressed rom contents of {@code file}, detected by content, not by name.
+     */
+    static byte[] load(Path file) {
+        long start = System.nanoTime();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), STREAM_BUFFER_SIZE)) {
+            in.mark(4);
+            int magic = (in.read() << 24) | (in.read() << 16) | (in.read() << 8) | in.read();
+            in.reset();
+
+            byte[] rom;
+            if ((magic >>> 16) == 0x1F8B) {
+                rom = readRom(new GZIPInputStream(in, STREAM_BUFFER_SIZE), file.toString());
+            }
+            else if (magic == 0x504B0304) { // "PK\3\4", a zip local file header
+                rom = readFromZip(new ZipInputStream(in), file);
+            }
+            else {
+                rom = readRom(in, file.toString());
+            }
+
+            loads.increment();
+            fileBytes.add(Files.size(file));
+            romBytes.add(rom.length);
+            loadNanos.add(System.nanoTime() - start);
+            return rom;
+        }
+        catch (ZipException ex) {
+            throw new IllegalArgumentException(file + " is not a valid archive: " + ex.getMessage(), ex);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("couldn't read " + file, ex);
+        }
+    }
+
+    private static byte[] readFromZip(ZipInputStream zip, Path file) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory() && isRomName(entry.getName())) {
+                return readRom(zip, file + "!" + entry.getName());
+            }
+        }
+        throw new IllegalArgumentException(file + " doesn't contain a .gb, .gbc or .sgb file");
+    }
+
+    private static byte[] readRom(InputStream in, String name) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int read = readFully(in, header, 0, HEADER_SIZE);
+        if (read < HEADER_SIZE) {
+            throw new IllegalArgumentException(name + " is too short to be a rom (" + read + " bytes)");
+        }
+        int code = header[ADDRESS_ROM_SIZE] & 0xFF;
+        int size = Cartridge.romSizeForCode(code);
+        if (size == 0) {
+            throw new IllegalArgumentException(String.format("%s has an unknown rom size code 0x%02X", name, code));
+        }
+
+        byte[] rom = Arrays.copyOf(header, size);
+        int length = HEADER_SIZE + readFully(in, rom, HEADER_SIZE, size - HEADER_SIZE);
+        if (length < size) {
+            return Arrays.copyOf(rom, length); // truncated dump, Cartridge pads it
+        }
+        // some dumps carry more than the header says, keep it rather than silently dropping it,
+        // but no more than any cartridge could hold
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int more;
+        while ((more = in.read(buffer)) > 0) {
+            if (size + extra.size() + more > MAX_ROM_SIZE) {
+                throw new IllegalArgumentException(name + " is larger than any rom (" + MAX_ROM_SIZE + " bytes)");
+            }
+            extra.write(buffer, 0, more);
+        }
+        if (extra.size() == 0) {
+            return rom;
+        }
+        byte[] whole = Arrays.copyOf(rom, size + extra.size());
+        System.arraycopy(extra.toByteArray(), 0, whole, size, extra.size());
+        return whole;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    static void resetStats() {
+        loads.reset();
+        fileBytes.reset();
+        romBytes.reset();
+        loadNanos.reset();
+    }
+
+    static long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Loads so far and their throughput. Time is summed over threads, so for parallel loads
+     * the rates are per thread.
+     */
+    static String getReport() {
+        long count = loads.sum();
+        if (count == 0) {
+            return "no roms loaded";
+        }
+        double seconds = loadNanos.sum() / 1e9;
+        return String.format("%d roms, %.1f MB read, %.1f MB of rom in %.3f s: %.0f roms/s, %.1f MB/s",
+                count, fileBytes.sum() / 1e6, romBytes.sum() / 1e6, seconds,
+                count / seconds, romBytes.sum() / 1e6 / seconds);
+    }
+}
@@ -0,0 +1,40 @@
+import helpers.StateBuffer;
+
+/**
+ * Carts without a controller: 32KB of rom and, on some, 8KB of ram that is always enabled.
+ */
+final class RomOnlyController implements BankController {
+
+    @Override
+    public int rom0Offset() {
+        return 0;
+    }
+
+    @Override
+    public int romXOffset() {
+        return 0x4000;
+    }
+
+    @Override
+    public int ramOffset() {
+        return 0; // nothing to enable it with
+    }
+
+    @Override
+    public void writeRegister(int address, int value) {
+        // there are no registers, writing to rom does nothing
+    }
+
+    @Override
+    public BankController fork() {
+        return this; // stateless
+    }
+
+    @Override
+    public void saveState(StateBuffer out) {
+    }
+
+    @Override
+    public void loadState(StateBuffer in) {
+    }
+}
@@ -0,0 +1,112 @@
+import helpers.Logger;
+import helpers.StateBuffer;
+
+/**
+ * Hides input latency by presenting frames from the future.
+ *
+ * Every frame the real machine advances one frame without rendering it. Its state is then
+ * saved, the machine runs {@code depth} more frames with the current input, the last of those
+ * is presented, and the saved state is restored. A game that reacts to input a frame or two
+ * late therefore shows the reaction on the frame the button was pressed.
+ */
+public class RunAhead {
+    private static final int REPORT_INTERVAL_FRAMES = 600; // about every 10 seconds
+
+    private final Logger log = new Logger("RUN", Logger.Level.INFO);
+    private final Machine machine;
+    private final int depth;
+    private final StateBuffer state = new StateBuffer();
+
+    private long frames;
+    private long realNanos;
+    private long saveRestoreNanos;
+    private long aheadNanos;
+
+    RunAhead(Machine machine, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("run-ahead depth must be at least 1, was " + depth);
+        }
+        this.machine = machine;
+        this.depth = depth;
+    }
+
+    public void runFrame() {
+        runFrame(true);
+    }
+
+    /**
+     * Only the presented frame is rendered, and only if {@code render}. The real frame and the
+     * ones ahead of it but before the last are emulated without drawing them.
+     */
+    void runFrame(boolean render) {
+        long start = System.nanoTime();
+        machine.getJoypad().drainInput();
+        machine.setPresentFrames(false);
+        machine.setRenderFrames(false);
+        machine.runFrame();
+
+        long realDone = System.nanoTime();
+        machine.saveState(state);
+
+        long saved = System.nanoTime();
+        machine.setSpeculating(true);
+        for (int i = 0; i < depth; i++) {
+            boolean last = i == depth - 1;
+            machine.setPresentFrames(last);
+            machine.setRenderFrames(last && render);
+            machine.runFrame();
+        }
+        machine.setPresentFrames(false);
+        machine.setRenderFrames(true);
+
+        long aheadDone = System.nanoTime();
+        machine.loadState(state);
+        machine.setSpeculating(false);
+        machine.frameCommitted();
+
+        long end = System.nanoTime();
+        realNanos += realDone - start;
+        aheadNanos += aheadDone - saved;
+        saveRestoreNanos += (saved - realDone) + (end - aheadDone);
+        frames++;
+
+        if (frames % REPORT_INTERVAL_FRAMES == 0) {
+            log.info(getReport());
+        }
+    }
+
+    public void run(FramePacer pacer, FrameSkip frameSkip) {
+        while (!machine.getCpu().paused) {
+            runFrame(frameSkip.renderNext(pacer));
+            machine.pace(pacer);
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Average time per real frame spent emulating it, saving/restoring state,
+     * and emulating the frames ahead. The last two are what run-ahead adds.
+     */
+    public String getReport() {
+        if (frames == 0) {
+            return "run-ahead depth " + depth + ": no frames yet";
+        }
+        double real = realNanos / (double) frames / 1e6;
+        double saveRestore = saveRestoreNanos / (double) frames / 1e6;
+        double ahead = aheadNanos / (double) frames / 1e6;
+        return String.format("run-ahead depth %d over %d frames: real frame %.3f ms, save/restore %.3f ms, "
+                        + "ahead frames %.3f ms, added cost %.3f ms/frame (%.0f%%)",
+                depth, frames, real, saveRestore, ahead, saveRestore + ahead, 100 * (saveRestore + ahead) / real);
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getAddedNanosPerFrame() {
+        return frames == 0 ? 0 : (saveRestoreNanos + aheadNanos) / frames;
+    }
+}
@@ -1,4 +1,5 @@
 import helpers.Logger;
+import helpers.StateBuffer;
 
 /**
  * File created on 4/10/2018.
@@ -21,9 +22,60 @@ public class TimerService {
         instance = null;
     }
 
+    static void setInstance(TimerService timer) {
+        instance = timer;
+    }
+
+    /**
+     * Maps DIV, TIMA, TMA and TAC (0xFF04-0xFF07) to whichever timer is active.
+     */
+    static void mapIo(MemoryManager mmu) {
+        mmu.mapIo(0xff04, () -> getInstance().getDivider(), value -> getInstance().clearDivider());
+        mmu.mapIo(0xff05, () -> getInstance().getCounter(), value -> getInstance().setCounter(value));
+        mmu.mapIo(0xff06, () -> getInstance().getModulo(), value -> getInstance().setModulo(value));
+        mmu.mapIo(0xff07, () -> getInstance().getControl(), value -> getInstance().setControl(value));
+    }
+
     private TimerService() {
     }
 
+    /**
+     * Independent copy of this timer's state, for forking a machine.
+     */
+    TimerService fork() {
+        TimerService copy = new TimerService();
+        copy.div = div;
+        copy.tac = tac;
+        copy.tma = tma;
+        copy.tima = tima;
+        copy.previousBit = previousBit;
+        copy.overflow = overflow;
+        copy.ticksSinceOverflow = ticksSinceOverflow;
+        copy.cycles = cycles;
+        return copy;
+    }
+
+    void saveState(StateBuffer out) {
+        out.writeInt(div);
+        out.writeInt(tac);
+        out.writeInt(tma);
+        out.writeInt(tima);
+        out.writeBoolean(previousBit);
+        out.writeBoolean(overflow);
+        out.writeInt(ticksSinceOverflow);
+        out.writeLong(cycles);
+    }
+    void loadState(StateBuffer in) {
+        div = in.readInt();
+        tac = in.readInt();
+        tma = in.readInt();
+        tima = in.readInt();
+        previousBit = in.readBoolean();
+        overflow = in.readBoolean();
+        ticksSinceOverflow = in.readInt();
+        cycles = in.readLong();
+    }
+
     private static final int[] FREQ_TO_BIT = {9, 3, 5, 7};
 
     private int div, tac, tma, tima;
@@ -34,6 +86,8 @@ public class TimerService {
 
     private int ticksSinceOverflow;
 
+    private long cycles; // clock cycles since power on, the time base for the cartridge clock
+
     public void step(int numSteps) {
         for (int i = 0; i < numSteps; i++) {
             tick();
@@ -41,6 +95,7 @@ public class TimerService {
     }
 
     public void tick() {
+        cycles++;
         updateDiv((div + 1) & 0xffff);
         if (overflow) {
             ticksSinceOverflow++;
@@ -67,6 +122,10 @@ public class TimerService {
         }
     }
 
+    public long getCycleCount() {
+        return cycles;
+    }
+
     public void clearDivider() {
         updateDiv(0);
     }
@@ -0,0 +1,30 @@
+package helpers;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 helpers for the content hashes used by movies, caches and the rom index.
+ */
+public final class Digests {
+    private Digests() {
+    }
+
+    public static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // every JVM ships SHA-1
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer queue of timestamped int events.
+ * One thread may {@link #offer(long, int)} while one other thread drains;
+ * neither side ever locks or blocks.
+ */
+public class EventRing {
+    public interface Handler {
+        void handle(long timestamp, int value);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final long[] timestamps;
+    private final int[] values;
+
+    // slots are published with lazySet (a store-release), so the other side sees
+    // the slot contents before it sees the index move past them.
+    private final AtomicLong head = new AtomicLong(); // next slot to read, only the consumer writes it
+    private final AtomicLong tail = new AtomicLong(); // next slot to write, only the producer writes it
+    private long cachedHead; // producer's last look at head, saves reading it on every offer
+    private volatile long dropped;
+
+    public EventRing(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.timestamps = new long[capacity];
+        this.values = new int[capacity];
+    }
+
+    /**
+     * Producer side. Drops the event if the consumer has fallen a whole ring behind.
+     *
+     * @return false if the event was dropped
+     */
+    public boolean offer(long timestamp, int value) {
+        long t = tail.get();
+        if (t - cachedHead == capacity) {
+            cachedHead = head.get();
+            if (t - cachedHead == capacity) {
+                dropped++; // only the producer writes it
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Consumer side. Hands every queued event to the handler, oldest first.
+     *
+     * @return the number of events handled
+     */
+    public int drain(Handler handler) {
+        long h = head.get();
+        long t = tail.get();
+        for (long i = h; i < t; i++) {
+            int slot = (int) i & mask;
+            handler.handle(timestamps[slot], values[slot]);
+        }
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
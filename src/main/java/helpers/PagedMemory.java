@@ -0,0 +1,127 @@
+package helpers;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * A block of emulated memory split into 256-byte pages.
+ * Pages can be shared between forks of a machine; a page is only
+ * duplicated the first time one side writes to it (copy-on-write).
+ */
+public class PagedMemory {
+    public static final int PAGE_BITS = 8;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS; // 256
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int size;
+    private final int[][] pages;
+    private final boolean[] owned; // false = page is shared with a fork and must be copied before writing
+
+    public PagedMemory(int size) {
+        this(size, 0);
+    }
+
+    public PagedMemory(int size, int fillValue) {
+        this.size = size;
+        this.pages = new int[(size + PAGE_MASK) >> PAGE_BITS][];
+        this.owned = new boolean[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new int[PAGE_SIZE];
+            if (fillValue != 0) {
+                Arrays.fill(pages[i], fillValue);
+            }
+            owned[i] = true;
+        }
+    }
+
+    private PagedMemory(PagedMemory other) {
+        this.size = other.size;
+        this.pages = other.pages.clone(); // shallow, the page arrays themselves are shared
+        this.owned = new boolean[pages.length];
+    }
+
+    public int read(final int index) {
+        return pages[index >> PAGE_BITS][index & PAGE_MASK];
+    }
+
+    public void write(final int index, final int value) {
+        int page = index >> PAGE_BITS;
+        if (!owned[page]) {
+            takeOwnership(page);
+        }
+        pages[page][index & PAGE_MASK] = value;
+    }
+
+    /**
+     * Returns the backing array of a page for reading only.
+     * Use {@link #writablePage(int)} before modifying it.
+     */
+    public int[] page(final int page) {
+        return pages[page];
+    }
+
+    public int[] writablePage(final int page) {
+        if (!owned[page]) {
+            takeOwnership(page);
+        }
+        return pages[page];
+    }
+
+    /**
+     * Creates a copy of this memory that shares every page with it.
+     * Both sides give up ownership, so whichever writes first gets its own copy of that page.
+     */
+    public PagedMemory fork() {
+        Arrays.fill(owned, false);
+        return new PagedMemory(this);
+    }
+
+    public void copyTo(final int[] destination, final int offset) {
+        for (int i = 0; i < pages.length; i++) {
+            int start = i << PAGE_BITS;
+            System.arraycopy(pages[i], 0, destination, offset + start, Math.min(PAGE_SIZE, size - start));
+        }
+    }
+
+    public void copyFrom(final int[] source, final int offset) {
+        for (int i = 0; i < pages.length; i++) {
+            int start = i << PAGE_BITS;
+            System.arraycopy(source, offset + start, writablePage(i), 0, Math.min(PAGE_SIZE, size - start));
+        }
+    }
+
+    /**
+     * Feeds every value, as a byte, into the digest.
+     */
+    public void digest(final MessageDigest md) {
+        byte[] bytes = new byte[PAGE_SIZE];
+        for (int i = 0; i < pages.length; i++) {
+            int count = Math.min(PAGE_SIZE, size - (i << PAGE_BITS));
+            for (int j = 0; j < count; j++) {
+                bytes[j] = (byte) pages[i][j];
+            }
+            md.update(bytes, 0, count);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int pageCount() {
+        return pages.length;
+    }
+
+    public int ownedPageCount() {
+        int n = 0;
+        for (boolean b : owned) {
+            if (b) n++;
+        }
+        return n;
+    }
+
+    private void takeOwnership(final int page) {
+        pages[page] = pages[page].clone();
+        owned[page] = true;
+    }
+}
@@ -0,0 +1,109 @@
+package helpers;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of ints that machine components write their state into and read it back from.
+ * Values are read back in the same order they were written. The buffer keeps its capacity
+ * across {@link #clear()} calls, so saving the same machine repeatedly doesn't allocate.
+ */
+public class StateBuffer {
+    private int[] data;
+    private int length;
+    private int position;
+
+    public StateBuffer() {
+        this(0x10000);
+    }
+
+    public StateBuffer(int initialCapacity) {
+        this.data = new int[initialCapacity];
+    }
+
+    public StateBuffer(int[] contents) {
+        this.data = contents;
+        this.length = contents.length;
+    }
+
+    public void clear() {
+        length = 0;
+        position = 0;
+    }
+
+    public void rewind() {
+        position = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    // writes
+    public void writeInt(int value) {
+        ensureCapacity(1);
+        data[length++] = value;
+    }
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+    public void writeBoolean(boolean value) {
+        writeInt(value ? 1 : 0);
+    }
+    public void writeInts(int[] values) {
+        writeInt(values.length);
+        ensureCapacity(values.length);
+        System.arraycopy(values, 0, data, length, values.length);
+        length += values.length;
+    }
+    public void writeMemory(PagedMemory memory) {
+        writeInt(memory.size());
+        ensureCapacity(memory.size());
+        memory.copyTo(data, length);
+        length += memory.size();
+    }
+
+    // reads
+    public int readInt() {
+        if (position >= length) {
+            throw new IndexOutOfBoundsException("read past the end of the state buffer (" + length + ")");
+        }
+        return data[position++];
+    }
+    public long readLong() {
+        long high = readInt() & 0xFFFFFFFFL;
+        long low = readInt() & 0xFFFFFFFFL;
+        return (high << 32) | low;
+    }
+    public boolean readBoolean() {
+        return readInt() != 0;
+    }
+    public void readInts(int[] destination) {
+        int count = readInt();
+        checkSize(count, destination.length);
+        System.arraycopy(data, position, destination, 0, count);
+        position += count;
+    }
+    public void readMemory(PagedMemory memory) {
+        int count = readInt();
+        checkSize(count, memory.size());
+        memory.copyFrom(data, position);
+        position += count;
+    }
+
+    private void checkSize(int stored, int expected) {
+        if (stored != expected || position + stored > length) {
+            throw new IllegalStateException("state buffer holds " + stored + " values where " + expected + " were expected");
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+}
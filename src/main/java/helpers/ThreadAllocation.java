@@ -0,0 +1,23 @@
+package helpers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Heap allocation counters of HotSpot-style jvms, used by the metrics and the bench.
+ */
+public final class ThreadAllocation {
+    private ThreadAllocation() {
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, or -1 if the jvm doesn't say.
+     */
+    public static long currentThreadAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
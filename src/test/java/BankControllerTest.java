@@ -0,0 +1,71 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BankControllerTest extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryManager mapFor(int cartridgeType, int romSizeCode, int ramSizeCode) throws IOException {
+        MemoryManager mmu = new MemoryManager(new MbcManager(
+                SyntheticRom.create(folder.getRoot().toPath(), cartridgeType, romSizeCode, ramSizeCode)));
+        mmu.inBootrom = false;
+        return mmu;
+    }
+
+    @Test
+    public void testMbc1RomBankPastTheEndWraps() throws IOException {
+        // MBC1, 64KB rom: 4 banks, but the game can select up to 0x7F
+        MemoryManager mmu = mapFor(0x01, 0x01, 0x00);
+        mmu.writeByte(0x2000, 0x1F);
+        assertEquals(3, mmu.readByte(0x4000));
+        mmu.writeByte(0x4000, 0x03); // high bits, bank 0x7F
+        assertEquals(3, mmu.readByte(0x4000));
+        mmu.writeByte(0x2000, 0x06);
+        assertEquals(2, mmu.readByte(0x4000));
+    }
+
+    @Test
+    public void testMbc5RomBankPastTheEndWraps() throws IOException {
+        // MBC5, 128KB rom: 8 banks of a possible 512
+        MemoryManager mmu = mapFor(0x19, 0x02, 0x00);
+        mmu.writeByte(0x2000, 0xFF);
+        mmu.writeByte(0x3000, 0x01);
+        assertEquals(7, mmu.readByte(0x4000));
+        assertEquals(0, mmu.readByte(0x4001));
+    }
+
+    @Test
+    public void testMbc1RamBankPastTheEndWraps() throws IOException {
+        // MBC1 + RAM, a single 8KB ram bank
+        MemoryManager mmu = mapFor(0x02, 0x01, 0x02);
+        mmu.writeByte(0x0000, 0x0A);
+        mmu.writeByte(0xA010, 0x42);
+        mmu.writeByte(0x6000, 0x01); // ram banking mode
+        mmu.writeByte(0x4000, 0x03);
+        assertEquals(0x42, mmu.readByte(0xA010));
+    }
+
+    @Test
+    public void testOffsetsStayInsideTheRom() throws IOException {
+        Cartridge cart = SyntheticRom.create(folder.getRoot().toPath(), 0x1B, 0x03, 0x04);
+        MbcManager mbc = new MbcManager(cart);
+        BankController banks = mbc.getBankController();
+        for (int bank = 0; bank < 0x200; bank++) {
+            mbc.mbcWrite(0x2000, bank & 0xFF);
+            mbc.mbcWrite(0x3000, bank >> 8);
+            assertTrue(banks.romXOffset() + 0x3FFF < cart.getRomSize());
+        }
+        mbc.mbcWrite(0x0000, 0x0A);
+        for (int bank = 0; bank < 0x10; bank++) {
+            mbc.mbcWrite(0x4000, bank);
+            assertTrue(banks.ramOffset() + 0x1FFF < cart.getRamSize());
+        }
+    }
+}
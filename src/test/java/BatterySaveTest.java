@@ -0,0 +1,105 @@
+import helpers.PagedMemory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BatterySaveTest extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFlushWritesOnlyDirtyPages() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("game.sav");
+        PagedMemory ram = new PagedMemory(0x2000);
+        try (BatterySave save = BatterySave.open(file, ram, null)) {
+            assertEquals(0x2000, Files.size(file));
+            save.flush(); // a new file gets all of ram once
+            assertEquals(32, save.getPagesWritten());
+
+            ram.write(0x0010, 0x12);
+            save.markDirty(0x0010);
+            ram.write(0x1FFF, 0xAB);
+            save.markDirty(0x1FFF);
+            save.flush();
+            assertEquals(2, save.getFlushCount());
+            assertEquals(32 + 2, save.getPagesWritten());
+
+            save.flush(); // nothing dirty, nothing written
+            assertEquals(2, save.getFlushCount());
+            log(save.getReport());
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        assertEquals(0x12, bytes[0x0010] & 0xFF);
+        assertEquals(0xAB, bytes[0x1FFF] & 0xFF);
+    }
+
+    @Test
+    public void testSpeculationAndStateLoadsWriteOnlyChanges() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("game.sav");
+        PagedMemory ram = new PagedMemory(0x2000);
+        try (BatterySave save = BatterySave.open(file, ram, null)) {
+            save.flush();
+            assertEquals(32, save.getPagesWritten());
+
+            // a run-ahead frame writes, then its state load puts ram back
+            save.setSpeculating(true);
+            ram.write(0x0010, 0x12);
+            save.markDirty(0x0010);
+            save.flush();
+            assertEquals(1, save.getFlushCount());
+            ram.write(0x0010, 0x00);
+            save.markChanged();
+            save.setSpeculating(false);
+            save.flush();
+            assertEquals(1, save.getFlushCount());
+
+            // a state load that really changes a page
+            ram.write(0x0310, 0x34);
+            save.markChanged();
+            save.flush();
+            assertEquals(2, save.getFlushCount());
+            assertEquals(32 + 1, save.getPagesWritten());
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        assertEquals(0x00, bytes[0x0010] & 0xFF);
+        assertEquals(0x34, bytes[0x0310] & 0xFF);
+    }
+
+    @Test
+    public void testReopenLoadsRam() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("game.sav");
+        PagedMemory ram = new PagedMemory(0x8000);
+        try (BatterySave save = BatterySave.open(file, ram, null)) {
+            for (int i = 0; i < ram.size(); i += 0x111) {
+                ram.write(i, i & 0xFF);
+                save.markDirty(i);
+            }
+        } // close flushes
+
+        PagedMemory reloaded = new PagedMemory(0x8000);
+        try (BatterySave save = BatterySave.open(file, reloaded, null)) {
+            for (int i = 0; i < ram.size(); i++) {
+                assertEquals("ram differs at " + i, ram.read(i), reloaded.read(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSavePathAndCartsWithoutBattery() throws IOException {
+        assertEquals(Paths.get("roms", "pokebluejp.sav"), BatterySave.savePathFor(Paths.get("roms", "pokebluejp.gb")));
+        assertEquals(Paths.get("roms", "pokebluejp.sav"), BatterySave.savePathFor(Paths.get("roms", "pokebluejp.gb.gz")));
+        Machine machine = new Machine(new Cartridge("src/main/resources/tetris.gb"));
+        assertNull(machine.getMbc().enableBatterySave(folder.getRoot().toPath().resolve("tetris.sav")));
+    }
+}
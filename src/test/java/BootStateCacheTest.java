@@ -0,0 +1,63 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BootStateCacheTest extends UnitTest {
+    private final String tetrisPath = "src/main/resources/tetris.gb";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Machine newMachine() {
+        Machine machine = new Machine(new Cartridge(tetrisPath));
+        machine.setPresentFrames(false);
+        return machine;
+    }
+
+    @Test
+    public void testCachedBootMatchesBootrom() {
+        BootStateCache.clearMemoryCache();
+        BootStateCache cache = new BootStateCache(folder.getRoot().toPath());
+
+        Machine live = newMachine();
+        while (live.getCpu().getRegisterValue("PC") != 0x0100) {
+            live.step();
+        }
+
+        // first boot runs the bootrom and stores the result
+        Machine captured = newMachine();
+        assertTrue(cache.boot(captured));
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+
+        // later ones restore it, from disk once the in-process copy is gone
+        BootStateCache.clearMemoryCache();
+        Machine restored = newMachine();
+        long start = System.nanoTime();
+        assertTrue(new BootStateCache(folder.getRoot().toPath()).boot(restored));
+        log("boot from disk took " + (System.nanoTime() - start) / 1000 + " us");
+        assertEquals(0x0100, restored.getCpu().getRegisterValue("PC"));
+
+        for (int i = 0; i < 10; i++) {
+            live.runFrame();
+            restored.runFrame();
+        }
+        int[] expected = MachineTest.snapshot(live);
+        int[] actual = MachineTest.snapshot(restored);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("state differs at index " + i, expected[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void testKeyCoversHeaderOnly() {
+        Cartridge tetris = new Cartridge(tetrisPath);
+        assertEquals(BootStateCache.keyFor(tetris), BootStateCache.keyFor(new Cartridge(tetrisPath)));
+        assertTrue(!BootStateCache.keyFor(tetris).equals(BootStateCache.keyFor(new Cartridge("src/main/resources/drmario.gb"))));
+    }
+}
@@ -1,5 +1,7 @@
 import helpers.Logger;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
@@ -15,6 +17,9 @@ public class CpuInstrsTest extends UnitTest {
     // this class will take all the Blargg cpu_instrs subtests and run them sequentially,
     // comparing the test results from the console. The full test rom will also be ran.
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private Cpu cpuUut;
 
     private void initRomSubtest(final String romName) {
@@ -23,12 +28,10 @@ public class CpuInstrsTest extends UnitTest {
         InterruptManager.reset();
 
         Display.getTestInstace();
-        Gpu gpu = new Gpu();
         String baseFilePath = "src/test/resources/gb-test-roms/cpu_instrs/individual/";
-        MbcManager cartMbc = new MbcManager(new Cartridge(baseFilePath + romName));
-        MemoryManager mmu = new MemoryManager(cartMbc, gpu);
-        cpuUut = new Cpu(mmu, gpu, Logger.Level.FATAL);
-        cpuUut.skipBootrom();
+        Machine machine = new Machine(new Cartridge(baseFilePath + romName), Logger.Level.FATAL);
+        new BootStateCache(folder.getRoot().toPath()).boot(machine);
+        cpuUut = machine.getCpu();
     }
     private void initFullTest() {
         Display.reset();
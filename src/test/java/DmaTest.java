@@ -0,0 +1,66 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class DmaTest extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryManager mmu;
+
+    @Before
+    public void setUp() throws IOException {
+        TimerService.reset();
+        InterruptManager.reset();
+        mmu = new MemoryManager(new MbcManager(SyntheticRom.create(folder.getRoot().toPath(), 0x01, 0x02, 0x00)));
+        mmu.inBootrom = false;
+    }
+
+    private void runCycles(int cycles) {
+        for (int i = 0; i < cycles; i++) {
+            TimerService.getInstance().tick();
+        }
+    }
+
+    @Test
+    public void testOamIsBusyDuringTheTransfer() {
+        for (int i = 0; i < 0xA0; i++) {
+            mmu.writeByte(0xC100 + i, i);
+        }
+        mmu.writeByte(0xFF46, 0xC1);
+        assertEquals(0xFF, mmu.readByte(0xFE05));
+        mmu.writeByte(0xFE05, 0x42); // ignored, the dma owns the bus
+
+        runCycles(639);
+        assertEquals(0xFF, mmu.readByte(0xFE05));
+        runCycles(1);
+        for (int i = 0; i < 0xA0; i++) {
+            assertEquals(i, mmu.readByte(0xFE00 + i));
+        }
+        mmu.writeByte(0xFE05, 0x42);
+        assertEquals(0x42, mmu.readByte(0xFE05));
+    }
+
+    @Test
+    public void testCopiesFromTheSelectedRomBank() {
+        mmu.writeByte(0x2000, 0x05);
+        mmu.writeByte(0xFF46, 0x40); // start of the switchable bank, whose first bytes hold its number
+        runCycles(640);
+        assertEquals(5, mmu.readByte(0xFE00));
+        assertEquals(0, mmu.readByte(0xFE01));
+    }
+
+    @Test
+    public void testCopiesFromEchoRam() {
+        mmu.writeByte(0xD09F, 0x99);
+        mmu.writeByte(0xFF46, 0xF0); // echo of 0xD000
+        runCycles(640);
+        assertEquals(0x99, mmu.readByte(0xFE9F));
+    }
+}
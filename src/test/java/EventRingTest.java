@@ -0,0 +1,68 @@
+import helpers.EventRing;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventRingTest extends UnitTest {
+
+    @Test
+    public void testDrainsInOrderAndDropsWhenFull() {
+        EventRing ring = new EventRing(4);
+        assertTrue(ring.isEmpty());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(100 + i, i));
+        }
+        assertFalse(ring.offer(104, 4));
+        assertEquals(1, ring.getDroppedCount());
+
+        List<Integer> seen = new ArrayList<>();
+        assertEquals(4, ring.drain((timestamp, value) -> {
+            assertEquals(100 + value, timestamp);
+            seen.add(value);
+        }));
+        assertEquals(4, seen.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) seen.get(i));
+        }
+        assertTrue(ring.isEmpty());
+        assertTrue(ring.offer(105, 5)); // space again after draining
+    }
+
+    @Test
+    public void testProducerAndConsumerThreads() throws InterruptedException {
+        final int count = 200_000;
+        EventRing ring = new EventRing(64);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!ring.offer(i, i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        int[] next = {0};
+        while (next[0] < count) {
+            int drained = ring.drain((timestamp, value) -> {
+                assertEquals(next[0], value);
+                assertEquals(next[0], timestamp);
+                next[0]++;
+            });
+            if (drained == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePowerOfTwo() {
+        new EventRing(100);
+    }
+}
@@ -0,0 +1,100 @@
+import helpers.PagedMemory;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlightEventsTest extends UnitTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<RecordedEvent> record(Runnable work) throws IOException {
+        Path file = folder.getRoot().toPath().resolve("events.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(FlightEvents.FrameCompleted.class);
+            recording.enable(FlightEvents.InterruptDispatched.class);
+            recording.enable(FlightEvents.OamDma.class);
+            recording.enable(FlightEvents.BankSwitch.class);
+            recording.enable(FlightEvents.Halt.class);
+            recording.enable(FlightEvents.SaveRamFlush.class);
+            recording.start();
+            work.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testMachineEvents() throws IOException {
+        Machine machine = MachineTest.booted("src/main/resources/pokebluejp.gb");
+
+        List<RecordedEvent> events = record(() -> {
+            for (int i = 0; i < 300; i++) {
+                machine.runFrame();
+            }
+        });
+
+        List<RecordedEvent> frames = named(events, "javagb.FrameCompleted");
+        assertEquals(300, frames.size());
+        frames.sort(Comparator.comparingLong(e -> e.getLong("frame"))); // events don't come back in order
+        RecordedEvent last = frames.get(frames.size() - 1);
+        assertEquals(machine.getFrameCount(), last.getLong("frame"));
+        assertEquals(70224, last.getLong("cycles"), 100); // give or take where the last instruction ended
+        assertFalse(last.getBoolean("presented"));
+
+        List<RecordedEvent> interrupts = named(events, "javagb.InterruptDispatched");
+        assertTrue(interrupts.stream().anyMatch(e -> e.getString("type").equals("VBLANK")));
+        assertTrue(interrupts.stream().allMatch(e -> e.getLong("latencyCycles") >= 0));
+
+        List<RecordedEvent> halts = named(events, "javagb.Halt");
+        assertFalse(halts.isEmpty());
+        assertTrue(halts.stream().allMatch(e -> e.getLong("cycles") > 0 && e.getString("interrupt") != null));
+
+        List<RecordedEvent> dmas = named(events, "javagb.OamDma");
+        assertFalse(dmas.isEmpty());
+        assertEquals(640, dmas.get(0).getInt("cycles"));
+
+        List<RecordedEvent> switches = named(events, "javagb.BankSwitch");
+        assertFalse(switches.isEmpty());
+        assertTrue(switches.stream().allMatch(e -> e.getInt("romBank") != e.getInt("previousRomBank")
+                || e.getInt("ramBank") != e.getInt("previousRamBank")));
+        log(frames.size() + " frames, " + interrupts.size() + " interrupts, " + halts.size() + " halts, "
+                + dmas.size() + " dmas, " + switches.size() + " bank switches");
+    }
+
+    @Test
+    public void testSaveRamFlush() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("game.sav");
+        PagedMemory ram = new PagedMemory(0x2000);
+        List<RecordedEvent> events = record(() -> {
+            try (BatterySave save = BatterySave.open(file, ram, null)) {
+                save.flush(); // a new file gets all of ram once
+                save.flush(); // nothing dirty, no event
+            }
+            catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        List<RecordedEvent> flushes = named(events, "javagb.SaveRamFlush");
+        assertEquals(1, flushes.size());
+        assertEquals(32, flushes.get(0).getInt("pages"));
+        assertEquals(file.toString(), flushes.get(0).getString("file"));
+    }
+}
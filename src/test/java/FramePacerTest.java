@@ -0,0 +1,104 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest extends UnitTest {
+    private static final long FRAME_NANOS = Math.round(1e9 / FramePacer.FRAME_RATE);
+
+    /**
+     * Time that only moves when the pacer looks at it or sleeps, a microsecond per look.
+     */
+    private static class FakeClock implements FramePacer.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now += 1000;
+        }
+
+        @Override
+        public void parkNanos(long nanos) {
+            now += nanos;
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+
+    private long pace(FramePacer pacer, int frames) {
+        long start = clock.now;
+        for (int i = 0; i < frames; i++) {
+            pacer.frameCompleted();
+        }
+        return clock.now - start;
+    }
+
+    @Test
+    public void testSpeeds() {
+        FramePacer pacer = new FramePacer(FramePacer.Speed.NORMAL, clock);
+        pacer.frameCompleted(); // starts the timeline
+        long nanos = pace(pacer, 30);
+        log(pacer.getReport());
+        assertTrue("30 frames at 1x took " + nanos / 1e6 + " ms", nanos >= 30 * FRAME_NANOS - FRAME_NANOS / 2);
+        assertTrue("30 frames at 1x took " + nanos / 1e6 + " ms", nanos < 31 * FRAME_NANOS);
+        assertEquals(30, pacer.getPacedFrames());
+
+        pacer.setSpeed(FramePacer.Speed.DOUBLE);
+        pacer.frameCompleted();
+        nanos = pace(pacer, 30);
+        assertTrue("30 frames at 2x took " + nanos / 1e6 + " ms", nanos >= 15 * FRAME_NANOS - FRAME_NANOS / 2);
+        assertTrue("30 frames at 2x took " + nanos / 1e6 + " ms", nanos < 16 * FRAME_NANOS);
+
+        pacer.setSpeed(FramePacer.Speed.TURBO);
+        pacer.frameCompleted();
+        nanos = pace(pacer, 1000);
+        assertTrue("1000 turbo frames took " + nanos / 1e6 + " ms", nanos < FRAME_NANOS);
+        assertEquals(0, pacer.getDroppedFrames());
+    }
+
+    @Test
+    public void testLateFramesDropAndResync() {
+        FramePacer pacer = new FramePacer(FramePacer.Speed.NORMAL, clock);
+        pacer.frameCompleted();
+        pace(pacer, 5);
+
+        clock.now += FRAME_NANOS * 5 / 2; // a frame that took 2.5 frames
+        assertEquals(1, pacer.frameCompleted());
+        assertTrue(pacer.isLate());
+        pace(pacer, 5); // catches up without dropping more
+        assertEquals(1, pacer.getDroppedFrames());
+        assertFalse(pacer.isLate());
+
+        clock.now += FRAME_NANOS * 20; // far behind: start over instead of racing
+        assertTrue(pacer.frameCompleted() >= 18);
+        long nanos = pace(pacer, 10);
+        assertTrue("10 frames after a resync took " + nanos / 1e6 + " ms", nanos >= 9 * FRAME_NANOS);
+        log(pacer.getReport());
+    }
+
+    @Test
+    public void testRealClockHoldsTheFrameRate() {
+        FramePacer pacer = new FramePacer();
+        pacer.frameCompleted();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            pacer.frameCompleted();
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue("10 frames at 1x took " + nanos / 1e6 + " ms", nanos >= 10 * FRAME_NANOS - FRAME_NANOS / 2);
+    }
+
+    @Test
+    public void testParseSpeed() {
+        assertEquals(FramePacer.Speed.NORMAL, FramePacer.Speed.parse("1x"));
+        assertEquals(FramePacer.Speed.DOUBLE, FramePacer.Speed.parse("2X"));
+        assertEquals(FramePacer.Speed.SLOW_MOTION, FramePacer.Speed.parse("slow"));
+        assertEquals(FramePacer.Speed.TURBO, FramePacer.Speed.parse("turbo"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownSpeed() {
+        FramePacer.Speed.parse("3x");
+    }
+}
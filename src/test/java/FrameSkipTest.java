@@ -0,0 +1,123 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSkipTest extends UnitTest {
+    private static final long FRAME_NANOS = Math.round(1e9 / FramePacer.FRAME_RATE);
+
+    @Test
+    public void testFixedSkip() {
+        FrameSkip skip = FrameSkip.fixed(2);
+        for (int i = 0; i < 9; i++) {
+            assertEquals("frame " + i, i % 3 == 0, skip.renderNext(false, 0));
+        }
+        assertEquals(3, skip.getRenderedFrames());
+        assertEquals(6, skip.getSkippedFrames());
+
+        FrameSkip none = FrameSkip.parse("0");
+        for (int i = 0; i < 5; i++) {
+            assertTrue(none.renderNext(true, 0));
+        }
+        assertTrue(FrameSkip.parse("auto").isAdaptive());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSkip() {
+        FrameSkip.parse("some");
+    }
+
+    @Test
+    public void testAdaptiveSkip() {
+        // 1x: every frame
+        FrameSkip skip = FrameSkip.adaptive();
+        long now = 0;
+        for (int i = 0; i < 10; i++, now += FRAME_NANOS) {
+            assertTrue(skip.renderNext(false, now));
+        }
+
+        // 2x: every other frame
+        skip = FrameSkip.adaptive();
+        for (int i = 0; i < 10; i++, now += FRAME_NANOS / 2) {
+            assertEquals("frame " + i, i % 2 == 0, skip.renderNext(false, now));
+        }
+
+        // late at 1x: skips a few in a row, then shows one anyway
+        skip = FrameSkip.adaptive();
+        assertTrue(skip.renderNext(false, now));
+        for (int i = 0; i < FrameSkip.MAX_LATE_SKIP; i++) {
+            now += FRAME_NANOS;
+            assertFalse(skip.renderNext(true, now));
+        }
+        now += FRAME_NANOS;
+        assertTrue(skip.renderNext(true, now));
+        now += FRAME_NANOS;
+        assertFalse(skip.renderNext(true, now));
+        now += FRAME_NANOS;
+        assertTrue(skip.renderNext(false, now));
+    }
+
+    @Test
+    public void testSkippedLinesKeepTheWindowRow() {
+        InterruptManager.reset();
+        Gpu gpu = new Gpu();
+        gpu.setPresentFrames(false);
+        gpu.lcdControl.setLcdControl(0b1111_0001); // lcd, window and background on
+        gpu.windowX = 7;
+        gpu.windowY = 20;
+
+        gpu.setRenderFrames(false);
+        while (gpu.line < 60) {
+            gpu.step(4);
+        }
+        assertEquals(40, gpu.windowLine);
+    }
+
+    /**
+     * Plays the movie, noting each frame's state, and its screen when it was rendered.
+     */
+    private void play(Movie movie, FrameSkip skip, List<String> states, List<Integer> screens) {
+        Machine machine = MachineTest.booted("src/main/resources/pokebluejp.gb");
+        for (int i = 0; i < movie.getFrameCount(); i++) {
+            machine.getJoypad().setButtons(movie.getButtons(i));
+            boolean render = skip.renderNext(false, 0);
+            machine.setRenderFrames(render);
+            machine.runFrame();
+            states.add(machine.getRamHash() + " " + Arrays.hashCode(MachineTest.snapshot(machine))
+                    + " " + machine.getGpu().windowLine);
+            screens.add(render ? Arrays.hashCode(machine.getGpu().getScreen()) : null);
+        }
+        assertEquals(movie.getRamHash(), machine.getRamHash());
+    }
+
+    /**
+     * The movie played rendering every frame and rendering every fourth has to go through the
+     * same states, and show the same picture on the frames both render.
+     */
+    @Test
+    public void testSkippingChangesNothingButPixels() throws IOException {
+        Movie movie = Movie.read(Paths.get("src/test/resources/movies", "pokebluejp.gbm"));
+        List<String> states = new ArrayList<>();
+        List<Integer> screens = new ArrayList<>();
+        play(movie, FrameSkip.none(), states, screens);
+        List<String> skippedStates = new ArrayList<>();
+        List<Integer> skippedScreens = new ArrayList<>();
+        FrameSkip skip = FrameSkip.fixed(3);
+        play(movie, skip, skippedStates, skippedScreens);
+
+        assertEquals(states, skippedStates);
+        for (int i = 0; i < screens.size(); i++) {
+            if (skippedScreens.get(i) != null) {
+                assertEquals("frame " + i, screens.get(i), skippedScreens.get(i));
+            }
+        }
+        assertEquals(movie.getFrameCount() / 4, skip.getRenderedFrames());
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HotspotProfilerTest extends UnitTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> folded(HotspotProfiler profiler) throws IOException {
+        StringWriter out = new StringWriter();
+        profiler.writeFoldedStacks(out);
+        return Arrays.asList(out.toString().split("\n"));
+    }
+
+    @Test
+    public void testCallsAndReturnsFoldIntoStacks() throws IOException {
+        HotspotProfiler profiler = new HotspotProfiler();
+        profiler.begin(0, 0x0150);
+        profiler.end(12);                      // call 02:4000, return address at FFFC
+        profiler.enter(2, 0x4000, 0xFFFC);
+        profiler.begin(2, 0x4000);
+        profiler.end(12);                      // rst 38, return address at FFFA
+        profiler.enter(2, 0x0038, 0xFFFA);
+        profiler.begin(2, 0x0038);
+        profiler.end(16);
+        profiler.exit(0xFFFC);                 // a ret popping FFFC unwinds both frames
+        profiler.begin(0, 0x0153);
+        profiler.end(4);
+
+        assertEquals(Arrays.asList("main 16", "main;02:4000 12", "main;02:4000;00:0038 16"), folded(profiler));
+        assertEquals(12, profiler.getCycles(0, 0x0150));
+        assertEquals(12, profiler.getCycles(2, 0x4000));
+        assertEquals(0, profiler.getCycles(1, 0x4000));
+        assertEquals(16, profiler.getCycles(5, 0x0038));
+        assertEquals(44, profiler.getTotalCycles());
+
+        // a ret whose address was pushed by the routine itself unwinds nothing
+        profiler.enter(1, 0x4100, 0xFFFC);
+        profiler.exit(0xFFFA);
+        profiler.begin(1, 0x5000);
+        profiler.end(8);
+        assertTrue(folded(profiler).contains("main;01:4100 8"));
+    }
+
+    @Test
+    public void testSymbols() throws IOException {
+        Path sym = folder.getRoot().toPath().resolve("game.sym");
+        Files.write(sym, Arrays.asList(
+                "; File generated by rgblink",
+                "00:0040 VBlankInterrupt",
+                "02:4000 UpdateSprites",
+                "02:4010 UpdateSprites.loop ; local label",
+                "not a label"), StandardCharsets.UTF_8);
+        assertEquals(sym, HotspotProfiler.symbolPathFor(folder.getRoot().toPath().resolve("game.gb")));
+
+        HotspotProfiler profiler = new HotspotProfiler();
+        profiler.loadSymbols(sym);
+        profiler.enter(2, 0x4000, 0xFFFC);
+        profiler.begin(2, 0x4012);
+        profiler.end(8);
+        profiler.enter(0, 0x0040, 0xFFFA);
+        profiler.begin(0, 0x0040);
+        profiler.end(20);
+
+        assertEquals(Arrays.asList("main;UpdateSprites 8", "main;UpdateSprites;VBlankInterrupt 20"), folded(profiler));
+        String report = profiler.getReport(10);
+        log(report);
+        assertTrue(report.contains("02:4012 UpdateSprites.loop+2"));
+        assertTrue(report.contains("00:0040 VBlankInterrupt" + System.lineSeparator()));
+    }
+
+    @Test
+    public void testProfileTetris() throws IOException {
+        Machine machine = MachineTest.booted("src/main/resources/tetris.gb");
+        HotspotProfiler profiler = new HotspotProfiler();
+        machine.getCpu().setHotspotProfiler(profiler);
+
+        long cycles = TimerService.getInstance().getCycleCount();
+        for (int i = 0; i < 120; i++) {
+            machine.runFrame();
+        }
+        cycles = TimerService.getInstance().getCycleCount() - cycles;
+        log(profiler.getReport(10));
+
+        assertEquals(cycles, profiler.getTotalCycles());
+        List<String> stacks = folded(profiler);
+        long folded = 0;
+        for (String line : stacks) {
+            folded += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(cycles, folded);
+        assertTrue(stacks.stream().anyMatch(line -> line.startsWith("main;00:0040"))); // vblank handler
+
+        Path out = folder.getRoot().toPath().resolve("tetris.folded");
+        profiler.writeFoldedStacks(out);
+        assertEquals(stacks, Files.readAllLines(out, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class IoRegisterTest extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MemoryManager mmu;
+
+    @Before
+    public void setUp() throws IOException {
+        TimerService.reset();
+        InterruptManager.reset();
+        Joypad.reset();
+        mmu = new MemoryManager(new MbcManager(SyntheticRom.create(folder.getRoot().toPath(), 0x00, 0x00, 0x00)));
+        mmu.inBootrom = false;
+    }
+
+    @Test
+    public void testUnusedBitsReadAsOne() {
+        mmu.writeByte(0xFF07, 0x05);
+        assertEquals(0xFD, mmu.readByte(0xFF07));
+        mmu.writeByte(0xFF0F, 0x00);
+        assertEquals(0xE0, mmu.readByte(0xFF0F));
+        assertEquals(0xFF, mmu.readByte(0xFF03));
+        assertEquals(0xFF, mmu.readByte(0xFF4C));
+        assertEquals(0xFF, mmu.readByte(0xFF7F));
+    }
+
+    @Test
+    public void testSoundRegistersReadBackWhatWasWritten() {
+        mmu.writeByte(0xFF12, 0xF3);
+        mmu.writeByte(0xFF26, 0x80);
+        assertEquals(0xF3, mmu.readByte(0xFF12));
+        assertEquals(0xF0, mmu.readByte(0xFF26));
+        mmu.writeByte(0xFF30, 0x5A); // wave ram
+        assertEquals(0x5A, mmu.readByte(0xFF30));
+    }
+
+    @Test
+    public void testDevicesOwnTheirRegisters() {
+        mmu.writeByte(0xFF06, 0x42);
+        assertEquals(0x42, TimerService.getInstance().getModulo());
+        mmu.writeByte(0xFF43, 0x17);
+        assertEquals(0x17, mmu.readByte(0xFF43));
+        mmu.writeByte(0xFF00, 0x20); // dpad mode, nothing held
+        assertEquals(0xEF, mmu.readByte(0xFF00));
+        mmu.writeByte(0xFF44, 0x99); // LY is read only
+        assertEquals(0, mmu.readByte(0xFF44));
+    }
+}
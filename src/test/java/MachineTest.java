@@ -0,0 +1,156 @@
+import helpers.StateBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MachineTest extends UnitTest {
+    private static BootStateCache bootCache;
+    private final String tetrisPath = "src/main/resources/tetris.gb";
+
+    private Machine newMachine() {
+        Machine machine = new Machine(new Cartridge(tetrisPath));
+        machine.setPresentFrames(false);
+        return machine;
+    }
+    /**
+     * One boot cache for the whole test run, in a temporary directory deleted at exit,
+     * so each header runs the bootrom once.
+     */
+    static synchronized BootStateCache bootCache() {
+        if (bootCache == null) {
+            try {
+                Path directory = Files.createTempDirectory("javagb-boot-cache");
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteAll(directory)));
+                bootCache = new BootStateCache(directory);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return bootCache;
+    }
+
+    private static void deleteAll(Path directory) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        }
+        catch (IOException ex) {
+            // left for the os to clean up
+        }
+    }
+
+    /**
+     * A machine running {@code romPath}, past the bootrom and not presenting frames.
+     */
+    static Machine booted(String romPath) {
+        Machine machine = new Machine(new Cartridge(romPath));
+        machine.setPresentFrames(false);
+        bootCache().boot(machine);
+        return machine;
+    }
+
+    static int[] snapshot(Machine machine) {
+        MemoryManager mmu = machine.getMmu();
+        int[] state = new int[0x2000 + 0x2000 + 3];
+        for (int i = 0; i < 0x2000; i++) {
+            state[i] = mmu.readByte(0x8000 + i);
+            state[0x2000 + i] = mmu.readByte(0xC000 + i);
+        }
+        state[0x4000] = machine.getCpu().getRegisterValue("PC");
+        state[0x4001] = machine.getCpu().getRegisterValue("SP");
+        state[0x4002] = machine.getCpu().getRegisterValue("A");
+        return state;
+    }
+
+    @Test
+    public void testForkRunsIdentically() {
+        Machine original = newMachine();
+        for (int i = 0; i < 200000; i++) {
+            original.step();
+        }
+
+        Machine fork = original.fork();
+        assertTrue(original.isActive());
+        assertEquals(original.getCpu(), Cpu.getCurrentInstance());
+
+        for (int i = 0; i < 100000; i++) {
+            fork.step();
+        }
+        assertTrue(fork.isActive());
+        for (int i = 0; i < 100000; i++) {
+            original.step();
+        }
+        assertFalse(fork.isActive());
+
+        int[] expected = snapshot(original);
+        int[] actual = snapshot(fork);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("state differs at index " + i, expected[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void testForkIsIndependent() {
+        Machine original = newMachine();
+        for (int i = 0; i < 200000; i++) {
+            original.step();
+        }
+        int before = original.getMmu().readByte(0xC123);
+
+        Machine fork = original.fork();
+        fork.getMmu().writeByte(0xC123, (before + 1) & 0xFF);
+        fork.getCpu().setRegisterValue("A", (original.getCpu().getRegisterValue("A") + 1) & 0xFF);
+
+        assertEquals(before, original.getMmu().readByte(0xC123));
+        assertEquals((before + 1) & 0xFF, fork.getMmu().readByte(0xC123));
+        assertNotEquals(original.getCpu().getRegisterValue("A"), fork.getCpu().getRegisterValue("A"));
+    }
+
+    @Test
+    public void testForkingAnInactiveMachineKeepsTheCurrentCpu() {
+        Machine inactive = newMachine();
+        Machine active = newMachine();
+        active.step();
+        inactive.fork();
+        assertTrue(active.isActive());
+        assertEquals(active.getCpu(), Cpu.getCurrentInstance());
+    }
+
+    @Test
+    public void testSaveAndLoadState() {
+        Machine machine = newMachine();
+        for (int i = 0; i < 5; i++) {
+            machine.runFrame();
+        }
+        StateBuffer state = new StateBuffer();
+        machine.saveState(state);
+        long frame = machine.getFrameCount();
+
+        for (int i = 0; i < 3; i++) {
+            machine.runFrame();
+        }
+        int[] expected = snapshot(machine);
+
+        machine.loadState(state);
+        assertEquals(frame, machine.getFrameCount());
+        for (int i = 0; i < 3; i++) {
+            machine.runFrame();
+        }
+        int[] actual = snapshot(machine);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("state differs at index " + i, expected[i], actual[i]);
+        }
+    }
+}
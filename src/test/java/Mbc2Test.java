@@ -0,0 +1,48 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class Mbc2Test extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MbcManager newMbc2() throws IOException {
+        // MBC2 + Battery, 256KB rom (16 banks), the header declares no ram
+        return new MbcManager(SyntheticRom.create(folder.getRoot().toPath(), 0x06, 0x03, 0x00));
+    }
+
+    @Test
+    public void testRomBankSelectNeedsAddressBit8() throws IOException {
+        MbcManager mbc = newMbc2();
+        assertEquals(1, mbc.mbcRead(0x4000));
+
+        mbc.mbcWrite(0x2100, 0x05);
+        assertEquals(5, mbc.mbcRead(0x4000));
+        mbc.mbcWrite(0x2000, 0x07); // bit 8 clear, that's the ram enable register
+        assertEquals(5, mbc.mbcRead(0x4000));
+        mbc.mbcWrite(0x0100, 0x00); // bank 0 selects bank 1
+        assertEquals(1, mbc.mbcRead(0x4000));
+        mbc.mbcWrite(0x3FFF, 0x0F);
+        assertEquals(15, mbc.mbcRead(0x4000));
+    }
+
+    @Test
+    public void testHalfByteRam() throws IOException {
+        MbcManager mbc = newMbc2();
+        mbc.mbcWrite(0xA000, 0x03);
+        assertEquals(0xFF, mbc.mbcRead(0xA000)); // disabled
+
+        mbc.mbcWrite(0x0000, 0x0A);
+        mbc.mbcWrite(0xA000, 0xAB);
+        assertEquals(0xFB, mbc.mbcRead(0xA000)); // only the low 4 bits are stored
+        mbc.mbcWrite(0xA1FF, 0x06);
+        assertEquals(0xF6, mbc.mbcRead(0xA1FF));
+        assertEquals(0xF6, mbc.mbcRead(0xBFFF)); // 512 entries, mirrored up to 0xBFFF
+        assertEquals(0xFB, mbc.mbcRead(0xA200));
+    }
+}
@@ -0,0 +1,134 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class Mbc3Test extends UnitTest {
+    private static final int CYCLES_PER_SECOND = RealTimeClock.CYCLES_PER_SECOND;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MbcManager mbc;
+
+    @Before
+    public void setUp() throws IOException {
+        TimerService.reset();
+        // MBC3 + RAM + Timer + Battery, 2MB rom, 32KB ram
+        mbc = new MbcManager(SyntheticRom.create(folder.getRoot().toPath(), 0x10, 0x06, 0x03));
+    }
+
+    private int readClock(int register) {
+        mbc.mbcWrite(0x4000, 0x08 + register);
+        return mbc.mbcRead(0xA000);
+    }
+
+    private void latch() {
+        mbc.mbcWrite(0x6000, 0x00);
+        mbc.mbcWrite(0x6000, 0x01);
+    }
+
+    @Test
+    public void testRomBanking() {
+        assertEquals(0, mbc.mbcRead(0x0000));
+        assertEquals(1, mbc.mbcRead(0x4000)); // bank 1 at power on
+
+        mbc.mbcWrite(0x2000, 0x00); // bank 0 selects bank 1
+        assertEquals(1, mbc.mbcRead(0x4000));
+        mbc.mbcWrite(0x2000, 0x7F);
+        assertEquals(0x7F, mbc.mbcRead(0x4000));
+        mbc.mbcWrite(0x2000, 0x20); // unlike MBC1, banks 0x20/0x40/0x60 are reachable
+        assertEquals(0x20, mbc.mbcRead(0x4000));
+    }
+
+    @Test
+    public void testRamBanking() {
+        mbc.mbcWrite(0xA000, 1);
+        assertEquals(0xFF, mbc.mbcRead(0xA000)); // disabled
+
+        mbc.mbcWrite(0x0000, 0x0A);
+        for (int bank = 0; bank < 4; bank++) {
+            mbc.mbcWrite(0x4000, bank);
+            mbc.mbcWrite(0xA123, 10 + bank);
+        }
+        for (int bank = 0; bank < 4; bank++) {
+            mbc.mbcWrite(0x4000, bank);
+            assertEquals(10 + bank, mbc.mbcRead(0xA123));
+        }
+    }
+
+    @Test
+    public void testClockCountsEmulatedTime() {
+        mbc.mbcWrite(0x0000, 0x0A);
+        latch();
+        assertEquals(0, readClock(RealTimeClock.SECONDS));
+
+        TimerService.getInstance().step(3 * CYCLES_PER_SECOND + 100);
+        assertEquals(0, readClock(RealTimeClock.SECONDS)); // still latched
+        latch();
+        assertEquals(3, readClock(RealTimeClock.SECONDS));
+
+        // set 23:59:59 on day 511, one second later the day counter overflows
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.HOURS);
+        mbc.mbcWrite(0xA000, 23);
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.MINUTES);
+        mbc.mbcWrite(0xA000, 59);
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.DAY_LOW);
+        mbc.mbcWrite(0xA000, 0xFF);
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.DAY_HIGH);
+        mbc.mbcWrite(0xA000, 0x01);
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.SECONDS);
+        mbc.mbcWrite(0xA000, 59);
+
+        TimerService.getInstance().step(CYCLES_PER_SECOND);
+        latch();
+        assertEquals(0, readClock(RealTimeClock.SECONDS));
+        assertEquals(0, readClock(RealTimeClock.HOURS));
+        assertEquals(0, readClock(RealTimeClock.DAY_LOW));
+        assertEquals(0x80, readClock(RealTimeClock.DAY_HIGH)); // carry set, day bit 8 clear
+    }
+
+    @Test
+    public void testHaltStopsClock() {
+        mbc.mbcWrite(0x0000, 0x0A);
+        TimerService.getInstance().step(2 * CYCLES_PER_SECOND);
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.DAY_HIGH);
+        mbc.mbcWrite(0xA000, 0x40);
+
+        TimerService.getInstance().step(5 * CYCLES_PER_SECOND);
+        latch();
+        assertEquals(2, readClock(RealTimeClock.SECONDS));
+        assertEquals(0x40, readClock(RealTimeClock.DAY_HIGH));
+
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.DAY_HIGH);
+        mbc.mbcWrite(0xA000, 0x00);
+        TimerService.getInstance().step(CYCLES_PER_SECOND);
+        latch();
+        assertEquals(3, readClock(RealTimeClock.SECONDS));
+    }
+
+    @Test
+    public void testClockIsStoredInSaveFile() throws IOException {
+        mbc.mbcWrite(0x0000, 0x0A);
+        mbc.mbcWrite(0x4000, 0x08 + RealTimeClock.MINUTES);
+        mbc.mbcWrite(0xA000, 42);
+        mbc.mbcWrite(0x4000, 0x00);
+        mbc.mbcWrite(0xA000, 0x77);
+
+        java.nio.file.Path file = folder.getRoot().toPath().resolve("clock.sav");
+        mbc.enableBatterySave(file).close();
+        assertEquals(0x8000 + RealTimeClock.SAVE_BYTES, java.nio.file.Files.size(file));
+
+        setUp();
+        mbc.enableBatterySave(file).close();
+        mbc.mbcWrite(0x0000, 0x0A);
+        mbc.mbcWrite(0x4000, 0x00);
+        assertEquals(0x77, mbc.mbcRead(0xA000));
+        latch();
+        assertEquals(42, readClock(RealTimeClock.MINUTES));
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Mbc5Test extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int selectedBank(MbcManager mbc) {
+        return mbc.mbcRead(0x4000) | (mbc.mbcRead(0x4001) << 8);
+    }
+
+    @Test
+    public void testNineBitRomBank() throws IOException {
+        // MBC5 + RAM + Battery, 8MB rom (512 banks), 128KB ram
+        MbcManager mbc = new MbcManager(SyntheticRom.create(folder.getRoot().toPath(), 0x1B, 0x08, 0x04));
+        assertEquals(1, selectedBank(mbc));
+
+        mbc.mbcWrite(0x2000, 0x00); // bank 0 can be mapped at 0x4000 on MBC5
+        assertEquals(0, selectedBank(mbc));
+        mbc.mbcWrite(0x2000, 0x42);
+        mbc.mbcWrite(0x3000, 0x01);
+        assertEquals(0x142, selectedBank(mbc));
+        mbc.mbcWrite(0x2FFF, 0xFF);
+        assertEquals(0x1FF, selectedBank(mbc));
+        mbc.mbcWrite(0x3FFF, 0x00);
+        assertEquals(0x0FF, selectedBank(mbc));
+    }
+
+    @Test
+    public void testSixteenRamBanks() throws IOException {
+        MbcManager mbc = new MbcManager(SyntheticRom.create(folder.getRoot().toPath(), 0x1B, 0x08, 0x04));
+        mbc.mbcWrite(0x0000, 0x0A);
+        for (int bank = 0; bank < 16; bank++) {
+            mbc.mbcWrite(0x4000, bank);
+            mbc.mbcWrite(0xBFFF, bank * 3);
+        }
+        for (int bank = 0; bank < 16; bank++) {
+            mbc.mbcWrite(0x4000, bank);
+            assertEquals(bank * 3, mbc.mbcRead(0xBFFF));
+        }
+
+        mbc.mbcWrite(0x0000, 0x00);
+        assertEquals(0xFF, mbc.mbcRead(0xBFFF));
+    }
+
+    @Test
+    public void testRumbleBitIsNotABankBit() throws IOException {
+        // MBC5 + RAM + Rumble, 1MB rom, 32KB ram
+        MbcManager mbc = new MbcManager(SyntheticRom.create(folder.getRoot().toPath(), 0x1D, 0x05, 0x03));
+        mbc.mbcWrite(0x0000, 0x0A);
+        mbc.mbcWrite(0x4000, 0x01);
+        mbc.mbcWrite(0xA000, 0x55);
+        assertFalse(mbc.isRumbling());
+
+        mbc.mbcWrite(0x4000, 0x09); // motor on, still bank 1
+        assertTrue(mbc.isRumbling());
+        assertEquals(0x55, mbc.mbcRead(0xA000));
+    }
+}
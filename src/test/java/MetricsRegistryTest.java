@@ -0,0 +1,76 @@
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest extends UnitTest {
+    @Test
+    public void testMachineAndTotals() throws JMException {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        MetricsRegistry registry = new MetricsRegistry(server);
+        ObjectName totals = new ObjectName(MetricsRegistry.DOMAIN + ":type=Machines");
+
+        Machine tetris = MachineTest.booted("src/main/resources/tetris.gb");
+        registry.register(tetris);
+        for (int i = 0; i < 120; i++) {
+            tetris.runFrame();
+            tetris.frameCommitted();
+        }
+        // under run-ahead only the real frames count
+        Display.reset();
+        Display.getTestInstace();
+        Machine plain = MachineTest.booted("src/main/resources/pokebluejp.gb");
+        long bootInstructions = plain.getCpu().getInstructionCount(); // the first boot runs the bootrom
+        long bootBankSwitches = plain.getMbc().getBankSwitchCount();
+        for (int i = 0; i < 120; i++) {
+            plain.runFrame();
+        }
+        Machine pokemon = MachineTest.booted("src/main/resources/pokebluejp.gb");
+        registry.register(pokemon);
+        assertNull(pokemon.fork().getMetrics());
+        RunAhead runAhead = new RunAhead(pokemon, 2);
+        for (int i = 0; i < 120; i++) {
+            runAhead.runFrame();
+        }
+        ObjectName pokemonName = registry.getName(pokemon);
+        assertEquals(plain.getFrameCount(), server.getAttribute(pokemonName, "Frames"));
+        assertEquals(plain.getTimer().getCycleCount(), server.getAttribute(pokemonName, "Cycles"));
+        assertEquals(plain.getCpu().getInstructionCount() - bootInstructions,
+                server.getAttribute(pokemonName, "Instructions"));
+        assertEquals(plain.getMbc().getBankSwitchCount() - bootBankSwitches,
+                server.getAttribute(pokemonName, "BankSwitches"));
+
+        ObjectName name = registry.getName(tetris);
+        assertEquals("TETRIS", server.getAttribute(name, "Title"));
+        assertEquals(tetris.getFrameCount(), server.getAttribute(name, "Frames"));
+        assertEquals(tetris.getCpu().getInstructionCount(), server.getAttribute(name, "Instructions"));
+        assertEquals(tetris.getTimer().getCycleCount(), server.getAttribute(name, "Cycles"));
+        assertTrue((Long) server.getAttribute(name, "VBlankInterrupts") >= 100);
+        assertEquals(0L, server.getAttribute(name, "DroppedFrames"));
+        assertTrue((Long) server.getAttribute(pokemonName, "BankSwitches") > 0);
+
+        assertEquals(2, server.getAttribute(totals, "MachineCount"));
+        assertEquals(tetris.getFrameCount() + pokemon.getFrameCount(), server.getAttribute(totals, "Frames"));
+        long interrupts = 0;
+        for (Machine machine : new Machine[] {tetris, plain}) {
+            for (InterruptManager.InterruptTypes type : InterruptManager.InterruptTypes.values()) {
+                interrupts += machine.getCpu().getInterruptCount(type);
+            }
+        }
+        assertEquals(interrupts, server.getAttribute(totals, "Interrupts"));
+        log(server.getAttribute(totals, "Instructions") + " instructions, "
+                + server.getAttribute(totals, "BankSwitches") + " bank switches");
+
+        registry.unregister(tetris);
+        assertNull(tetris.getMetrics());
+        assertFalse(server.isRegistered(name));
+        assertEquals(1, server.getAttribute(totals, "MachineCount"));
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MovieTest extends UnitTest {
+    private final String tetrisPath = "src/main/resources/tetris.gb";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MoviePlayer.Result play(String romPath, Movie movie) {
+        return new MoviePlayer(new Cartridge(romPath), movie, MachineTest.bootCache()).play();
+    }
+
+    private void playStandardMovie(String name, String romPath) throws IOException {
+        Movie movie = Movie.read(Paths.get("src/test/resources/movies", name + ".gbm"));
+        MoviePlayer.Result result = play(romPath, movie);
+        log(name + ": " + result);
+        assertEquals(movie.getFrameCount(), result.getFrames());
+        assertEquals(movie.getRamHash(), result.getActualRamHash());
+    }
+
+    @Test
+    public void testTetrisMovie() throws IOException {
+        playStandardMovie("tetris", tetrisPath);
+    }
+
+    @Test
+    public void testDrMarioMovie() throws IOException {
+        playStandardMovie("drmario", "src/main/resources/drmario.gb");
+    }
+
+    @Test
+    public void testPokemonBlueMovie() throws IOException {
+        playStandardMovie("pokebluejp", "src/main/resources/pokebluejp.gb");
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException {
+        Machine machine = MachineTest.booted(tetrisPath);
+        MovieRecorder recorder = new MovieRecorder(machine);
+        for (int i = 0; i < 40; i++) {
+            recorder.recordFrame(i >= 30 && i < 33 ? Joypad.BUTTON_START : 0);
+        }
+        Path file = folder.getRoot().toPath().resolve("short.gbm");
+        recorder.toMovie().write(file);
+
+        Movie movie = Movie.read(file);
+        assertEquals(40, movie.getFrameCount());
+        assertEquals(Joypad.BUTTON_START, movie.getButtons(31));
+        assertEquals(0, movie.getButtons(33));
+        assertTrue(play(tetrisPath, movie).matches());
+
+        // a different end state has to be reported, not ignored
+        int[] frames = new int[40];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = movie.getButtons(i);
+        }
+        Movie tampered = new Movie(movie.getRomHash(), movie.getTitle(), frames, "0000000000000000000000000000000000000000");
+        assertFalse(play(tetrisPath, tampered).matches());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOtherRom() throws IOException {
+        Movie movie = Movie.read(Paths.get("src/test/resources/movies/tetris.gbm"));
+        play("src/main/resources/drmario.gb", movie);
+    }
+
+    private Path movieWith(String frames, String input) throws IOException {
+        Path file = folder.getRoot().toPath().resolve("bad.gbm");
+        Files.write(file, ("javagb-movie 1\nrom 00\ntitle T\nframes " + frames + "\nramhash 00\ninput\n" + input)
+                .getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testReadsWellFormedInput() throws IOException {
+        assertEquals(0x05, Movie.read(movieWith("5", "5 05\n")).getButtons(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTruncatedInputLine() throws IOException {
+        Movie.read(movieWith("5", "5\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNegativeFrameCount() throws IOException {
+        Movie.read(movieWith("-1", ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsButtonsAboveAByte() throws IOException {
+        Movie.read(movieWith("5", "5 1ff\n"));
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OpcodeProfilerTest extends UnitTest {
+    @Test
+    public void testRecordIndexesCbOpcodes() {
+        OpcodeProfiler profiler = new OpcodeProfiler();
+        profiler.record(0x37, 4);
+        profiler.record(0xCB37, 8);
+        profiler.record(0xCB37, 8);
+        assertEquals(1, profiler.getCount(0x37));
+        assertEquals(4, profiler.getCycles(0x37));
+        assertEquals(2, profiler.getCount(0xCB37));
+        assertEquals(16, profiler.getCycles(0xCB37));
+        assertEquals(3, profiler.getTotalCount());
+        assertEquals(20, profiler.getTotalCycles());
+
+        String[] lines = profiler.getReport(10).split("\\R");
+        assertEquals(4, lines.length);
+        assertTrue(lines[2].startsWith("CB 37"));
+        assertTrue(lines[3].startsWith("37"));
+
+        profiler.reset();
+        assertEquals(0, profiler.getTotalCount());
+        assertEquals(0, profiler.getTotalCycles());
+    }
+
+    @Test
+    public void testProfileTetris() {
+        Machine machine = MachineTest.booted("src/main/resources/tetris.gb");
+        OpcodeProfiler profiler = new OpcodeProfiler();
+        machine.getCpu().setProfiler(profiler);
+        assertNull(machine.fork().getCpu().getProfiler());
+        machine.activate();
+
+        long cycles = TimerService.getInstance().getCycleCount();
+        for (int i = 0; i < 120; i++) {
+            machine.runFrame();
+        }
+        cycles = TimerService.getInstance().getCycleCount() - cycles;
+        log(profiler.getReport(10));
+
+        assertTrue(profiler.getTotalCount() > 120 * 1000);
+        // everything but halted steps and interrupt dispatch happens inside an instruction
+        assertTrue(profiler.getTotalCycles() <= cycles);
+        assertTrue(profiler.getTotalCycles() > cycles / 2);
+        assertEquals(4 * profiler.getCount(0x00), profiler.getCycles(0x00));
+    }
+}
@@ -0,0 +1,69 @@
+import helpers.PagedMemory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PagedMemoryTest extends UnitTest {
+
+    @Test
+    public void testReadWrite() {
+        PagedMemory mem = new PagedMemory(0x2000);
+        assertEquals(32, mem.pageCount());
+
+        for (int i = 0; i < mem.size(); i++) {
+            mem.write(i, i & 0xFF);
+        }
+        for (int i = 0; i < mem.size(); i++) {
+            assertEquals(i & 0xFF, mem.read(i));
+        }
+
+        PagedMemory filled = new PagedMemory(0x80, 0xFF);
+        assertEquals(1, filled.pageCount());
+        assertEquals(0xFF, filled.read(0x7F));
+    }
+
+    @Test
+    public void testForkSharesPagesUntilWritten() {
+        PagedMemory original = new PagedMemory(0x2000);
+        original.write(0x0100, 12);
+
+        PagedMemory fork = original.fork();
+        assertEquals(0, original.ownedPageCount());
+        assertEquals(0, fork.ownedPageCount());
+        assertSame(original.page(1), fork.page(1));
+        assertEquals(12, fork.read(0x0100));
+
+        // writing to the fork copies only the page that was touched
+        fork.write(0x0101, 34);
+        assertEquals(1, fork.ownedPageCount());
+        assertNotSame(original.page(1), fork.page(1));
+        assertSame(original.page(2), fork.page(2));
+        assertEquals(12, fork.read(0x0100));
+        assertEquals(34, fork.read(0x0101));
+        assertEquals(0, original.read(0x0101));
+
+        // and the original doesn't see writes made after the fork either
+        original.write(0x0200, 56);
+        assertEquals(0, fork.read(0x0200));
+        assertEquals(56, original.read(0x0200));
+    }
+
+    @Test
+    public void testCopyToAndFrom() {
+        PagedMemory mem = new PagedMemory(0x80);
+        int[] values = new int[0x80 + 4];
+        for (int i = 0; i < 0x80; i++) {
+            values[i + 4] = 0x80 - i;
+        }
+        mem.copyFrom(values, 4);
+        assertEquals(0x80, mem.read(0));
+        assertEquals(1, mem.read(0x7F));
+
+        int[] out = new int[0x80];
+        mem.copyTo(out, 0);
+        assertEquals(0x80, out[0]);
+        assertEquals(1, out[0x7F]);
+    }
+}
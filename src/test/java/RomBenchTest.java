@@ -0,0 +1,58 @@
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RomBenchTest extends UnitTest {
+    private final String tetrisPath = "src/main/resources/tetris.gb";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RomBench.Result bench(int warmupFrames, int frames) throws IOException {
+        Movie movie = Movie.read(Paths.get("src/test/resources/movies/tetris.gbm"));
+        BootStateCache bootCache = MachineTest.bootCache();
+        return new RomBench(new Cartridge(tetrisPath), movie, bootCache).run(warmupFrames, frames);
+    }
+
+    @Test
+    public void testWarmupDoesntChangeMeasuredFrames() throws IOException {
+        RomBench.Result cold = bench(0, 60);
+        RomBench.Result warm = bench(45, 60);
+        log(cold.toString());
+        assertEquals(60, warm.getFrames());
+        assertEquals(cold.getRamHash(), warm.getRamHash());
+        assertEquals(cold.getInstructions(), warm.getInstructions());
+        assertEquals(cold.getCycles(), warm.getCycles());
+        assertTrue(warm.getInstructions() > 60 * 1000);
+        assertTrue(warm.getRealTimeMultiple() > 0);
+    }
+
+    @Test
+    public void testWriteCsvAndJson() throws IOException {
+        RomBench.Result result = bench(0, 10);
+        Path csv = folder.getRoot().toPath().resolve("bench.csv");
+        result.write(csv);
+        result.write(csv);
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals(RomBench.Result.CSV_HEADER, lines.get(0));
+        assertEquals(lines.get(0).split(",").length, lines.get(1).split(",").length);
+
+        Path json = folder.getRoot().toPath().resolve("bench.json");
+        result.write(json);
+        JSONObject parsed = new JSONObject(new String(Files.readAllBytes(json), StandardCharsets.UTF_8));
+        assertEquals(10, parsed.getInt("frames"));
+        assertEquals(result.getRamHash(), parsed.getString("ramHash"));
+    }
+}
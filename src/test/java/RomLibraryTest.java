@@ -0,0 +1,114 @@
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RomLibraryTest extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScanReadsHeaders() throws IOException {
+        Path roms = folder.newFolder("roms").toPath();
+        Path mbc1 = SyntheticRom.write(roms, 0x03, 0x04, 0x03);
+        Path sub = Files.createDirectories(roms.resolve("sub"));
+        Path mbc5 = SyntheticRom.write(sub, 0x1B, 0x02, 0x04);
+        Files.write(roms.resolve("notes.txt"), "not a rom".getBytes("US-ASCII"));
+        Files.write(roms.resolve("short.gb"), new byte[0x80]);
+
+        RomLibrary library = new RomLibrary(folder.getRoot().toPath().resolve("index.json"));
+        RomLibrary.ScanResult result = library.scan(roms);
+        assertEquals(3, result.files);
+        assertEquals(2, result.indexed);
+        assertEquals(1, result.rejected);
+
+        RomLibrary.Entry entry = library.get(mbc1);
+        assertEquals("SYNTHETIC", entry.getTitle());
+        assertEquals("MBC1 + RAM + Battery", entry.getCartridgeTypeName());
+        assertEquals(512 * 1024, entry.getRomSize());
+        assertEquals(32 * 1024, entry.getRamSize());
+        assertTrue(entry.isHeaderChecksumValid());
+        assertTrue(entry.isGlobalChecksumValid());
+        assertEquals(new Cartridge(mbc1.toString()).getRomHash(), entry.getSha1());
+        assertEquals(128 * 1024, library.get(mbc5).getRamSize());
+    }
+
+    @Test
+    public void testRescanIsIncremental() throws IOException {
+        Path roms = folder.newFolder("roms").toPath();
+        Path kept = SyntheticRom.write(roms, 0x01, 0x01, 0x00);
+        Path changed = SyntheticRom.write(roms, 0x19, 0x01, 0x00);
+        Path deleted = SyntheticRom.write(roms, 0x11, 0x01, 0x00);
+        Path index = folder.getRoot().toPath().resolve("index.json");
+        new RomLibrary(index).scan(roms);
+
+        byte[] bytes = Files.readAllBytes(changed);
+        bytes[0x4000] ^= 0xFF; // breaks the global checksum
+        Files.write(changed, bytes);
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 2000));
+        Files.delete(deleted);
+
+        // a new instance only has what was written to the index
+        RomLibrary library = new RomLibrary(index);
+        RomLibrary.ScanResult result = library.scan(roms);
+        assertEquals(1, result.indexed);
+        assertEquals(1, result.unchanged);
+        assertEquals(1, result.removed);
+        assertTrue(library.get(kept).isGlobalChecksumValid());
+        assertFalse(library.get(changed).isGlobalChecksumValid());
+        assertTrue(library.get(changed).isHeaderChecksumValid());
+        assertNull(library.get(deleted));
+        assertEquals(2, new RomLibrary(index).getEntries().size());
+    }
+
+    @Test
+    public void testRejectsAreRemembered() throws IOException {
+        Path roms = folder.newFolder("roms").toPath();
+        Path rom = SyntheticRom.write(roms, 0x01, 0x01, 0x00);
+        Files.write(roms.resolve("short.gb"), new byte[0x80]);
+        Path index = folder.getRoot().toPath().resolve("index.json");
+        RomLibrary.ScanResult first = new RomLibrary(index).scan(roms);
+        assertEquals(1, first.indexed);
+        assertEquals(1, first.rejected);
+
+        // the file that isn't a rom isn't read again
+        RomLibrary library = new RomLibrary(index);
+        RomLibrary.ScanResult again = library.scan(roms);
+        assertEquals(2, again.unchanged);
+        assertEquals(0, again.rejected);
+    }
+
+    @Test
+    public void testUnreadableRomKeepsItsEntry() throws IOException {
+        Path roms = folder.newFolder("roms").toPath();
+        Path rom = SyntheticRom.write(roms, 0x01, 0x01, 0x00);
+        Path index = folder.getRoot().toPath().resolve("index.json");
+        RomLibrary library = new RomLibrary(index);
+        library.scan(roms);
+
+        Files.setLastModifiedTime(rom, FileTime.fromMillis(Files.getLastModifiedTime(rom).toMillis() + 2000));
+        Files.setPosixFilePermissions(rom, PosixFilePermissions.fromString("---------"));
+        try {
+            Assume.assumeFalse("can read unreadable files", Files.isReadable(rom));
+            RomLibrary.ScanResult unreadable = library.scan(roms);
+            assertEquals(1, unreadable.rejected);
+            assertEquals(0, unreadable.removed);
+            assertEquals("SYNTHETIC", library.get(rom).getTitle());
+        }
+        finally {
+            Files.setPosixFilePermissions(rom, PosixFilePermissions.fromString("rw-r--r--"));
+        }
+    }
+}
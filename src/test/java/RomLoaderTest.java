@@ -0,0 +1,101 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RomLoaderTest extends UnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompressedRomsMatchTheRawFile() throws IOException {
+        Path raw = SyntheticRom.write(folder.getRoot().toPath(), 0x1B, 0x05, 0x03);
+        byte[] expected = Files.readAllBytes(raw);
+
+        Path gz = folder.getRoot().toPath().resolve("game.gb.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(expected);
+        }
+        Path zip = folder.getRoot().toPath().resolve("game.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("readme.txt"));
+            out.write("skip me".getBytes("US-ASCII"));
+            out.putNextEntry(new ZipEntry("Game (World).gb"));
+            out.write(expected);
+        }
+
+        assertArrayEquals(expected, RomLoader.load(raw));
+        assertArrayEquals(expected, RomLoader.load(gz));
+        assertArrayEquals(expected, RomLoader.load(zip));
+        Cartridge cart = new Cartridge(zip.toString());
+        assertEquals(new Cartridge(raw.toString()).getRomHash(), cart.getRomHash());
+        assertEquals(1024 * 1024, cart.getRomSize());
+    }
+
+    @Test
+    public void testTruncatedRomIsPadded() throws IOException {
+        Path raw = SyntheticRom.write(folder.getRoot().toPath(), 0x19, 0x02, 0x00);
+        byte[] bytes = Files.readAllBytes(raw);
+        Files.write(raw, Arrays.copyOf(bytes, 0x6000));
+
+        assertEquals(0x6000, RomLoader.load(raw).length);
+        Cartridge cart = new Cartridge(raw.toString());
+        assertEquals(0xFF, cart.readFromAddress(0x6000));
+        assertEquals(0xFF, cart.readFromAddress(0x1FFFF));
+    }
+
+    @Test
+    public void testRomShorterThanTwoBanksIsPadded() throws IOException {
+        Path raw = SyntheticRom.write(folder.getRoot().toPath(), 0x00, 0x00, 0x00);
+        byte[] bytes = Files.readAllBytes(raw);
+        Files.write(raw, Arrays.copyOf(bytes, 0x5000));
+
+        Cartridge cart = new Cartridge(raw.toString());
+        assertEquals(bytes[0x4FFF] & 0xFF, cart.readFromAddress(0x4FFF));
+        assertEquals(0xFF, cart.readFromAddress(0x5000));
+        assertEquals(0xFF, cart.readFromAddress(0x7FFF));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRomLargerThanAnyCartridge() throws IOException {
+        Path raw = SyntheticRom.write(folder.getRoot().toPath(), 0x00, 0x00, 0x00);
+        byte[] bytes = Files.readAllBytes(raw);
+        Files.write(raw, Arrays.copyOf(bytes, 8 * 1024 * 1024 + 1));
+        RomLoader.load(raw);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotARom() throws IOException {
+        Path file = folder.newFile("notes.gb").toPath();
+        Files.write(file, "hello".getBytes("US-ASCII"));
+        new Cartridge(file.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZipWithoutARom() throws IOException {
+        Path zip = folder.getRoot().toPath().resolve("empty.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("readme.txt"));
+            out.write("no rom here".getBytes("US-ASCII"));
+        }
+        RomLoader.load(zip);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testMissingFile() {
+        new Cartridge(folder.getRoot().toPath().resolve("missing.gb").toString());
+    }
+}
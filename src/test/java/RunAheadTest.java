@@ -0,0 +1,40 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RunAheadTest extends UnitTest {
+    private final String tetrisPath = "src/main/resources/tetris.gb";
+
+    @Test
+    public void testRealTimelineIsUnchanged() {
+        Display.reset();
+        Display.getTestInstace();
+
+        Machine plain = new Machine(new Cartridge(tetrisPath));
+        plain.setPresentFrames(false);
+        Machine ahead = new Machine(new Cartridge(tetrisPath));
+        RunAhead runAhead = new RunAhead(ahead, 2);
+
+        for (int i = 0; i < 20; i++) {
+            plain.runFrame();
+            runAhead.runFrame();
+            assertEquals(plain.getFrameCount(), ahead.getFrameCount());
+        }
+
+        int[] expected = MachineTest.snapshot(plain);
+        int[] actual = MachineTest.snapshot(ahead);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("state differs at index " + i, expected[i], actual[i]);
+        }
+
+        assertEquals(20, runAhead.getFrames());
+        assertTrue(runAhead.getAddedNanosPerFrame() > 0);
+        log(runAhead.getReport());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDepthMustBePositive() {
+        new RunAhead(new Machine(new Cartridge(tetrisPath)), 0);
+    }
+}
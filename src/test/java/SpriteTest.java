@@ -0,0 +1,79 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpriteTest extends UnitTest {
+
+    private Gpu gpu;
+
+    @Before
+    public void setUp() {
+        InterruptManager.reset();
+        gpu = new Gpu();
+        gpu.setPresentFrames(false);
+        gpu.lcdControl.setLcdControl(0b1001_0011); // lcd, sprites and background on, tiles at 0x8000
+        // tile 1 is solid colour 3, tile 0 (the background) stays colour 0
+        for (int i = 0x10; i < 0x20; i++) {
+            gpu.vram.write(i, 0xFF);
+            gpu.updateTile(i);
+        }
+        gpu.spritePalette[0] = new int[] {0, 3, 3, 3};
+        gpu.spritePalette[1] = new int[] {0, 1, 1, 1};
+    }
+
+    private void setSprite(int sprite, int x, int y, int tile, int flags) {
+        gpu.buildSprite(sprite * 4, y + 16);
+        gpu.buildSprite(sprite * 4 + 1, x + 8);
+        gpu.buildSprite(sprite * 4 + 2, tile);
+        gpu.buildSprite(sprite * 4 + 3, flags);
+    }
+
+    private int[] renderLine(int line) {
+        while (gpu.line <= line) {
+            gpu.step(4);
+        }
+        int[] row = new int[160];
+        System.arraycopy(gpu.getScreen(), line * 160, row, 0, 160);
+        return row;
+    }
+
+    @Test
+    public void testTenSpritesPerLine() {
+        for (int i = 0; i < 12; i++) {
+            setSprite(i, i * 10, 20, 1, 0);
+        }
+        int[] row = renderLine(20);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("sprite " + i, 3, row[i * 10]);
+        }
+        assertEquals(0, row[100]); // the 11th and 12th sprite aren't drawn
+        assertEquals(0, row[110]);
+    }
+
+    @Test
+    public void testOffScreenSpritesCountTowardsTheLimit() {
+        for (int i = 0; i < 10; i++) {
+            setSprite(i, -8, 30, 1, 0); // x = 0 in OAM, hidden
+        }
+        setSprite(10, 50, 30, 1, 0);
+        assertEquals(0, renderLine(30)[50]);
+    }
+
+    @Test
+    public void testLeftmostSpriteWins() {
+        setSprite(0, 24, 40, 1, 0);      // earlier in OAM, palette 0
+        setSprite(1, 20, 40, 1, 0x10);   // further left, palette 1
+        int[] row = renderLine(40);
+        assertEquals(1, row[22]);
+        assertEquals(1, row[26]); // overlap goes to sprite 1
+        assertEquals(3, row[30]);
+    }
+
+    @Test
+    public void testOamOrderBreaksTies() {
+        setSprite(0, 60, 50, 1, 0x10);
+        setSprite(1, 60, 50, 1, 0);
+        assertEquals(1, renderLine(50)[62]);
+    }
+}
@@ -0,0 +1,47 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a rom image with the given header, for testing banking without a real cartridge.
+ * The first two bytes of every 16KB bank hold the bank number (low byte, high byte).
+ * The logo and both checksums are valid.
+ */
+class SyntheticRom {
+    static Cartridge create(Path directory, int cartridgeType, int romSizeCode, int ramSizeCode) throws IOException {
+        return new Cartridge(write(directory, cartridgeType, romSizeCode, ramSizeCode).toString());
+    }
+
+    static Path write(Path directory, int cartridgeType, int romSizeCode, int ramSizeCode) throws IOException {
+        int banks = 2 << romSizeCode;
+        byte[] rom = new byte[banks * 0x4000];
+        for (int bank = 0; bank < banks; bank++) {
+            rom[bank * 0x4000] = (byte) bank;
+            rom[bank * 0x4000 + 1] = (byte) (bank >> 8);
+        }
+        byte[] title = "SYNTHETIC".getBytes("US-ASCII");
+        System.arraycopy(title, 0, rom, 0x134, title.length);
+        rom[0x147] = (byte) cartridgeType;
+        rom[0x148] = (byte) romSizeCode;
+        rom[0x149] = (byte) ramSizeCode;
+        int[] logo = MemoryManager.getBiosLogo();
+        for (int i = 0; i < logo.length; i++) {
+            rom[0x104 + i] = (byte) logo[i];
+        }
+        int headerChecksum = 0;
+        for (int i = 0x134; i <= 0x14C; i++) {
+            headerChecksum = headerChecksum - rom[i] - 1;
+        }
+        rom[0x14D] = (byte) headerChecksum;
+        int globalChecksum = 0;
+        for (byte b : rom) {
+            globalChecksum += b & 0xFF;
+        }
+        rom[0x14E] = (byte) (globalChecksum >> 8);
+        rom[0x14F] = (byte) globalChecksum;
+
+        Path file = directory.resolve(String.format("synthetic-%02x.gb", cartridgeType));
+        Files.write(file, rom);
+        return file;
+    }
+}
@@ -0,0 +1,61 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WindowTest extends UnitTest {
+
+    private Gpu gpu;
+
+    @Before
+    public void setUp() {
+        InterruptManager.reset();
+        gpu = new Gpu();
+        gpu.setPresentFrames(false);
+        // lcd on, window map at 0x9C00, window on, tiles at 0x8000, background map at 0x9800, background on
+        gpu.lcdControl.setLcdControl(0b1111_0001);
+        for (int i = 0x10; i < 0x20; i++) { // tile 1 is solid colour 3
+            gpu.vram.write(i, 0xFF);
+            gpu.updateTile(i);
+        }
+        for (int i = 0; i < 32; i++) {
+            gpu.vram.write(0x1C00 + i, 1); // first window row is tile 1, the rest tile 0
+        }
+    }
+
+    private void runTo(int line) {
+        while (gpu.line < line) {
+            gpu.step(4);
+        }
+    }
+
+    private int pixel(int x, int y) {
+        return gpu.getScreen()[y * 160 + x];
+    }
+
+    @Test
+    public void testWindowCoversTheBackground() {
+        gpu.windowX = 80 + 7;
+        gpu.windowY = 10;
+        runTo(12);
+        assertEquals(0, pixel(100, 9));
+        assertEquals(0, pixel(79, 10));
+        assertEquals(3, pixel(80, 10));
+        assertEquals(3, pixel(159, 11));
+    }
+
+    @Test
+    public void testWindowLineOnlyCountsDrawnLines() {
+        gpu.windowX = 7;
+        gpu.windowY = 10;
+        runTo(13);           // window rows 0-2 on lines 10-12
+        gpu.windowX = 200;   // hidden on lines 13-16
+        runTo(17);
+        gpu.windowX = 7;
+        runTo(24);
+        assertEquals(0, pixel(0, 14));
+        assertEquals(3, pixel(0, 17)); // window row 3, not 7
+        assertEquals(3, pixel(0, 21)); // window row 7
+        assertEquals(0, pixel(0, 22)); // window row 8, the second map row
+    }
+}